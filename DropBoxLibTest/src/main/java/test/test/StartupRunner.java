@@ -31,7 +31,8 @@ public class StartupRunner implements CommandLineRunner {
 
 		log.info("Going to connect to dropBox and listen to changes");
 		longPoolService.register(fileEventListener);
-		longPoolService.keepConnection();
+		// returns right away, the long-poll runs on its own thread until the context stops
+		longPoolService.start();
 	}
 
 }
@@ -1,18 +1,39 @@
 package com.dbl.config;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.dbl.service.AsyncDropBoxService;
+import com.dbl.service.AsyncDropBoxServiceImpl;
 import com.dbl.service.DropBoxService;
 import com.dbl.service.DropBoxServiceImpl;
 import com.dbl.service.DropBoxUtils;
 import com.dbl.service.DropBoxUtilsImpl;
 import com.dbl.service.LongPoolService;
 import com.dbl.service.LongPoolServiceImpl;
+import com.dbl.service.cache.DownloadCache;
+import com.dbl.service.cursor.CursorStore;
+import com.dbl.service.cursor.FileCursorStore;
+import com.dbl.service.cursor.InMemoryCursorStore;
+import com.dbl.service.cache.DownloadCacheImpl;
+import com.dbl.service.index.MetadataIndex;
+import com.dbl.service.index.MetadataIndexImpl;
+import com.dbl.service.metrics.DropBoxMetrics;
+import com.dbl.service.watch.MultiplexedLongPollService;
+import com.dbl.service.watch.MultiplexedLongPollServiceImpl;
 
 @Configuration
 @EnableConfigurationProperties(DropBoxLibProperties.class)
@@ -22,22 +43,95 @@ public class DropBoxConfig {
 	@Autowired
 	private DropBoxLibProperties boxLibProperties;
 
+	@Autowired
+	private ObjectProvider<MeterRegistry> meterRegistry;
+
 	@Bean
 	@ConditionalOnMissingBean
 	public DropBoxUtils getDropBoxUtils() {
-		return new DropBoxUtilsImpl();
+		return new DropBoxUtilsImpl(boxLibProperties);
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public DropBoxService getDropBoxService(ObjectProvider<DownloadCache> downloadCache, ObjectProvider<MetadataIndex> metadataIndex) {
+		DropBoxServiceImpl dropBoxService = new DropBoxServiceImpl(boxLibProperties, getDropBoxUtils(), downloadCache.getIfAvailable(), metadataIndex.getIfAvailable(),
+				getDropBoxMetrics());
+		// the cache and the index are only trusted while the long-poll runs
+		dropBoxService.setLongPoolService(getLongPoolService());
+		return dropBoxService;
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty(prefix = "dropboxlib", name = "metadata-index-enabled", havingValue = "true")
+	public MetadataIndex getMetadataIndex() {
+		MetadataIndex metadataIndex = new MetadataIndexImpl(boxLibProperties.getDropBoxRootPath());
+		// change events keep the index current once seeded
+		getLongPoolService().register(metadataIndex);
+		return metadataIndex;
+	}
+
+	/**
+	 * Operations run on the executor bean named dropBoxAsyncExecutor when there
+	 * is one, on an executor of the lib otherwise
+	 */
+	@Bean
+	@ConditionalOnMissingBean
+	public AsyncDropBoxService getAsyncDropBoxService(DropBoxService dropBoxService, @Qualifier("dropBoxAsyncExecutor") ObjectProvider<Executor> executor) {
+		Executor asyncExecutor = executor.getIfAvailable();
+		return asyncExecutor == null ? new AsyncDropBoxServiceImpl(dropBoxService, boxLibProperties) : new AsyncDropBoxServiceImpl(dropBoxService, asyncExecutor);
 	}
 
 	@Bean
 	@ConditionalOnMissingBean
-	public DropBoxService getDropBoxService() {
-		return new DropBoxServiceImpl(boxLibProperties, getDropBoxUtils());
+	@ConditionalOnProperty(prefix = "dropboxlib", name = "cache-enabled", havingValue = "true")
+	public DownloadCache getDownloadCache() throws IOException {
+		String cacheDirectory = boxLibProperties.getCacheDirectory();
+		if (cacheDirectory == null || cacheDirectory.isEmpty()) {
+			String tempDirectory = boxLibProperties.getTempDirectory();
+			cacheDirectory = Path.of(tempDirectory == null || tempDirectory.isEmpty() ? System.getProperty("java.io.tmpdir") : tempDirectory, "dropboxlib-cache").toString();
+		}
+		DownloadCache downloadCache = new DownloadCacheImpl(Path.of(cacheDirectory), boxLibProperties.getCacheMaxDiskBytes(), boxLibProperties.getCacheMaxMemoryBytes());
+		// change events keep the cache current
+		getLongPoolService().register(downloadCache);
+		return downloadCache;
 	}
 
 	@Bean
 	@ConditionalOnMissingBean
 	public LongPoolService getLongPoolService() {
-		return new LongPoolServiceImpl(boxLibProperties, getDropBoxUtils());
+		return new LongPoolServiceImpl(boxLibProperties, getDropBoxUtils(), getCursorStore(), getDropBoxMetrics());
+	}
+
+	/**
+	 * Folders are watched once subscribed, the service starts with the
+	 * context when dropboxlib.long-poll-auto-startup is set
+	 */
+	@Bean
+	@ConditionalOnMissingBean
+	public MultiplexedLongPollService getMultiplexedLongPollService() {
+		return new MultiplexedLongPollServiceImpl(boxLibProperties, getDropBoxUtils(), getCursorStore());
+	}
+
+	/**
+	 * Meters are registered in the registry of the actuator when there is one,
+	 * they are recorded nowhere otherwise
+	 */
+	@Bean
+	@ConditionalOnMissingBean
+	public DropBoxMetrics getDropBoxMetrics() {
+		MeterRegistry registry = meterRegistry.getIfAvailable();
+		DropBoxMetrics dropBoxMetrics = registry == null ? new DropBoxMetrics() : new DropBoxMetrics(registry);
+		dropBoxMetrics.bindThrottler(getDropBoxUtils().getRequestThrottler());
+		return dropBoxMetrics;
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public CursorStore getCursorStore() {
+		String cursorStoreFile = boxLibProperties.getCursorStoreFile();
+		return cursorStoreFile == null || cursorStoreFile.isEmpty() ? new InMemoryCursorStore() : new FileCursorStore(Path.of(cursorStoreFile));
 	}
 
 }
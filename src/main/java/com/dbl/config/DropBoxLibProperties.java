@@ -1,9 +1,13 @@
 package com.dbl.config;
 
+import java.net.http.HttpClient;
 import java.util.List;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import com.dbl.service.dispatch.OverflowPolicy;
+import com.dbl.service.http.HttpTransport;
+
 @ConfigurationProperties(prefix = "dropboxlib", ignoreUnknownFields = false)
 public class DropBoxLibProperties {
 
@@ -12,6 +16,66 @@ public class DropBoxLibProperties {
 	private String accessToken;
 	private String dropBoxRootPath;
 	private boolean longPull;
+	private long rangedDownloadPartSize = 8L * 1024 * 1024;
+	private int rangedDownloadParallelism = 4;
+	private int transferMaxRetries = 3;
+	private int downloadConcurrency = 8;
+	private boolean virtualThreads;
+	private String tempDirectory;
+	private boolean cacheEnabled;
+	private String cacheDirectory;
+	private long cacheMaxDiskBytes = 1024L * 1024 * 1024;
+	private long cacheMaxMemoryBytes = 64L * 1024 * 1024;
+	private int uploadChunkSize = 16 * 1024 * 1024;
+	private int uploadParallelism = 4;
+	private int uploadConcurrency = 8;
+	private int batchSize = 1000;
+	private long batchPollInitialDelayMillis = 250;
+	private long batchPollMaxDelayMillis = 5000;
+	private long batchPollTimeoutMillis = 600000;
+	private int asyncThreads = 16;
+	private boolean asyncVirtualThreads = true;
+	private long listPageLimit = 0;
+	private boolean listPrefetch = true;
+	private boolean metadataIndexEnabled;
+	private String cursorStoreFile;
+	private String listingSnapshotFile;
+	private int dispatchStripes = 4;
+	private int dispatchQueueCapacity = 10000;
+	private OverflowPolicy dispatchOverflowPolicy = OverflowPolicy.BLOCK;
+	private String dispatchSpillDirectory;
+	private int listenerBatchSize = 1000;
+	private long listenerBatchDelayMillis = 0;
+	private long coalesceWindowMillis = 0;
+	private boolean longPollAutoStartup;
+	private long longPollStopTimeoutMillis = 30000;
+	private boolean watchVirtualThreads = true;
+	private int watchPollThreads = 64;
+	private int watchFetchThreads = 4;
+	private long watchLongPollTimeoutSecs = 120;
+	private long watchMaxBackoffMillis = 300000;
+	private boolean prefetchEnabled;
+	private long prefetchMaxFileSize = 10L * 1024 * 1024;
+	private List<String> prefetchFileFormat;
+	private int prefetchConcurrency = 4;
+	private long prefetchMemoryBudget = 64L * 1024 * 1024;
+	private double throttleRequestsPerSecond = 0;
+	private int throttleBurst = 20;
+	private int throttleMaxInFlight = 32;
+	private int throttleMaxRetries = 3;
+	private long throttleMaxBackoffMillis = 60000;
+	private boolean adaptiveConcurrency = true;
+	private int adaptiveConcurrencyMax = 64;
+	private int adaptiveBatchConcurrencyMax = 4;
+	private double adaptiveConcurrencyLatencyTolerance = 2.0;
+	private HttpTransport httpTransport = HttpTransport.STANDARD;
+	private long httpConnectTimeoutMillis = 20000;
+	private long httpReadTimeoutMillis = 100000;
+	private HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+	private int httpThreads = 0;
+	private long lagDegradedThresholdMillis = 60000;
+	private long lagWindowMillis = 300000;
+	private long longPollMaxBackoffMillis = 300000;
 
 	public List<String> getInterestingFileFormat() {
 		return interestingFileFormat;
@@ -53,4 +117,484 @@ public class DropBoxLibProperties {
 		this.longPull = longPull;
 	}
 
+	public long getRangedDownloadPartSize() {
+		return rangedDownloadPartSize;
+	}
+
+	public void setRangedDownloadPartSize(long rangedDownloadPartSize) {
+		this.rangedDownloadPartSize = rangedDownloadPartSize;
+	}
+
+	public int getRangedDownloadParallelism() {
+		return rangedDownloadParallelism;
+	}
+
+	public void setRangedDownloadParallelism(int rangedDownloadParallelism) {
+		this.rangedDownloadParallelism = rangedDownloadParallelism;
+	}
+
+	public int getTransferMaxRetries() {
+		return transferMaxRetries;
+	}
+
+	public void setTransferMaxRetries(int transferMaxRetries) {
+		this.transferMaxRetries = transferMaxRetries;
+	}
+
+	public int getDownloadConcurrency() {
+		return downloadConcurrency;
+	}
+
+	public void setDownloadConcurrency(int downloadConcurrency) {
+		this.downloadConcurrency = downloadConcurrency;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public String getTempDirectory() {
+		return tempDirectory;
+	}
+
+	public void setTempDirectory(String tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	public boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	public String getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public void setCacheDirectory(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public long getCacheMaxDiskBytes() {
+		return cacheMaxDiskBytes;
+	}
+
+	public void setCacheMaxDiskBytes(long cacheMaxDiskBytes) {
+		this.cacheMaxDiskBytes = cacheMaxDiskBytes;
+	}
+
+	public long getCacheMaxMemoryBytes() {
+		return cacheMaxMemoryBytes;
+	}
+
+	public void setCacheMaxMemoryBytes(long cacheMaxMemoryBytes) {
+		this.cacheMaxMemoryBytes = cacheMaxMemoryBytes;
+	}
+
+	public int getUploadChunkSize() {
+		return uploadChunkSize;
+	}
+
+	public void setUploadChunkSize(int uploadChunkSize) {
+		this.uploadChunkSize = uploadChunkSize;
+	}
+
+	public int getUploadParallelism() {
+		return uploadParallelism;
+	}
+
+	public void setUploadParallelism(int uploadParallelism) {
+		this.uploadParallelism = uploadParallelism;
+	}
+
+	public int getUploadConcurrency() {
+		return uploadConcurrency;
+	}
+
+	public void setUploadConcurrency(int uploadConcurrency) {
+		this.uploadConcurrency = uploadConcurrency;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getBatchPollInitialDelayMillis() {
+		return batchPollInitialDelayMillis;
+	}
+
+	public void setBatchPollInitialDelayMillis(long batchPollInitialDelayMillis) {
+		this.batchPollInitialDelayMillis = batchPollInitialDelayMillis;
+	}
+
+	public long getBatchPollMaxDelayMillis() {
+		return batchPollMaxDelayMillis;
+	}
+
+	public void setBatchPollMaxDelayMillis(long batchPollMaxDelayMillis) {
+		this.batchPollMaxDelayMillis = batchPollMaxDelayMillis;
+	}
+
+	public long getBatchPollTimeoutMillis() {
+		return batchPollTimeoutMillis;
+	}
+
+	public void setBatchPollTimeoutMillis(long batchPollTimeoutMillis) {
+		this.batchPollTimeoutMillis = batchPollTimeoutMillis;
+	}
+
+	public int getAsyncThreads() {
+		return asyncThreads;
+	}
+
+	public void setAsyncThreads(int asyncThreads) {
+		this.asyncThreads = asyncThreads;
+	}
+
+	public boolean isAsyncVirtualThreads() {
+		return asyncVirtualThreads;
+	}
+
+	public void setAsyncVirtualThreads(boolean asyncVirtualThreads) {
+		this.asyncVirtualThreads = asyncVirtualThreads;
+	}
+
+	public long getListPageLimit() {
+		return listPageLimit;
+	}
+
+	public void setListPageLimit(long listPageLimit) {
+		this.listPageLimit = listPageLimit;
+	}
+
+	public boolean isListPrefetch() {
+		return listPrefetch;
+	}
+
+	public void setListPrefetch(boolean listPrefetch) {
+		this.listPrefetch = listPrefetch;
+	}
+
+	public boolean isMetadataIndexEnabled() {
+		return metadataIndexEnabled;
+	}
+
+	public void setMetadataIndexEnabled(boolean metadataIndexEnabled) {
+		this.metadataIndexEnabled = metadataIndexEnabled;
+	}
+
+	public String getCursorStoreFile() {
+		return cursorStoreFile;
+	}
+
+	public void setCursorStoreFile(String cursorStoreFile) {
+		this.cursorStoreFile = cursorStoreFile;
+	}
+
+	public String getListingSnapshotFile() {
+		return listingSnapshotFile;
+	}
+
+	public void setListingSnapshotFile(String listingSnapshotFile) {
+		this.listingSnapshotFile = listingSnapshotFile;
+	}
+
+	public int getDispatchStripes() {
+		return dispatchStripes;
+	}
+
+	public void setDispatchStripes(int dispatchStripes) {
+		this.dispatchStripes = dispatchStripes;
+	}
+
+	public int getDispatchQueueCapacity() {
+		return dispatchQueueCapacity;
+	}
+
+	public void setDispatchQueueCapacity(int dispatchQueueCapacity) {
+		this.dispatchQueueCapacity = dispatchQueueCapacity;
+	}
+
+	public OverflowPolicy getDispatchOverflowPolicy() {
+		return dispatchOverflowPolicy;
+	}
+
+	public void setDispatchOverflowPolicy(OverflowPolicy dispatchOverflowPolicy) {
+		this.dispatchOverflowPolicy = dispatchOverflowPolicy;
+	}
+
+	public String getDispatchSpillDirectory() {
+		return dispatchSpillDirectory;
+	}
+
+	public void setDispatchSpillDirectory(String dispatchSpillDirectory) {
+		this.dispatchSpillDirectory = dispatchSpillDirectory;
+	}
+
+	public int getListenerBatchSize() {
+		return listenerBatchSize;
+	}
+
+	public void setListenerBatchSize(int listenerBatchSize) {
+		this.listenerBatchSize = listenerBatchSize;
+	}
+
+	public long getListenerBatchDelayMillis() {
+		return listenerBatchDelayMillis;
+	}
+
+	public void setListenerBatchDelayMillis(long listenerBatchDelayMillis) {
+		this.listenerBatchDelayMillis = listenerBatchDelayMillis;
+	}
+
+	public long getCoalesceWindowMillis() {
+		return coalesceWindowMillis;
+	}
+
+	public void setCoalesceWindowMillis(long coalesceWindowMillis) {
+		this.coalesceWindowMillis = coalesceWindowMillis;
+	}
+
+	public boolean isLongPollAutoStartup() {
+		return longPollAutoStartup;
+	}
+
+	public void setLongPollAutoStartup(boolean longPollAutoStartup) {
+		this.longPollAutoStartup = longPollAutoStartup;
+	}
+
+	public long getLongPollStopTimeoutMillis() {
+		return longPollStopTimeoutMillis;
+	}
+
+	public void setLongPollStopTimeoutMillis(long longPollStopTimeoutMillis) {
+		this.longPollStopTimeoutMillis = longPollStopTimeoutMillis;
+	}
+
+	public boolean isWatchVirtualThreads() {
+		return watchVirtualThreads;
+	}
+
+	public void setWatchVirtualThreads(boolean watchVirtualThreads) {
+		this.watchVirtualThreads = watchVirtualThreads;
+	}
+
+	public int getWatchPollThreads() {
+		return watchPollThreads;
+	}
+
+	public void setWatchPollThreads(int watchPollThreads) {
+		this.watchPollThreads = watchPollThreads;
+	}
+
+	public int getWatchFetchThreads() {
+		return watchFetchThreads;
+	}
+
+	public void setWatchFetchThreads(int watchFetchThreads) {
+		this.watchFetchThreads = watchFetchThreads;
+	}
+
+	public long getWatchLongPollTimeoutSecs() {
+		return watchLongPollTimeoutSecs;
+	}
+
+	public void setWatchLongPollTimeoutSecs(long watchLongPollTimeoutSecs) {
+		this.watchLongPollTimeoutSecs = watchLongPollTimeoutSecs;
+	}
+
+	public long getWatchMaxBackoffMillis() {
+		return watchMaxBackoffMillis;
+	}
+
+	public void setWatchMaxBackoffMillis(long watchMaxBackoffMillis) {
+		this.watchMaxBackoffMillis = watchMaxBackoffMillis;
+	}
+
+	public boolean isPrefetchEnabled() {
+		return prefetchEnabled;
+	}
+
+	public void setPrefetchEnabled(boolean prefetchEnabled) {
+		this.prefetchEnabled = prefetchEnabled;
+	}
+
+	public long getPrefetchMaxFileSize() {
+		return prefetchMaxFileSize;
+	}
+
+	public void setPrefetchMaxFileSize(long prefetchMaxFileSize) {
+		this.prefetchMaxFileSize = prefetchMaxFileSize;
+	}
+
+	public List<String> getPrefetchFileFormat() {
+		return prefetchFileFormat;
+	}
+
+	public void setPrefetchFileFormat(List<String> prefetchFileFormat) {
+		this.prefetchFileFormat = prefetchFileFormat;
+	}
+
+	public int getPrefetchConcurrency() {
+		return prefetchConcurrency;
+	}
+
+	public void setPrefetchConcurrency(int prefetchConcurrency) {
+		this.prefetchConcurrency = prefetchConcurrency;
+	}
+
+	public long getPrefetchMemoryBudget() {
+		return prefetchMemoryBudget;
+	}
+
+	public void setPrefetchMemoryBudget(long prefetchMemoryBudget) {
+		this.prefetchMemoryBudget = prefetchMemoryBudget;
+	}
+
+	public double getThrottleRequestsPerSecond() {
+		return throttleRequestsPerSecond;
+	}
+
+	public void setThrottleRequestsPerSecond(double throttleRequestsPerSecond) {
+		this.throttleRequestsPerSecond = throttleRequestsPerSecond;
+	}
+
+	public int getThrottleBurst() {
+		return throttleBurst;
+	}
+
+	public void setThrottleBurst(int throttleBurst) {
+		this.throttleBurst = throttleBurst;
+	}
+
+	public int getThrottleMaxInFlight() {
+		return throttleMaxInFlight;
+	}
+
+	public void setThrottleMaxInFlight(int throttleMaxInFlight) {
+		this.throttleMaxInFlight = throttleMaxInFlight;
+	}
+
+	public int getThrottleMaxRetries() {
+		return throttleMaxRetries;
+	}
+
+	public void setThrottleMaxRetries(int throttleMaxRetries) {
+		this.throttleMaxRetries = throttleMaxRetries;
+	}
+
+	public long getThrottleMaxBackoffMillis() {
+		return throttleMaxBackoffMillis;
+	}
+
+	public void setThrottleMaxBackoffMillis(long throttleMaxBackoffMillis) {
+		this.throttleMaxBackoffMillis = throttleMaxBackoffMillis;
+	}
+
+	public boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+
+	public int getAdaptiveConcurrencyMax() {
+		return adaptiveConcurrencyMax;
+	}
+
+	public void setAdaptiveConcurrencyMax(int adaptiveConcurrencyMax) {
+		this.adaptiveConcurrencyMax = adaptiveConcurrencyMax;
+	}
+
+	public int getAdaptiveBatchConcurrencyMax() {
+		return adaptiveBatchConcurrencyMax;
+	}
+
+	public void setAdaptiveBatchConcurrencyMax(int adaptiveBatchConcurrencyMax) {
+		this.adaptiveBatchConcurrencyMax = adaptiveBatchConcurrencyMax;
+	}
+
+	public double getAdaptiveConcurrencyLatencyTolerance() {
+		return adaptiveConcurrencyLatencyTolerance;
+	}
+
+	public void setAdaptiveConcurrencyLatencyTolerance(double adaptiveConcurrencyLatencyTolerance) {
+		this.adaptiveConcurrencyLatencyTolerance = adaptiveConcurrencyLatencyTolerance;
+	}
+
+	public HttpTransport getHttpTransport() {
+		return httpTransport;
+	}
+
+	public void setHttpTransport(HttpTransport httpTransport) {
+		this.httpTransport = httpTransport;
+	}
+
+	public long getHttpConnectTimeoutMillis() {
+		return httpConnectTimeoutMillis;
+	}
+
+	public void setHttpConnectTimeoutMillis(long httpConnectTimeoutMillis) {
+		this.httpConnectTimeoutMillis = httpConnectTimeoutMillis;
+	}
+
+	public long getHttpReadTimeoutMillis() {
+		return httpReadTimeoutMillis;
+	}
+
+	public void setHttpReadTimeoutMillis(long httpReadTimeoutMillis) {
+		this.httpReadTimeoutMillis = httpReadTimeoutMillis;
+	}
+
+	public HttpClient.Version getHttpVersion() {
+		return httpVersion;
+	}
+
+	public void setHttpVersion(HttpClient.Version httpVersion) {
+		this.httpVersion = httpVersion;
+	}
+
+	public int getHttpThreads() {
+		return httpThreads;
+	}
+
+	public void setHttpThreads(int httpThreads) {
+		this.httpThreads = httpThreads;
+	}
+
+	public long getLagWindowMillis() {
+		return lagWindowMillis;
+	}
+
+	public void setLagWindowMillis(long lagWindowMillis) {
+		this.lagWindowMillis = lagWindowMillis;
+	}
+
+	public long getLagDegradedThresholdMillis() {
+		return lagDegradedThresholdMillis;
+	}
+
+	public void setLagDegradedThresholdMillis(long lagDegradedThresholdMillis) {
+		this.lagDegradedThresholdMillis = lagDegradedThresholdMillis;
+	}
+
+	public long getLongPollMaxBackoffMillis() {
+		return longPollMaxBackoffMillis;
+	}
+
+	public void setLongPollMaxBackoffMillis(long longPollMaxBackoffMillis) {
+		this.longPollMaxBackoffMillis = longPollMaxBackoffMillis;
+	}
+
 }
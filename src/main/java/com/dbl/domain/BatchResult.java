@@ -0,0 +1,47 @@
+package com.dbl.domain;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.dbl.exception.DropBoxLibException;
+
+/**
+ * Outcome of a bulk operation, keyed by DropBox path. Entries can be added
+ * from several threads.
+ */
+public class BatchResult<T> {
+
+	private final Map<String, T> successes = Collections.synchronizedMap(new LinkedHashMap<>());
+	private final Map<String, DropBoxLibException> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+
+	public void addSuccess(String path, T value) {
+		successes.put(path, value);
+	}
+
+	public void addFailure(String path, DropBoxLibException failure) {
+		failures.put(path, failure);
+	}
+
+	public Map<String, T> getSuccesses() {
+		return Collections.unmodifiableMap(successes);
+	}
+
+	public Map<String, DropBoxLibException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	public int size() {
+		return successes.size() + failures.size();
+	}
+
+	@Override
+	public String toString() {
+		return "BatchResult [successes=" + successes.keySet() + ", failures=" + failures.keySet() + "]";
+	}
+
+}
@@ -1,5 +1,26 @@
 package com.dbl.domain;
 
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+
 public enum ChangeType {
 	FILE,FOLDER,DELETE;
+
+	/**
+	 * @return type of the change a listed entry stands for
+	 * @throws IllegalStateException
+	 *             if the entry is of an unknown type
+	 */
+	public static ChangeType of(Metadata metadata) {
+		if (metadata instanceof FileMetadata) {
+			return FILE;
+		} else if (metadata instanceof FolderMetadata) {
+			return FOLDER;
+		} else if (metadata instanceof DeletedMetadata) {
+			return DELETE;
+		}
+		throw new IllegalStateException("Unrecognized metadata type: " + metadata.getClass());
+	}
 }
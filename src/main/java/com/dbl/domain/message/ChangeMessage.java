@@ -1,7 +1,5 @@
 package com.dbl.domain.message;
 
-import java.util.Arrays;
-
 import com.dbl.domain.ChangeType;
 import com.dropbox.core.v2.files.Metadata;
 
@@ -10,6 +8,8 @@ public class ChangeMessage {
 	private byte[] file;
 	private ChangeType messageType;
 	private Metadata messageDetails;
+	private FileContent content;
+	private long listedAt;
 
 	public ChangeMessage() {
 
@@ -39,9 +39,34 @@ public class ChangeMessage {
 		this.messageDetails = messageDetails;
 	}
 
+	/**
+	 * @return content prefetched for the listeners, null when the change was
+	 *         not prefetched
+	 */
+	public FileContent getContent() {
+		return content;
+	}
+
+	public void setContent(FileContent content) {
+		this.content = content;
+	}
+
+	/**
+	 * @return epoch millis when the listing of the change returned it, 0 when
+	 *         unknown
+	 */
+	public long getListedAt() {
+		return listedAt;
+	}
+
+	public void setListedAt(long listedAt) {
+		this.listedAt = listedAt;
+	}
+
 	@Override
 	public String toString() {
-		return "FileMessage [file=" + Arrays.toString(file) + ", messageType=" + messageType + ", messageDetails=" + messageDetails + "]";
+		// prefetched content can be large
+		return "FileMessage [file=" + (file == null ? null : file.length + " bytes") + ", messageType=" + messageType + ", messageDetails=" + messageDetails + "]";
 	}
 
 }
@@ -0,0 +1,47 @@
+package com.dbl.domain.message;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Content of a changed file downloaded once and shared by every listener of
+ * the change. It is held in memory or spooled to disk.
+ * 
+ * The content is released once every listener got the change, a listener
+ * reading it after its callback returned {@link #retain() retains} it and
+ * closes it when done.
+ */
+public interface FileContent extends AutoCloseable {
+
+	long getSize();
+
+	/**
+	 * @return a new stream over the content, the caller closes it
+	 */
+	InputStream openStream() throws IOException;
+
+	/**
+	 * @return the content, shared by the listeners when held in memory
+	 */
+	byte[] getBytes() throws IOException;
+
+	boolean isInMemory();
+
+	/**
+	 * Take a reference to the content, it stays readable until every
+	 * reference was closed.
+	 *
+	 * @return this content
+	 * @throws IllegalStateException
+	 *             if the content was already released
+	 */
+	FileContent retain();
+
+	/**
+	 * Give back a reference, the last one releases the memory or deletes the
+	 * spooled file.
+	 */
+	@Override
+	void close();
+
+}
@@ -0,0 +1,284 @@
+package com.dbl.service;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.ServerException;
+
+/**
+ * Concurrency limit of a bulk operation that adapts to DropBox: it grows by
+ * one per limit of successful requests while the latency stays close to the
+ * usual one, it is cut in half when a request is throttled or fails with a
+ * transient error and by a tenth on a latency spike. With the same minimum
+ * and maximum it is a fixed limit.
+ * 
+ * The latency of a request moving bytes is counted per started megabyte, so
+ * a large file is not taken for a latency spike.
+ * 
+ * A permit is the current one of the thread that acquired it until it is
+ * given back, so the http layer can report a 429 or 503 response through
+ * {@link #throttled()} even when the client retries it on its own.
+ */
+public class AdaptiveConcurrencyLimiter {
+	private static final double DROP_RATIO = 0.5;
+	private static final double LATENCY_RATIO = 0.9;
+	// weight of a sample in the usual latency
+	private static final double LATENCY_SMOOTHING = 0.05;
+	private static final long LATENCY_UNIT_BYTES = 1024 * 1024;
+
+	private static final ThreadLocal<Permit> CURRENT = new ThreadLocal<>();
+
+	private final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final double latencyTolerance;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	// guarded by lock
+	private double limit;
+	private int inFlight;
+	private double usualLatencyNanos;
+	private long decreasedAt = System.nanoTime();
+	private long drops;
+
+	/**
+	 * @param name
+	 *            name of the operation, used for logging
+	 * @param latencyTolerance
+	 *            latency of a request relative to the usual one that counts
+	 *            as a spike
+	 */
+	public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+		this.name = name;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.latencyTolerance = Math.max(1, latencyTolerance);
+		this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+	}
+
+	/**
+	 * Wait for the in-flight requests to drop below the limit. The permit has
+	 * to be given back with one of its methods once the request is done.
+	 */
+	public Permit acquire() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (inFlight >= (int) limit) {
+				available.await();
+			}
+			inFlight++;
+		} finally {
+			lock.unlock();
+		}
+		return new Permit(System.nanoTime());
+	}
+
+	/**
+	 * Report that DropBox throttled a request of the current thread, the
+	 * limit of its permit is cut right away. Does nothing when the thread
+	 * holds no permit.
+	 */
+	public static void throttled() {
+		Permit permit = CURRENT.get();
+		if (permit != null) {
+			permit.throttled();
+		}
+	}
+
+	public Permit acquireUninterruptibly() {
+		lock.lock();
+		try {
+			while (inFlight >= (int) limit) {
+				available.awaitUninterruptibly();
+			}
+			inFlight++;
+		} finally {
+			lock.unlock();
+		}
+		return new Permit(System.nanoTime());
+	}
+
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDropCount() {
+		lock.lock();
+		try {
+			return drops;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true when the failure means DropBox is throttling or
+	 *         overloaded, rather than that the request itself is wrong
+	 */
+	public static boolean isOverload(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof RetryException || cause instanceof ServerException || cause instanceof NetworkIOException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void done(long startedAt, Outcome outcome, long bytes) {
+		long now = System.nanoTime();
+		lock.lock();
+		try {
+			// only grow a limit that is in use
+			boolean saturated = inFlight * 2 >= limit;
+			inFlight--;
+			double previous = limit;
+			if (outcome == Outcome.DROPPED) {
+				drop(startedAt, now);
+			} else if (outcome == Outcome.SUCCESS) {
+				long latency = (now - startedAt) / (1 + Math.max(0, bytes - 1) / LATENCY_UNIT_BYTES);
+				boolean spike = usualLatencyNanos > 0 && latency > usualLatencyNanos * latencyTolerance;
+				// spikes move the usual latency too, so it follows a lasting change
+				usualLatencyNanos = usualLatencyNanos == 0 ? latency : usualLatencyNanos + (latency - usualLatencyNanos) * LATENCY_SMOOTHING;
+				if (spike) {
+					if (startedAt - decreasedAt >= 0) {
+						limit = Math.max(minLimit, limit * LATENCY_RATIO);
+						decreasedAt = now;
+					}
+				} else if (saturated) {
+					limit = Math.min(maxLimit, limit + 1 / limit);
+				}
+			}
+			if ((int) limit != (int) previous) {
+				logger.debug("concurrency limit of {} changed from {} to {}", name, (int) previous, (int) limit);
+			}
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void drop(long startedAt, long now) {
+		drops++;
+		// requests sent before the last cut saw the old limit
+		if (startedAt - decreasedAt >= 0) {
+			limit = Math.max(minLimit, limit * DROP_RATIO);
+			decreasedAt = now;
+		}
+	}
+
+	private void throttled(long startedAt) {
+		long now = System.nanoTime();
+		lock.lock();
+		try {
+			double previous = limit;
+			drop(startedAt, now);
+			if ((int) limit != (int) previous) {
+				logger.debug("concurrency limit of {} changed from {} to {} on throttling", name, (int) previous, (int) limit);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private enum Outcome {
+		SUCCESS, DROPPED, IGNORED
+	}
+
+	/**
+	 * A request counted against the limit, only the first outcome reported
+	 * counts.
+	 */
+	public final class Permit {
+		private final long startedAt;
+		// permit of the thread before this one, restored once this one is done
+		private final Permit previous;
+		private boolean finished;
+		private boolean throttled;
+
+		private Permit(long startedAt) {
+			this.startedAt = startedAt;
+			this.previous = CURRENT.get();
+			CURRENT.set(this);
+		}
+
+		public void success() {
+			success(0);
+		}
+
+		/**
+		 * @param bytes
+		 *            transferred by the request, its latency is counted per
+		 *            started megabyte
+		 */
+		public void success(long bytes) {
+			finish(Outcome.SUCCESS, bytes);
+		}
+
+		/**
+		 * The request was throttled or DropBox was overloaded.
+		 */
+		public void dropped() {
+			finish(Outcome.DROPPED, 0);
+		}
+
+		/**
+		 * Report a failed request, dropped when the failure is an overload.
+		 */
+		public void failed(Throwable failure) {
+			finish(isOverload(failure) ? Outcome.DROPPED : Outcome.IGNORED, 0);
+		}
+
+		/**
+		 * Give the permit back without a verdict, does nothing once an outcome
+		 * was reported.
+		 */
+		public void release() {
+			finish(Outcome.IGNORED, 0);
+		}
+
+		private synchronized void throttled() {
+			if (!finished && !throttled) {
+				throttled = true;
+				AdaptiveConcurrencyLimiter.this.throttled(startedAt);
+			}
+		}
+
+		private synchronized void finish(Outcome outcome, long bytes) {
+			if (!finished) {
+				finished = true;
+				if (CURRENT.get() == this) {
+					CURRENT.set(previous);
+				}
+				// the limit was already cut, the time spent on retries is no latency sample
+				done(startedAt, throttled ? Outcome.IGNORED : outcome, bytes);
+			}
+		}
+	}
+
+}
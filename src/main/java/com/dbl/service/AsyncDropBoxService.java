@@ -0,0 +1,65 @@
+package com.dbl.service;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListRevisionsResult;
+import com.dropbox.core.v2.files.SearchResult;
+
+/**
+ * Non blocking view of {@link DropBoxService}. Every operation runs on the
+ * executor of the service and fails with a DropBoxLibException like its
+ * blocking version.
+ * 
+ * Cancelling a returned future interrupts the operation. Transfers stop at the
+ * next buffer and the DropBox downloader or uploader is closed, the target
+ * stream of a cancelled download holds partial content. A request waiting for
+ * its response is cancelled with the HttpClient transport, with the standard
+ * transport it ends with the response or its read timeout. Stages derived from
+ * the future do not propagate cancellation back to it.
+ */
+public interface AsyncDropBoxService extends AutoCloseable {
+
+	CompletableFuture<byte[]> download(String filePath);
+
+	/**
+	 * This method will download a file into the output stream, the stream is
+	 * not closed
+	 * @param filePath
+	 * @param outputStream
+	 * @return
+	 */
+	CompletableFuture<FileMetadata> download(String filePath, OutputStream outputStream);
+
+	/**
+	 * This method will upload a file, the input stream is read but not closed
+	 * @param inputFile
+	 * @param fullPath
+	 * @param override
+	 * @return
+	 */
+	CompletableFuture<FileMetadata> upload(InputStream inputFile, String fullPath, boolean override);
+
+	CompletableFuture<List<FileMetadata>> allFiles(String path, boolean recursive);
+
+	CompletableFuture<SearchResult> search(String path, String query);
+
+	CompletableFuture<ListRevisionsResult> getRevisions(String path);
+
+	CompletableFuture<Void> rename(String fromPath, String toPath);
+
+	CompletableFuture<Void> delete(String path);
+
+	CompletableFuture<Boolean> checkPath(String path);
+
+	/**
+	 * Stop the executor when it is owned by the service, running operations are
+	 * interrupted
+	 */
+	@Override
+	void close();
+
+}
@@ -0,0 +1,239 @@
+package com.dbl.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListRevisionsResult;
+import com.dropbox.core.v2.files.SearchResult;
+
+/**
+ * Runs the operations of a {@link DropBoxService} on an executor.
+ */
+public class AsyncDropBoxServiceImpl implements AsyncDropBoxService {
+    private final Logger logger = LoggerFactory.getLogger(AsyncDropBoxServiceImpl.class);
+
+    private final DropBoxService dropBoxService;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Run the operations on an executor of the lib, a virtual thread per
+     * operation when dropboxlib.async-virtual-threads is set and the JVM
+     * supports it, dropboxlib.async-threads platform threads otherwise.
+     */
+    public AsyncDropBoxServiceImpl(DropBoxService dropBoxService, DropBoxLibProperties appProperties) {
+        this(dropBoxService, DropBoxExecutors.newExecutor("dropbox-async", appProperties.getAsyncThreads(), appProperties.isAsyncVirtualThreads()), true);
+    }
+
+    /**
+     * Run the operations on the given executor, it is not shut down by
+     * {@link #close()}.
+     */
+    public AsyncDropBoxServiceImpl(DropBoxService dropBoxService, Executor executor) {
+        this(dropBoxService, executor, false);
+    }
+
+    private AsyncDropBoxServiceImpl(DropBoxService dropBoxService, Executor executor, boolean ownsExecutor) {
+        this.dropBoxService = dropBoxService;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> download(String filePath) {
+        return submit(task -> {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            dropBoxService.download(filePath, task.wrap(outputStream));
+            return outputStream.toByteArray();
+        });
+    }
+
+    @Override
+    public CompletableFuture<FileMetadata> download(String filePath, OutputStream outputStream) {
+        return submit(task -> dropBoxService.download(filePath, task.wrap(outputStream)));
+    }
+
+    @Override
+    public CompletableFuture<FileMetadata> upload(InputStream inputFile, String fullPath, boolean override) {
+        return submit(task -> dropBoxService.upload(task.wrap(inputFile), fullPath, override));
+    }
+
+    @Override
+    public CompletableFuture<List<FileMetadata>> allFiles(String path, boolean recursive) {
+        return submit(task -> dropBoxService.allFiles(path, recursive));
+    }
+
+    @Override
+    public CompletableFuture<SearchResult> search(String path, String query) {
+        return submit(task -> dropBoxService.search(path, query));
+    }
+
+    @Override
+    public CompletableFuture<ListRevisionsResult> getRevisions(String path) {
+        return submit(task -> dropBoxService.getRevisions(path));
+    }
+
+    @Override
+    public CompletableFuture<Void> rename(String fromPath, String toPath) {
+        return submit(task -> {
+            dropBoxService.rename(fromPath, toPath);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String path) {
+        return submit(task -> {
+            dropBoxService.delete(path);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> checkPath(String path) {
+        return submit(task -> dropBoxService.checkPath(path));
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor && executor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Function<Task<T>, T> operation) {
+        Task<T> task = new Task<>(operation);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.completeExceptionally(e);
+        }
+        return task;
+    }
+
+    /**
+     * Future of a running operation. Cancelling it interrupts the thread
+     * running the operation, fails the streams it transfers and aborts the
+     * requests it waits for.
+     */
+    private final class Task<T> extends CompletableFuture<T> implements Runnable {
+        private final Function<Task<T>, T> operation;
+        // guarded by this
+        private Thread runner;
+
+        private Task(Function<Task<T>, T> operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(operation.apply(this));
+            } catch (Throwable e) {
+                if (!isCancelled()) {
+                    logger.debug("async operation failed", e);
+                }
+                completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // do not leak an interrupt of a late cancel to the next task of a pooled thread
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Thread running;
+            synchronized (this) {
+                running = cancelled ? runner : null;
+                if (running != null) {
+                    running.interrupt();
+                }
+            }
+            if (running != null) {
+                // a thread blocked on a socket read does not see the interrupt, only its own requests are cancelled
+                try {
+                    dropBoxService.cancelRequests(running);
+                } catch (RuntimeException e) {
+                    logger.warn("could not cancel the requests of a cancelled operation", e);
+                }
+            }
+            return cancelled;
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (isCancelled()) {
+                throw new InterruptedIOException("operation cancelled");
+            }
+        }
+
+        private OutputStream wrap(OutputStream outputStream) {
+            return new FilterOutputStream(outputStream) {
+                @Override
+                public void write(int b) throws IOException {
+                    checkCancelled();
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    checkCancelled();
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // the caller owns the stream
+                    flush();
+                }
+            };
+        }
+
+        private InputStream wrap(InputStream inputStream) {
+            return new FilterInputStream(inputStream) {
+                @Override
+                public int read() throws IOException {
+                    checkCancelled();
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    checkCancelled();
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // the caller owns the stream
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.dbl.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dropbox.core.DbxException;
+
+/**
+ * Wait for a DropBox async job, checking its status with an exponential
+ * backoff.
+ */
+public class AsyncJobPoller {
+	private final Logger logger = LoggerFactory.getLogger(AsyncJobPoller.class);
+
+	private final long initialDelayMillis;
+	private final long maxDelayMillis;
+	private final long timeoutMillis;
+
+	public AsyncJobPoller(DropBoxLibProperties appProperties) {
+		this(appProperties.getBatchPollInitialDelayMillis(), appProperties.getBatchPollMaxDelayMillis(), appProperties.getBatchPollTimeoutMillis());
+	}
+
+	public AsyncJobPoller(long initialDelayMillis, long maxDelayMillis, long timeoutMillis) {
+		this.initialDelayMillis = Math.max(1, initialDelayMillis);
+		this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @param jobId
+	 *            async job id, only used for logging
+	 * @param check
+	 *            request returning the current status of the job
+	 * @param inProgress
+	 *            true while the job is still running
+	 * @return the first status that is not in progress
+	 * @throws IOException
+	 *             if the job is still running after the timeout
+	 */
+	public <T> T poll(String jobId, DbxCall<T> check, Predicate<T> inProgress) throws DbxException, IOException {
+		long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+		long delay = initialDelayMillis;
+		for (int checks = 1; ; checks++) {
+			sleep(Math.min(delay, Math.max(0, (deadline - System.nanoTime()) / 1_000_000)), jobId);
+			T status = check.call();
+			if (!inProgress.test(status)) {
+				logger.debug("async job {} done after {} checks", jobId, checks);
+				return status;
+			}
+			if (System.nanoTime() - deadline >= 0) {
+				throw new IOException(MessageFormat.format("async job {0} did not complete within {1} ms", jobId, timeoutMillis));
+			}
+			delay = Math.min(maxDelayMillis, delay * 2);
+		}
+	}
+
+	private static void sleep(long millis, String jobId) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for async job " + jobId);
+		}
+	}
+
+}
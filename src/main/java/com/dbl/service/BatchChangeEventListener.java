@@ -0,0 +1,26 @@
+package com.dbl.service;
+
+import java.util.List;
+
+import com.dbl.domain.message.ChangeMessage;
+
+/**
+ * Listener that gets changes in batches, registered like any other
+ * {@link ChangeEventListener}. A batch holds at most
+ * dropboxlib.listener-batch-size changes, by default the changes of one page
+ * of the long-poll.
+ */
+public interface BatchChangeEventListener extends ChangeEventListener {
+
+	/**
+	 * @param changeMessages
+	 *            changes in the order they were listed
+	 */
+	public void changes(List<ChangeMessage> changeMessages);
+
+	@Override
+	public default void change(ChangeMessage changeMessage) {
+		changes(List.of(changeMessage));
+	}
+
+}
@@ -1,12 +1,41 @@
 package com.dbl.service;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
+import com.dbl.domain.ChangeType;
 import com.dbl.domain.message.ChangeMessage;
 
 public interface ChangeEventListener {
 
 	public List<String> getInterestingFileFormat();
 	public void change(ChangeMessage fileMessage);
-	
+
+	/**
+	 * @return DropBox folders or files whose changes the listener gets,
+	 *         including everything under them. Empty for every path
+	 */
+	public default List<String> getInterestingPaths() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @return types of the changes the listener gets, empty for every type
+	 */
+	public default Set<ChangeType> getInterestingChangeTypes() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Changes of the same path always arrive in the order they were listed.
+	 * 
+	 * @return true when changes of different paths must keep their order too,
+	 *         for example a delete of a folder and an add under it. The
+	 *         listener then gets a single dispatch thread
+	 */
+	public default boolean isOrderSensitive() {
+		return false;
+	}
+
 }
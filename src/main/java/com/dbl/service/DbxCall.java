@@ -0,0 +1,15 @@
+package com.dbl.service;
+
+import java.io.IOException;
+
+import com.dropbox.core.DbxException;
+
+/**
+ * A single request to DropBox.
+ */
+@FunctionalInterface
+public interface DbxCall<T> {
+
+	T call() throws DbxException, IOException;
+
+}
@@ -0,0 +1,70 @@
+package com.dbl.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executors used by the bulk operations of the lib. Virtual threads are
+ * looked up reflectively so the lib still builds and runs on Java 17.
+ */
+public final class DropBoxExecutors {
+
+	private static final Logger logger = LoggerFactory.getLogger(DropBoxExecutors.class);
+
+	private DropBoxExecutors() {
+	}
+
+	/**
+	 * @param name
+	 *            prefix of the platform thread names
+	 * @param threads
+	 *            number of platform threads
+	 * @param virtualThreads
+	 *            use a virtual thread per task when the JVM supports it
+	 * @return new executor, the caller is responsible for shutting it down
+	 */
+	public static ExecutorService newExecutor(String name, int threads, boolean virtualThreads) {
+		if (virtualThreads) {
+			ExecutorService executor = newVirtualThreadExecutor();
+			if (executor != null) {
+				return executor;
+			}
+			logger.warn("virtual threads need Java 21 or later, using {} platform threads for {}", threads, name);
+		}
+		return Executors.newFixedThreadPool(Math.max(1, threads), namedThreadFactory(name));
+	}
+
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	public static ThreadFactory namedThreadFactory(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+}
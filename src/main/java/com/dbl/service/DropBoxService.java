@@ -2,10 +2,17 @@ package com.dbl.service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
 
+import com.dbl.domain.BatchResult;
 import com.dbl.exception.DropBoxLibException;
+import com.dbl.service.snapshot.ListingSnapshot;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.v2.files.FileMetadata;
 import com.dropbox.core.v2.files.FolderMetadata;
@@ -13,6 +20,7 @@ import com.dropbox.core.v2.files.ListFolderErrorException;
 import com.dropbox.core.v2.files.ListFolderResult;
 import com.dropbox.core.v2.files.ListRevisionsErrorException;
 import com.dropbox.core.v2.files.ListRevisionsResult;
+import com.dropbox.core.v2.files.Metadata;
 import com.dropbox.core.v2.files.SearchErrorException;
 import com.dropbox.core.v2.files.SearchResult;
 
@@ -26,13 +34,42 @@ public interface DropBoxService {
 
 	Map<String, byte[]> downloadAllZip(String folderPath) throws DropBoxLibException;
 
+	/**
+	 * This method will download a dropBox folder as zip and pass every entry to
+	 * the consumer while it is read, the entries are never held in memory
+	 * @param folderPath
+	 * @param consumer
+	 * @throws DropBoxLibException
+	 */
+	void downloadAllZip(String folderPath, ZipEntryConsumer consumer) throws DropBoxLibException;
+
+	/**
+	 * This method will download a dropBox folder as zip into a temp file, see
+	 * dropboxlib.temp-directory. Entries are read on demand from the returned
+	 * zip file, the temp file is deleted when it is closed
+	 * @param folderPath
+	 * @return the zip file, the caller must close it
+	 * @throws DropBoxLibException
+	 */
+	ZipFile downloadAllZipToFile(String folderPath) throws DropBoxLibException;
+
 	/**
 	 * This method will download all files in dropBox folder 
 	 * @param folderPath
 	 * @return
-	 * @throws DropBoxLibException
+	 * @throws DropBoxLibException if any of the files could not be downloaded
 	 */
 	Map<String,byte[]> downloadAll(String folderPath) throws DropBoxLibException;
+
+	/**
+	 * This method will download all files in dropBox folder concurrently, see
+	 * dropboxlib.download-concurrency. A file that fails does not stop the
+	 * others, it is reported in the failures of the result
+	 * @param folderPath
+	 * @return downloaded files and failures by path
+	 * @throws DropBoxLibException if the folder could not be listed
+	 */
+	BatchResult<byte[]> downloadAllBatch(String folderPath) throws DropBoxLibException;
 	/**
 	 * This method will download files from DropBox
 	 * 
@@ -42,6 +79,51 @@ public interface DropBoxService {
 	 */
 	byte[] download(String filePath) throws DropBoxLibException;
 
+	/**
+	 * This method will stream a file from DropBox into the output stream without
+	 * holding it in memory, the stream is not closed
+	 * 
+	 * @param filePath
+	 * @param outputStream
+	 * @return metadata of the downloaded file
+	 * @throws DropBoxLibException
+	 */
+	FileMetadata download(String filePath, OutputStream outputStream) throws DropBoxLibException;
+
+	/**
+	 * This method will stream a file from DropBox into a local file, the target
+	 * is replaced only once the download is complete
+	 * 
+	 * @param filePath
+	 * @param target
+	 * @return metadata of the downloaded file
+	 * @throws DropBoxLibException
+	 */
+	FileMetadata download(String filePath, Path target) throws DropBoxLibException;
+
+	/**
+	 * This method will stream a file from DropBox into the channel, the channel
+	 * is not closed
+	 * 
+	 * @param filePath
+	 * @param channel
+	 * @return metadata of the downloaded file
+	 * @throws DropBoxLibException
+	 */
+	FileMetadata download(String filePath, WritableByteChannel channel) throws DropBoxLibException;
+
+	/**
+	 * This method will download a large file into a local file by fetching
+	 * ranges of it in parallel, see dropboxlib.ranged-download-part-size and
+	 * dropboxlib.ranged-download-parallelism
+	 * 
+	 * @param filePath
+	 * @param target
+	 * @return metadata of the downloaded file
+	 * @throws DropBoxLibException
+	 */
+	FileMetadata downloadRanged(String filePath, Path target) throws DropBoxLibException;
+
 	/**
 	 *
 	 * @param inputFile
@@ -53,7 +135,8 @@ public interface DropBoxService {
 
 	/**
 	 * This method will return all files under folder path recursive if the path is
-	 * empty all files in all folders will return.
+	 * empty all files in all folders will return. Answered from the metadata
+	 * index once it is seeded, see dropboxlib.metadata-index-enabled
 	 * 
 	 * @param path
 	 * @param recursive
@@ -63,7 +146,8 @@ public interface DropBoxService {
 	List<FileMetadata> allFiles(String path, boolean recursive) throws DropBoxLibException;
 
 	/**
-	 * This method will return all the folders names in the root folder path 
+	 * This method will return all the folders names in the root folder path,
+	 * answered from the metadata index once it is seeded
 	 * @param rootfolderPath
 	 * @return
 	 * @throws DropBoxLibException
@@ -73,6 +157,55 @@ public interface DropBoxService {
 	String syncFiles(List<FolderMetadata> folders,List<FileMetadata> files, String path, boolean recursive)
 			throws DropBoxLibException;
 
+	/**
+	 * This method will list a folder page by page while it is iterated, see
+	 * dropboxlib.list-page-limit and dropboxlib.list-prefetch. Listing errors
+	 * are thrown as DropBoxLibException by the iterator
+	 * @param path
+	 * @param recursive
+	 * @return iterator over files and folders, close it when it is not consumed to the end
+	 */
+	ListFolderIterator listFolder(String path, boolean recursive);
+
+	/**
+	 * This method will stream the entries of a folder, pages are fetched while
+	 * the stream is consumed
+	 * @param path
+	 * @param recursive
+	 * @return stream of files and folders, close it when it is not consumed to the end
+	 */
+	Stream<Metadata> streamFolder(String path, boolean recursive);
+
+	/**
+	 * This method will stream the files of a folder, see
+	 * {@link #streamFolder(String, boolean)}
+	 * @param path
+	 * @param recursive
+	 * @return
+	 */
+	Stream<FileMetadata> streamFiles(String path, boolean recursive);
+
+	/**
+	 * This method will list a folder recursively into a binary snapshot file,
+	 * see {@link #loadSnapshot(Path)}
+	 * @param path
+	 * @param snapshotFile
+	 * @return the cursor the listing ended with, also saved in the snapshot
+	 * @throws DropBoxLibException
+	 */
+	String saveSnapshot(String path, Path snapshotFile) throws DropBoxLibException;
+
+	/**
+	 * This method will load a snapshot saved by
+	 * {@link #saveSnapshot(String, Path)} and catch up with the changes made
+	 * since it was saved. When the saved cursor is no longer valid the folder
+	 * is listed again. The snapshot file itself is not updated
+	 * @param snapshotFile
+	 * @return the current listing and its cursor
+	 * @throws DropBoxLibException
+	 */
+	ListingSnapshot loadSnapshot(Path snapshotFile) throws DropBoxLibException;
+
 	/**
 	 * This method will rename files on DropBox
 	 * 
@@ -82,6 +215,29 @@ public interface DropBoxService {
 	 */
 	void rename(String fromPath, String toPath) throws DropBoxLibException;
 
+	/**
+	 * This method will rename many files on DropBox with one batch job per
+	 * dropboxlib.batch-size paths
+	 * 
+	 * @param paths
+	 *            target path by source path
+	 * @return metadata of the moved paths and failures by source path
+	 * @throws DropBoxLibException
+	 */
+	BatchResult<Metadata> renameAll(Map<String, String> paths) throws DropBoxLibException;
+
+	/**
+	 * This method will copy many files on DropBox, the content is copied on the
+	 * server and never downloaded. One batch job is used per
+	 * dropboxlib.batch-size paths
+	 * 
+	 * @param paths
+	 *            target path by source path
+	 * @return metadata of the copies and failures by source path
+	 * @throws DropBoxLibException
+	 */
+	BatchResult<Metadata> copyAll(Map<String, String> paths) throws DropBoxLibException;
+
 	ListFolderResult getResult();
 
 	void setResult(ListFolderResult result);
@@ -96,6 +252,33 @@ public interface DropBoxService {
 	 */
 	FileMetadata upload(InputStream inputFile, String fullPath, boolean override) throws DropBoxLibException;
 
+	/**
+	 * This method will upload a file of any size through an upload session. The
+	 * input is split in chunks (dropboxlib.upload-chunk-size) that are appended
+	 * concurrently (dropboxlib.upload-parallelism), a failed chunk is retried on
+	 * its own
+	 * 
+	 * @param inputFile
+	 * @param fullPath
+	 * @param override
+	 * @return
+	 * @throws DropBoxLibException
+	 */
+	FileMetadata uploadChunked(InputStream inputFile, String fullPath, boolean override) throws DropBoxLibException;
+
+	/**
+	 * This method will upload many files and commit them together. The contents
+	 * are uploaded concurrently (dropboxlib.upload-concurrency) into upload
+	 * sessions, then committed with one batch request per
+	 * dropboxlib.batch-size files. A file that fails does not stop the others,
+	 * it is reported in the failures of the result
+	 * @param files input by full path, the streams are read but not closed
+	 * @param override
+	 * @return uploaded files and failures by path
+	 * @throws DropBoxLibException
+	 */
+	BatchResult<FileMetadata> uploadAll(Map<String, InputStream> files, boolean override) throws DropBoxLibException;
+
 	/**
 	 * This method will search drop box
 	 * @param path
@@ -122,7 +305,42 @@ public interface DropBoxService {
 	 */
 	List<FileMetadata> allFiles(String folderPath, boolean b, List<String> fileTypes);
 
+    /**
+     * This method will check that a path exists on DropBox. Answered from the
+     * metadata index once it is seeded, a missing path is then false
+     * @param path
+     * @return
+     * @throws DropBoxLibException when the path is missing or can not be checked on DropBox
+     */
     Boolean checkPath(String path) throws DropBoxLibException;
 
     void delete(String oldFileName) throws DropBoxLibException;
-}
\ No newline at end of file
+
+	/**
+	 * This method will delete many paths on DropBox with one batch job per
+	 * dropboxlib.batch-size paths
+	 * 
+	 * @param paths
+	 * @return metadata of the deleted paths and failures by path
+	 * @throws DropBoxLibException
+	 */
+	BatchResult<Metadata> deleteAll(List<String> paths) throws DropBoxLibException;
+
+	/**
+	 * This method will return the current concurrency limit of the bulk
+	 * downloads, the bulk uploads and the batch jobs. The limits adapt to
+	 * DropBox when dropboxlib.adaptive-concurrency is set
+	 * 
+	 * @return limit by operation
+	 */
+	Map<String, Integer> getConcurrencyLimits();
+
+	/**
+	 * This method will cancel the requests the thread is waiting for, they
+	 * fail with an IOException. With the standard transport nothing is
+	 * cancelled, the thread waits for the response or the read timeout
+	 * 
+	 * @return number of requests cancelled
+	 */
+	int cancelRequests(Thread thread);
+}
@@ -1,41 +1,148 @@
 package com.dbl.service;
 
 import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.BatchResult;
 import com.dbl.exception.DropBoxLibException;
+import com.dbl.service.cache.DownloadCache;
+import com.dbl.service.index.MetadataIndex;
+import com.dbl.service.metrics.DropBoxMetrics;
+import com.dbl.service.snapshot.ListingSnapshot;
 import com.dropbox.core.DbxAuthInfo;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.http.StandardHttpRequestor.Config;
 import com.dropbox.core.v2.DbxClientV2;
 import com.dropbox.core.v2.files.*;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
 
 /**
  * @author shai
  */
 @EnableConfigurationProperties(DropBoxLibProperties.class)
 public class DropBoxServiceImpl implements DropBoxService {
+    private static final int MAX_BATCH_SIZE = 1000;
+
     private final Logger logger = LoggerFactory.getLogger(DropBoxServiceImpl.class);
 
     private DbxClientV2 client;
     private final DropBoxLibProperties appProperties;
     private final DropBoxUtils dropBoxUtils;
+    private final DownloadCache downloadCache;
+    private final MetadataIndex metadataIndex;
+    private final AtomicBoolean seedingIndex = new AtomicBoolean();
+    private final AdaptiveConcurrencyLimiter downloadLimiter;
+    private final AdaptiveConcurrencyLimiter uploadLimiter;
+    private final AdaptiveConcurrencyLimiter batchLimiter;
+    private final DropBoxMetrics dropBoxMetrics;
+
+    // feeds the cache and the index with change events, null when there is none
+    private volatile LongPoolService longPoolService;
 
     private ListFolderResult result;
 
     public DropBoxServiceImpl(DropBoxLibProperties boxProperties, DropBoxUtils dropBoxUtils) {
+        this(boxProperties, dropBoxUtils, null);
+    }
+
+    /**
+     * @param downloadCache read-through cache for downloads, may be null
+     */
+    public DropBoxServiceImpl(DropBoxLibProperties boxProperties, DropBoxUtils dropBoxUtils, DownloadCache downloadCache) {
+        this(boxProperties, dropBoxUtils, downloadCache, null);
+    }
+
+    /**
+     * @param downloadCache read-through cache for downloads, may be null
+     * @param metadataIndex index answering listing and existence queries, may be null.
+     *                      It is seeded in the background on connect
+     */
+    public DropBoxServiceImpl(DropBoxLibProperties boxProperties, DropBoxUtils dropBoxUtils, DownloadCache downloadCache, MetadataIndex metadataIndex) {
+        this(boxProperties, dropBoxUtils, downloadCache, metadataIndex, new DropBoxMetrics());
+    }
+
+    /**
+     * @param dropBoxMetrics meters of the operations, may be null
+     */
+    public DropBoxServiceImpl(DropBoxLibProperties boxProperties, DropBoxUtils dropBoxUtils, DownloadCache downloadCache, MetadataIndex metadataIndex,
+            DropBoxMetrics dropBoxMetrics) {
         this.appProperties = boxProperties;
         this.dropBoxUtils = dropBoxUtils;
+        this.downloadCache = downloadCache;
+        this.metadataIndex = metadataIndex;
+        this.downloadLimiter = newLimiter("download", boxProperties.getDownloadConcurrency());
+        this.uploadLimiter = newLimiter("upload", boxProperties.getUploadConcurrency());
+        this.batchLimiter = newBatchLimiter();
+        this.dropBoxMetrics = dropBoxMetrics == null ? new DropBoxMetrics() : dropBoxMetrics;
+        this.dropBoxMetrics.bindDropBoxService(this);
+    }
+
+    // an adaptive limit starts at the configured concurrency and grows up to the adaptive ceiling
+    private AdaptiveConcurrencyLimiter newLimiter(String name, int concurrency) {
+        int initialLimit = Math.max(1, concurrency);
+        if (!appProperties.isAdaptiveConcurrency()) {
+            return new AdaptiveConcurrencyLimiter(name, initialLimit, initialLimit, initialLimit, 1);
+        }
+        int maxLimit = Math.max(initialLimit, appProperties.getAdaptiveConcurrencyMax());
+        return new AdaptiveConcurrencyLimiter(name, initialLimit, 1, maxLimit, appProperties.getAdaptiveConcurrencyLatencyTolerance());
+    }
+
+    // write batches running together contend for the same namespace, they start one at a time
+    private AdaptiveConcurrencyLimiter newBatchLimiter() {
+        if (!appProperties.isAdaptiveConcurrency()) {
+            return new AdaptiveConcurrencyLimiter("batch", 1, 1, 1, 1);
+        }
+        int maxLimit = Math.max(1, appProperties.getAdaptiveBatchConcurrencyMax());
+        return new AdaptiveConcurrencyLimiter("batch", 1, 1, maxLimit, appProperties.getAdaptiveConcurrencyLatencyTolerance());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxService#getConcurrencyLimits()
+     */
+    @Override
+    public Map<String, Integer> getConcurrencyLimits() {
+        Map<String, Integer> limits = new LinkedHashMap<>();
+        limits.put("download", downloadLimiter.getLimit());
+        limits.put("upload", uploadLimiter.getLimit());
+        limits.put("batch", batchLimiter.getLimit());
+        return limits;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxService#cancelRequests(java.lang.Thread)
+     */
+    @Override
+    public int cancelRequests(Thread thread) {
+        return client == null ? 0 : dropBoxUtils.cancelRequests(client, thread);
     }
 
     /*
@@ -54,14 +161,108 @@ public class DropBoxServiceImpl implements DropBoxService {
             logger.error(message, e);
             throw new DropBoxLibException(message, e);
         }
+        if (metadataIndex != null && !metadataIndex.isReady() && seedingIndex.compareAndSet(false, true)) {
+            DropBoxExecutors.namedThreadFactory("dropbox-index-seed").newThread(this::seedIndex).start();
+        }
+    }
+
+    private void seedIndex() {
+        String rootPath = appProperties.getDropBoxRootPath() == null ? "" : appProperties.getDropBoxRootPath();
+        String snapshotFile = appProperties.getListingSnapshotFile();
+        try {
+            if (snapshotFile == null || snapshotFile.isEmpty()) {
+                try (ListFolderIterator entries = listFolder(rootPath, true)) {
+                    metadataIndex.seed(entries);
+                }
+                return;
+            }
+            // warm start from the snapshot, it is saved again once caught up
+            Path snapshotPath = Path.of(snapshotFile);
+            ListingSnapshot snapshot = null;
+            if (Files.exists(snapshotPath)) {
+                snapshot = loadSnapshot(snapshotPath);
+                if (!snapshot.getRootPath().equals(rootPath)) {
+                    logger.warn("snapshot {} is of path {}, not of {}", snapshotPath, snapshot.getRootPath(), rootPath);
+                    snapshot = null;
+                }
+            }
+            if (snapshot == null) {
+                saveSnapshot(rootPath, snapshotPath);
+                snapshot = ListingSnapshot.read(snapshotPath);
+            } else {
+                snapshot.write(snapshotPath);
+            }
+            metadataIndex.seed(snapshot.getEntries().iterator());
+        } catch (Exception e) {
+            logger.error("error while seeding the metadata index, queries keep going to dropbox", e);
+        } finally {
+            seedingIndex.set(false);
+        }
+    }
+
+    /**
+     * Lookups can be safely repeated, transient errors are retried by the
+     * throttler shared with the other requests
+     */
+    private <T> T withRetries(DbxCall<T> call) throws DbxException, IOException {
+        return dropBoxUtils.getRequestThrottler().call(true, call);
+    }
+
+    /**
+     * Run the operation under the timer of its name.
+     */
+    private <T> T timed(String operation, DbxCall<T> call) throws DbxException, IOException {
+        Timer.Sample sample = dropBoxMetrics.start();
+        boolean success = false;
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } finally {
+            dropBoxMetrics.stop(sample, operation, success);
+        }
+    }
+
+    private FileMetadata transferred(String direction, FileMetadata metadata) {
+        if (metadata != null) {
+            dropBoxMetrics.transferred(direction, metadata.getSize());
+        }
+        return metadata;
+    }
+
+    /**
+     * @param longPoolService loop sending the change events that keep the
+     *                        download cache and the metadata index current.
+     *                        Without it, or while it is stopped or disconnected,
+     *                        cached revs are checked against DropBox and the
+     *                        index is not used
+     */
+    public void setLongPoolService(LongPoolService longPoolService) {
+        this.longPoolService = longPoolService;
+    }
+
+    /**
+     * @return true while change events are being received, so content they did
+     *         not invalidate is current
+     */
+    private boolean isChangeFeedLive() {
+        LongPoolService changeFeed = longPoolService;
+        return changeFeed != null && changeFeed.isRunning() && changeFeed.isHealth();
+    }
+
+    /**
+     * The index is only current while the long-poll feeding it runs and is
+     * connected, until then queries go to DropBox.
+     */
+    private boolean isIndexed(String path) {
+        return metadataIndex != null && isChangeFeedLive() && metadataIndex.isReady() && metadataIndex.covers(path == null ? "" : path);
     }
 
     @Override
     public ListRevisionsResult getRevisions(String path) throws DropBoxLibException {
         ListRevisionsResult listRevisions;
         try {
-            DbxUserFilesRequests files = client.files();
-            listRevisions = files.listRevisions(path);
+            listRevisions = timed("getRevisions", () -> withRetries(() -> client.files().listRevisions(path)));
         } catch (Exception e) {
             String message = MessageFormat.format("error while getting revisions for path {0} from dropbox", path);
             throw new DropBoxLibException(message, e);
@@ -87,15 +288,91 @@ public class DropBoxServiceImpl implements DropBoxService {
     }
 
     @Override
-    public Map<String, byte[]> downloadAll(String folderPath) {
-        Map<String, byte[]> res = new HashMap<>();
+    public void downloadAllZip(String folderPath, ZipEntryConsumer consumer) throws DropBoxLibException {
+        try {
+            dropBoxUtils.downloadZip(folderPath, client, consumer);
+        } catch (Exception e) {
+            String message = MessageFormat.format("error while download zip file {0} from dropbox", folderPath);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
+    @Override
+    public ZipFile downloadAllZipToFile(String folderPath) throws DropBoxLibException {
+        Path zip = null;
+        try {
+            String tempDirectory = appProperties.getTempDirectory();
+            zip = tempDirectory == null || tempDirectory.isEmpty()
+                    ? Files.createTempFile("dropbox", ".zip")
+                    : Files.createTempFile(Path.of(tempDirectory), "dropbox", ".zip");
+            dropBoxUtils.downloadZip(folderPath, zip, client);
+            return new ZipFile(zip.toFile(), ZipFile.OPEN_READ | ZipFile.OPEN_DELETE);
+        } catch (Exception e) {
+            deleteQuietly(zip);
+            String message = MessageFormat.format("error while download zip file {0} from dropbox", folderPath);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("could not delete temp file {}", path, e);
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> downloadAll(String folderPath) throws DropBoxLibException {
+        BatchResult<byte[]> result = downloadAllBatch(folderPath);
+        if (result.hasFailures()) {
+            String message = MessageFormat.format("error while download {0} of {1} files in folder {2} from dropbox: {3}",
+                    result.getFailures().size(), result.size(), folderPath, result.getFailures().keySet());
+            throw new DropBoxLibException(message, result.getFailures().values().iterator().next());
+        }
+        return new HashMap<>(result.getSuccesses());
+    }
+
+    @Override
+    public BatchResult<byte[]> downloadAllBatch(String folderPath) throws DropBoxLibException {
+        BatchResult<byte[]> res = new BatchResult<>();
         if (folderPath == null || folderPath.isEmpty()) {
             return res;
         }
         List<FileMetadata> allFiles = allFiles(folderPath, true);
-        for (FileMetadata fileMetadata : allFiles) {
-            res.put(fileMetadata.getPathLower(), download(fileMetadata.getPathLower()));
+        if (allFiles.isEmpty()) {
+            return res;
+        }
+
+        // the limiter bounds the in-flight downloads, the pool is sized for its largest limit
+        ExecutorService executor = DropBoxExecutors.newExecutor("dropbox-download", Math.min(downloadLimiter.getMaxLimit(), allFiles.size()), appProperties.isVirtualThreads());
+        try {
+            List<CompletableFuture<Void>> downloads = new ArrayList<>(allFiles.size());
+            for (FileMetadata fileMetadata : allFiles) {
+                String path = fileMetadata.getPathLower();
+                downloads.add(CompletableFuture.runAsync(() -> {
+                    AdaptiveConcurrencyLimiter.Permit permit = downloadLimiter.acquireUninterruptibly();
+                    try {
+                        byte[] content = download(path);
+                        res.addSuccess(path, content);
+                        permit.success(content.length);
+                    } catch (DropBoxLibException e) {
+                        permit.failed(e);
+                        logger.warn(e.getMessage(), e.getCause());
+                        res.addFailure(path, e);
+                    } finally {
+                        permit.release();
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(downloads.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
         }
+        logger.debug("Downloaded {} files from folder {} with {} failures", res.getSuccesses().size(), folderPath, res.getFailures().size());
         return res;
     }
 
@@ -108,7 +385,8 @@ public class DropBoxServiceImpl implements DropBoxService {
     public byte[] download(String filePath) throws DropBoxLibException {
         byte[] download;
         try {
-            download = dropBoxUtils.download(filePath, client);
+            download = timed("download", () -> downloadCache == null ? dropBoxUtils.download(filePath, client) : cachedDownload(filePath));
+            dropBoxMetrics.transferred("download", download.length);
         } catch (Exception e) {
             String message = MessageFormat.format("error while download file {0} from dropbox", filePath);
             throw new DropBoxLibException(message, e);
@@ -116,6 +394,96 @@ public class DropBoxServiceImpl implements DropBoxService {
         return download;
     }
 
+    @Override
+    public FileMetadata download(String filePath, OutputStream outputStream) throws DropBoxLibException {
+        try {
+            return transferred("download", timed("download", () -> downloadTo(filePath, outputStream)));
+        } catch (Exception e) {
+            String message = MessageFormat.format("error while download file {0} from dropbox", filePath);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
+    private FileMetadata downloadTo(String filePath, OutputStream outputStream) throws DbxException, IOException {
+        if (downloadCache == null) {
+            return dropBoxUtils.download(filePath, outputStream, client);
+        }
+        if (isCacheCurrent(filePath)) {
+            FileMetadata cached = downloadCache.copyTo(filePath, outputStream);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        try (DownloadCache.Writer writer = downloadCache.newWriter()) {
+            FileMetadata metadata = dropBoxUtils.download(filePath, new TeeOutputStream(outputStream, writer.getOutputStream()), client);
+            writer.commit(metadata);
+            return metadata;
+        }
+    }
+
+    private byte[] cachedDownload(String filePath) throws DbxException, IOException {
+        if (isCacheCurrent(filePath)) {
+            byte[] cached = downloadCache.get(filePath);
+            if (cached != null) {
+                logger.debug("Serving file {} from cache", filePath);
+                return cached;
+            }
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (DownloadCache.Writer writer = downloadCache.newWriter()) {
+            FileMetadata metadata = dropBoxUtils.download(filePath, new TeeOutputStream(outputStream, writer.getOutputStream()), client);
+            writer.commit(metadata);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * The cache is kept current by the long-poll change events. Unless the
+     * long-poll is running and connected the metadata is fetched to check the
+     * cached rev is still the latest one.
+     */
+    private boolean isCacheCurrent(String filePath) throws DbxException, IOException {
+        FileMetadata cached = downloadCache.getMetadata(filePath);
+        if (cached == null) {
+            return false;
+        }
+        if (isChangeFeedLive()) {
+            return true;
+        }
+        Metadata current = withRetries(() -> client.files().getMetadata(filePath));
+        return current instanceof FileMetadata currentFile && cached.getRev().equals(currentFile.getRev());
+    }
+
+    @Override
+    public FileMetadata download(String filePath, Path target) throws DropBoxLibException {
+        try {
+            return transferred("download", timed("download", () -> dropBoxUtils.download(filePath, target, client)));
+        } catch (Exception e) {
+            String message = MessageFormat.format("error while download file {0} from dropbox to {1}", filePath, target);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
+    @Override
+    public FileMetadata download(String filePath, WritableByteChannel channel) throws DropBoxLibException {
+        try {
+            return transferred("download", timed("download", () -> dropBoxUtils.download(filePath, channel, client)));
+        } catch (Exception e) {
+            String message = MessageFormat.format("error while download file {0} from dropbox", filePath);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
+    @Override
+    public FileMetadata downloadRanged(String filePath, Path target) throws DropBoxLibException {
+        try {
+            return transferred("download", timed("download", () -> dropBoxUtils.downloadRanged(filePath, target, client, appProperties)));
+        } catch (Exception e) {
+            String message = MessageFormat.format("error while download file {0} from dropbox to {1}", filePath, target);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -126,7 +494,7 @@ public class DropBoxServiceImpl implements DropBoxService {
     public FileMetadata upload(InputStream inputFile, String fullPath, boolean override) throws DropBoxLibException {
         FileMetadata upload;
         try {
-            upload = dropBoxUtils.upload(inputFile, fullPath, client, override);
+            upload = transferred("upload", timed("upload", () -> dropBoxUtils.upload(inputFile, fullPath, client, override)));
         } catch (Exception e) {
             String message = MessageFormat.format("error while upload file {0} to dropbox", fullPath);
             throw new DropBoxLibException(message, e);
@@ -134,6 +502,96 @@ public class DropBoxServiceImpl implements DropBoxService {
         return upload;
     }
 
+    @Override
+    public FileMetadata uploadChunked(InputStream inputFile, String fullPath, boolean override) throws DropBoxLibException {
+        try {
+            return transferred("upload", timed("upload", () -> dropBoxUtils.uploadChunked(inputFile, fullPath, client, override, appProperties)));
+        } catch (Exception e) {
+            String message = MessageFormat.format("error while upload file {0} to dropbox", fullPath);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
+    @Override
+    public BatchResult<FileMetadata> uploadAll(Map<String, InputStream> files, boolean override) throws DropBoxLibException {
+        BatchResult<FileMetadata> res = new BatchResult<>();
+        if (files == null || files.isEmpty()) {
+            return res;
+        }
+
+        // upload the contents, nothing is visible until the sessions are committed
+        Map<String, UploadSessionCursor> cursors = Collections.synchronizedMap(new LinkedHashMap<>());
+        ExecutorService executor = DropBoxExecutors.newExecutor("dropbox-upload-all", Math.min(uploadLimiter.getMaxLimit(), files.size()), appProperties.isVirtualThreads());
+        try {
+            List<CompletableFuture<Void>> uploads = new ArrayList<>(files.size());
+            for (Map.Entry<String, InputStream> file : files.entrySet()) {
+                String path = file.getKey();
+                uploads.add(CompletableFuture.runAsync(() -> {
+                    AdaptiveConcurrencyLimiter.Permit permit = uploadLimiter.acquireUninterruptibly();
+                    try {
+                        UploadSessionCursor cursor = dropBoxUtils.uploadSession(file.getValue(), client, appProperties);
+                        cursors.put(path, cursor);
+                        permit.success(cursor.getOffset());
+                    } catch (Exception e) {
+                        permit.failed(e);
+                        String message = MessageFormat.format("error while upload file {0} to dropbox", path);
+                        logger.warn(message, e);
+                        res.addFailure(path, new DropBoxLibException(message, e));
+                    } finally {
+                        permit.release();
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        // commit the uploaded sessions in batches, in the order of the input
+        List<String> uploaded = new ArrayList<>(cursors.size());
+        for (String path : files.keySet()) {
+            if (cursors.containsKey(path)) {
+                uploaded.add(path);
+            }
+        }
+        runBatches("dropbox-upload-commit", partition(uploaded), batch -> finishUploadBatch(batch, cursors, override, res));
+        logger.debug("Uploaded {} files with {} failures", res.getSuccesses().size(), res.getFailures().size());
+        return res;
+    }
+
+    /**
+     * @return true when DropBox was too busy for some of the commits
+     */
+    private boolean finishUploadBatch(List<String> paths, Map<String, UploadSessionCursor> cursors, boolean override, BatchResult<FileMetadata> res) {
+        List<UploadSessionFinishArg> entries = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            entries.add(new UploadSessionFinishArg(cursors.get(path), dropBoxUtils.getCommitInfo(path, override)));
+        }
+        List<UploadSessionFinishBatchResultEntry> results;
+        try {
+            results = dropBoxUtils.uploadSessionFinishBatch(entries, client, appProperties);
+        } catch (Exception e) {
+            for (String path : paths) {
+                String message = MessageFormat.format("error while upload file {0} to dropbox", path);
+                res.addFailure(path, new DropBoxLibException(message, e));
+            }
+            logger.warn("error while commit {} uploaded files to dropbox", paths.size(), e);
+            return AdaptiveConcurrencyLimiter.isOverload(e);
+        }
+        boolean contended = false;
+        for (int i = 0; i < paths.size(); i++) {
+            UploadSessionFinishBatchResultEntry entry = results.get(i);
+            if (entry.isSuccess()) {
+                res.addSuccess(paths.get(i), entry.getSuccessValue());
+            } else {
+                contended |= entry.getFailureValue().isTooManyWriteOperations();
+                String message = MessageFormat.format("error while upload file {0} to dropbox: {1}", paths.get(i), entry.getFailureValue());
+                res.addFailure(paths.get(i), new DropBoxLibException(message));
+            }
+        }
+        return contended;
+    }
+
     @Override
     public FileMetadata upload(InputStream inputFile, String fullPath) throws DropBoxLibException {
         return upload(inputFile, fullPath, true);
@@ -146,6 +604,9 @@ public class DropBoxServiceImpl implements DropBoxService {
      */
     @Override
     public List<FileMetadata> allFiles(String path, boolean recursive) throws DropBoxLibException {
+        if (isIndexed(path)) {
+            return metadataIndex.files(path, recursive);
+        }
         List<FileMetadata> res = new ArrayList<>();
         try {
             String syncFiles = syncFiles(null, res, path, recursive);
@@ -179,6 +640,9 @@ public class DropBoxServiceImpl implements DropBoxService {
 
     @Override
     public List<FolderMetadata> allFolders(String path, boolean recursive) throws DropBoxLibException {
+        if (isIndexed(path)) {
+            return metadataIndex.folders(path, recursive);
+        }
         List<FolderMetadata> res = new ArrayList<>();
         try {
             String syncFiles = syncFiles(res, null, path, recursive);
@@ -197,15 +661,12 @@ public class DropBoxServiceImpl implements DropBoxService {
 
         String resolvedPath = (path == null) ? "" : path;
 
-        ListFolderResult result;
-        try {
-            DbxUserListFolderBuilder listFolderBuilder = client.files().listFolderBuilder(resolvedPath);
-            result = listFolderBuilder.withRecursive(recursive).start();
-        } catch (Exception e) {
-            throw new DropBoxLibException("error to get folder list", e);
-        }
-        do {
-            for (Metadata entry : result.getEntries()) {
+        Timer.Sample sample = dropBoxMetrics.start();
+        boolean success = false;
+        ListFolderIterator entries = listFolder(resolvedPath, recursive);
+        try (entries) {
+            while (entries.hasNext()) {
+                Metadata entry = entries.next();
                 if (entry instanceof FileMetadata) {
                     if (files != null) {
                         logger.debug("Added file: {}", entry.getPathLower());
@@ -219,20 +680,69 @@ public class DropBoxServiceImpl implements DropBoxService {
                 }
             }
 
-            if (result.getHasMore()) {
-                try {
-                    result = client.files().listFolderContinue(result.getCursor());
-                } catch (DbxException e) {
-                    String msg = MessageFormat.format("Failed to continue folder listing at path: {0} | Cursor: {1}",
-                            resolvedPath, result.getCursor());
-                    logger.error(msg, e);
-                    throw new DropBoxLibException(msg, e);
-                }
+            logger.info("Completed sync for path: {} | Cursor: {}", resolvedPath, entries.getCursor());
+            success = true;
+            return entries.getCursor();
+        } finally {
+            dropBoxMetrics.pagesFetched("syncFiles", entries.getPageCount());
+            dropBoxMetrics.stop(sample, "list", success);
+        }
+    }
+
+    @Override
+    public ListFolderIterator listFolder(String path, boolean recursive) {
+        return new ListFolderIterator(client, path, recursive, appProperties.getListPageLimit(), appProperties.isListPrefetch());
+    }
+
+    @Override
+    public Stream<Metadata> streamFolder(String path, boolean recursive) {
+        return listFolder(path, recursive).stream();
+    }
+
+    @Override
+    public String saveSnapshot(String path, Path snapshotFile) throws DropBoxLibException {
+        String resolvedPath = (path == null) ? "" : path;
+        try (ListFolderIterator entries = listFolder(resolvedPath, true)) {
+            long count = ListingSnapshot.write(snapshotFile, resolvedPath, entries, entries::getCursor);
+            logger.info("Saved snapshot of {} entries for path: {} | Cursor: {}", count, resolvedPath, entries.getCursor());
+            return entries.getCursor();
+        } catch (IOException e) {
+            String message = MessageFormat.format("error while save snapshot of path {0} to {1}", resolvedPath, snapshotFile);
+            throw new DropBoxLibException(message, e);
+        }
+    }
+
+    @Override
+    public ListingSnapshot loadSnapshot(Path snapshotFile) throws DropBoxLibException {
+        ListingSnapshot snapshot;
+        try {
+            snapshot = ListingSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            String message = MessageFormat.format("error while load snapshot {0}", snapshotFile);
+            throw new DropBoxLibException(message, e);
+        }
+        try (ListFolderIterator changes = ListFolderIterator.fromCursor(client, snapshot.getCursor(), appProperties.isListPrefetch())) {
+            ListingSnapshot current = snapshot.update(changes, changes::getCursor);
+            logger.info("Loaded snapshot {} and caught up with {} pages of changes", snapshotFile, changes.getPageCount());
+            return current;
+        } catch (DropBoxLibException e) {
+            if (!(e.getCause() instanceof ListFolderContinueErrorException continueError && continueError.errorValue.isReset())) {
+                throw e;
             }
-        } while (result.getHasMore());
+            logger.warn("cursor of snapshot {} was reset by dropbox, listing {} again", snapshotFile, snapshot.getRootPath());
+        }
+        List<Metadata> entries = new ArrayList<>();
+        try (ListFolderIterator listing = listFolder(snapshot.getRootPath(), true)) {
+            listing.forEachRemaining(entries::add);
+            return new ListingSnapshot(snapshot.getRootPath(), listing.getCursor(), entries);
+        }
+    }
 
-        logger.info("Completed sync for path: {} | Cursor: {}", resolvedPath, result.getCursor());
-        return result.getCursor();
+    @Override
+    public Stream<FileMetadata> streamFiles(String path, boolean recursive) {
+        return streamFolder(path, recursive)
+                .filter(FileMetadata.class::isInstance)
+                .map(FileMetadata.class::cast);
     }
 
     /*
@@ -246,7 +756,7 @@ public class DropBoxServiceImpl implements DropBoxService {
         try {
             String message = "Going to rename from:%s to path:%s".formatted(fromPath, toPath);
             logger.debug(message);
-            Metadata metadata = client.files().moveV2(fromPath, toPath).getMetadata();
+            Metadata metadata = timed("rename", () -> client.files().moveV2(fromPath, toPath).getMetadata());
             logger.debug(metadata.toStringMultiline());
         } catch (Exception e) {
             String message = MessageFormat.format("error while rename path {0} to path {1}", fromPath, toPath);
@@ -279,7 +789,7 @@ public class DropBoxServiceImpl implements DropBoxService {
     public SearchResult search(String path, String query) throws DropBoxLibException {
         SearchResult search;
         try {
-            search = client.files().search(path, query);
+            search = timed("search", () -> withRetries(() -> client.files().search(path, query)));
         } catch (Exception e) {
             String message = MessageFormat.format("error while search path {0} with query {1}", path, query);
             throw new DropBoxLibException(message, e);
@@ -289,9 +799,17 @@ public class DropBoxServiceImpl implements DropBoxService {
 
     @Override
     public Boolean checkPath(String path) throws DropBoxLibException {
+        if (isIndexed(path)) {
+            if (!metadataIndex.exists(path)) {
+                // like the not found error of getMetadata
+                String message = MessageFormat.format("error while check path {0} on dropbox", path);
+                throw new DropBoxLibException(message, new FileNotFoundException(path));
+            }
+            return true;
+        }
         Metadata metadata;
         try {
-            metadata = client.files().getMetadata(path);
+            metadata = withRetries(() -> client.files().getMetadata(path));
         } catch (Exception e) {
             String message = MessageFormat.format("error while check path {0} on dropbox", path);
             throw new DropBoxLibException(message, e);
@@ -303,12 +821,141 @@ public class DropBoxServiceImpl implements DropBoxService {
     @Override
     public void delete(@NotNull String oldFileName) throws DropBoxLibException {
         try {
-            client.files().deleteV2(oldFileName);
+            timed("delete", () -> client.files().deleteV2(oldFileName));
         } catch (Exception e) {
             String message = MessageFormat.format("error while delete file path {0} on dropbox", oldFileName);
             throw new DropBoxLibException(message, e);
         }
     }
 
+    @Override
+    public BatchResult<Metadata> deleteAll(List<String> paths) throws DropBoxLibException {
+        BatchResult<Metadata> res = new BatchResult<>();
+        runBatches("dropbox-delete", partition(paths), batch -> deleteBatch(batch, res));
+        logger.debug("Deleted {} paths with {} failures", res.getSuccesses().size(), res.getFailures().size());
+        return res;
+    }
+
+    /**
+     * @return true when DropBox was too busy for some of the deletes
+     */
+    private boolean deleteBatch(List<String> batch, BatchResult<Metadata> res) {
+        List<DeleteBatchResultEntry> results;
+        try {
+            results = dropBoxUtils.deleteBatch(batch, client, appProperties);
+        } catch (Exception e) {
+            for (String path : batch) {
+                res.addFailure(path, new DropBoxLibException(MessageFormat.format("error while delete file path {0} on dropbox", path), e));
+            }
+            logger.warn("error while delete {} paths on dropbox", batch.size(), e);
+            return AdaptiveConcurrencyLimiter.isOverload(e);
+        }
+        boolean contended = false;
+        for (int i = 0; i < batch.size(); i++) {
+            DeleteBatchResultEntry entry = results.get(i);
+            if (entry.isSuccess()) {
+                res.addSuccess(batch.get(i), entry.getSuccessValue().getMetadata());
+            } else {
+                contended |= entry.getFailureValue().isTooManyWriteOperations();
+                String message = MessageFormat.format("error while delete file path {0} on dropbox: {1}", batch.get(i), entry.getFailureValue());
+                res.addFailure(batch.get(i), new DropBoxLibException(message));
+            }
+        }
+        return contended;
+    }
+
+    @Override
+    public BatchResult<Metadata> renameAll(Map<String, String> paths) throws DropBoxLibException {
+        return relocateAll(paths, dropBoxUtils::moveBatch, "rename");
+    }
+
+    @Override
+    public BatchResult<Metadata> copyAll(Map<String, String> paths) throws DropBoxLibException {
+        return relocateAll(paths, dropBoxUtils::copyBatch, "copy");
+    }
+
+    private interface RelocationBatch {
+        List<RelocationBatchResultEntry> run(List<RelocationPath> relocations, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException;
+    }
+
+    private BatchResult<Metadata> relocateAll(Map<String, String> paths, RelocationBatch operation, String operationName) {
+        BatchResult<Metadata> res = new BatchResult<>();
+        List<RelocationPath> relocations = new ArrayList<>(paths.size());
+        paths.forEach((fromPath, toPath) -> relocations.add(new RelocationPath(fromPath, toPath)));
+        runBatches("dropbox-" + operationName, partition(relocations), batch -> relocateBatch(batch, operation, operationName, res));
+        logger.debug("{} of {} paths done with {} failures", operationName, res.size(), res.getFailures().size());
+        return res;
+    }
+
+    /**
+     * @return true when DropBox was too busy for some of the relocations
+     */
+    private boolean relocateBatch(List<RelocationPath> batch, RelocationBatch operation, String operationName, BatchResult<Metadata> res) {
+        List<RelocationBatchResultEntry> results;
+        try {
+            results = operation.run(batch, client, appProperties);
+        } catch (Exception e) {
+            for (RelocationPath relocation : batch) {
+                String message = MessageFormat.format("error while {0} path {1} to path {2}", operationName, relocation.getFromPath(), relocation.getToPath());
+                res.addFailure(relocation.getFromPath(), new DropBoxLibException(message, e));
+            }
+            logger.warn("error while {} {} paths on dropbox", operationName, batch.size(), e);
+            return AdaptiveConcurrencyLimiter.isOverload(e);
+        }
+        boolean contended = false;
+        for (int i = 0; i < batch.size(); i++) {
+            RelocationPath relocation = batch.get(i);
+            RelocationBatchResultEntry entry = results.get(i);
+            if (entry.isSuccess()) {
+                res.addSuccess(relocation.getFromPath(), entry.getSuccessValue());
+            } else {
+                contended |= entry.isFailure() && entry.getFailureValue().isTooManyWriteOperations();
+                Object failure = entry.isFailure() ? entry.getFailureValue() : entry;
+                String message = MessageFormat.format("error while {0} path {1} to path {2}: {3}", operationName, relocation.getFromPath(), relocation.getToPath(), failure);
+                res.addFailure(relocation.getFromPath(), new DropBoxLibException(message));
+            }
+        }
+        return contended;
+    }
+
+    /**
+     * Run the batches, as many at a time as the batch limiter allows. A batch
+     * returns true when DropBox was too busy for it, which lowers the limit.
+     */
+    private <B> void runBatches(String name, List<B> batches, Predicate<B> batch) {
+        if (batches.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = DropBoxExecutors.newExecutor(name, Math.min(batchLimiter.getMaxLimit(), batches.size()), appProperties.isVirtualThreads());
+        try {
+            List<CompletableFuture<Void>> runs = new ArrayList<>(batches.size());
+            for (B entries : batches) {
+                runs.add(CompletableFuture.runAsync(() -> {
+                    AdaptiveConcurrencyLimiter.Permit permit = batchLimiter.acquireUninterruptibly();
+                    try {
+                        if (batch.test(entries)) {
+                            permit.dropped();
+                        } else {
+                            permit.success();
+                        }
+                    } finally {
+                        permit.release();
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private <T> List<List<T>> partition(List<T> entries) {
+        int batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, appProperties.getBatchSize()));
+        List<List<T>> batches = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            batches.add(entries.subList(from, Math.min(entries.size(), from + batchSize)));
+        }
+        return batches;
+    }
 
 }
@@ -2,6 +2,10 @@ package com.dbl.service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 
 import com.dbl.config.DropBoxLibProperties;
@@ -10,13 +14,22 @@ import com.dropbox.core.DbxException;
 import com.dropbox.core.http.StandardHttpRequestor;
 import com.dropbox.core.http.StandardHttpRequestor.Config;
 import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.DeleteBatchResultEntry;
+import com.dropbox.core.v2.files.DownloadZipResult;
 import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.RelocationBatchResultEntry;
+import com.dropbox.core.v2.files.RelocationPath;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.UploadSessionFinishArg;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchResultEntry;
 
 public interface DropBoxUtils {
 
 	/**
 	 * Create a new Dropbox client using the given authentication information and
-	 * HTTP client config.
+	 * HTTP client config. Requests are sent with the transport of
+	 * dropboxlib.http-transport.
 	 *
 	 * @param auth
 	 *            Authentication information
@@ -27,6 +40,32 @@ public interface DropBoxUtils {
 	 */
 	DbxClientV2 createClient(DbxAuthInfo auth, StandardHttpRequestor.Config config, String clientUserAgentId);
 
+	/**
+	 * This method will cancel the requests a client created by
+	 * {@link #createClient(DbxAuthInfo, StandardHttpRequestor.Config, String)}
+	 * is running, they fail with an IOException
+	 *
+	 * @return number of requests cancelled
+	 */
+	int cancelRequests(DbxClientV2 client);
+
+	/**
+	 * This method will cancel the requests of the client the thread is waiting
+	 * for, see {@link #cancelRequests(DbxClientV2)}. With the standard
+	 * transport no request is cancelled, its connections are shared by the
+	 * threads
+	 *
+	 * @return number of requests cancelled
+	 */
+	int cancelRequests(DbxClientV2 client, Thread thread);
+
+	/**
+	 * This method will return the throttler every client created by
+	 * {@link #createClient(DbxAuthInfo, StandardHttpRequestor.Config, String)}
+	 * sends its requests through
+	 */
+	RequestThrottler getRequestThrottler();
+
 	/**
 	 * 
 	 * @param appProperties
@@ -40,10 +79,167 @@ public interface DropBoxUtils {
 
 	byte[] download(String filePath, DbxClientV2 client) throws DbxException, IOException;
 
+	/**
+	 * Stream a file from DropBox into the given output stream. The content is
+	 * copied straight from the HTTP response, the output stream is not closed.
+	 *
+	 * @param filePath
+	 *            DropBox path of the file
+	 * @param outputStream
+	 *            target stream
+	 * @param client
+	 *            Dropbox client
+	 * @return metadata of the downloaded file
+	 */
+	FileMetadata download(String filePath, OutputStream outputStream, DbxClientV2 client) throws DbxException, IOException;
+
+	/**
+	 * Stream a file from DropBox into a local file. The content is written to a
+	 * sibling ".part" file which replaces the target only once the download is
+	 * complete.
+	 *
+	 * @param filePath
+	 *            DropBox path of the file
+	 * @param target
+	 *            local file to create or replace
+	 * @param client
+	 *            Dropbox client
+	 * @return metadata of the downloaded file
+	 */
+	FileMetadata download(String filePath, Path target, DbxClientV2 client) throws DbxException, IOException;
+
+	/**
+	 * Stream a file from DropBox into the given channel, the channel is not
+	 * closed.
+	 *
+	 * @param filePath
+	 *            DropBox path of the file
+	 * @param channel
+	 *            target channel
+	 * @param client
+	 *            Dropbox client
+	 * @return metadata of the downloaded file
+	 */
+	FileMetadata download(String filePath, WritableByteChannel channel, DbxClientV2 client) throws DbxException, IOException;
+
+	/**
+	 * Download a file into a local file by fetching byte ranges of the same
+	 * revision in parallel. Every range is written at its own offset of a
+	 * preallocated ".part" file, failed ranges are resumed from the last byte
+	 * written up to {@link DropBoxLibProperties#getTransferMaxRetries()} times.
+	 *
+	 * @param filePath
+	 *            DropBox path of the file
+	 * @param target
+	 *            local file to create or replace
+	 * @param client
+	 *            Dropbox client
+	 * @param appProperties
+	 *            part size and parallelism of the download
+	 * @return metadata of the downloaded file
+	 */
+	FileMetadata downloadRanged(String filePath, Path target, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException;
+
     Map<String, byte[]> downloadZip(String filePath, DbxClientV2 client) throws DbxException, IOException;
 
+	/**
+	 * Download a folder as zip and pass every entry to the consumer while the zip
+	 * is read from the network, nothing is buffered in memory.
+	 *
+	 * @param filePath
+	 *            DropBox path of the folder
+	 * @param client
+	 *            Dropbox client
+	 * @param consumer
+	 *            called once per zip entry
+	 * @return metadata of the zipped folder
+	 */
+	DownloadZipResult downloadZip(String filePath, DbxClientV2 client, ZipEntryConsumer consumer) throws DbxException, IOException;
+
+	/**
+	 * Download a folder as zip into a local file so the entries can be read on
+	 * demand, e.g. with {@link java.util.zip.ZipFile}.
+	 *
+	 * @param filePath
+	 *            DropBox path of the folder
+	 * @param target
+	 *            local zip file to create or replace
+	 * @param client
+	 *            Dropbox client
+	 * @return metadata of the zipped folder
+	 */
+	DownloadZipResult downloadZip(String filePath, Path target, DbxClientV2 client) throws DbxException, IOException;
+
     FileMetadata upload(InputStream inputFile, String fullPath, DbxClientV2 client) throws DbxException, IOException;
 
 	FileMetadata upload(InputStream inputFile, String fullPath, DbxClientV2 client, boolean override) throws DbxException, IOException;
 
-}
\ No newline at end of file
+	/**
+	 * Upload the input into a new upload session without committing it. The
+	 * input is split into chunks of {@link DropBoxLibProperties#getUploadChunkSize()}
+	 * bytes which are appended concurrently, a failed chunk is retried on its
+	 * own. The returned session is closed and ready to be finished.
+	 *
+	 * @param inputFile
+	 *            content to upload, read to the end but not closed
+	 * @param client
+	 *            Dropbox client
+	 * @param appProperties
+	 *            chunk size and parallelism of the upload
+	 * @return cursor at the end of the uploaded content
+	 */
+	UploadSessionCursor uploadSession(InputStream inputFile, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException;
+
+	/**
+	 * Commit closed upload sessions in one request. Entries of the result are
+	 * in the order of the arguments.
+	 *
+	 * @param entries
+	 *            at most 1000 closed sessions with their commit info
+	 * @return per entry result
+	 */
+	List<UploadSessionFinishBatchResultEntry> uploadSessionFinishBatch(List<UploadSessionFinishArg> entries, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException;
+
+	/**
+	 * Delete paths in one batch job and wait for it to complete. Entries of the
+	 * result are in the order of the arguments.
+	 *
+	 * @param paths
+	 *            at most 1000 paths
+	 * @return per entry result
+	 */
+	List<DeleteBatchResultEntry> deleteBatch(List<String> paths, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException;
+
+	/**
+	 * Move paths in one batch job and wait for it to complete, see
+	 * {@link #deleteBatch(List, DbxClientV2, DropBoxLibProperties)}.
+	 */
+	List<RelocationBatchResultEntry> moveBatch(List<RelocationPath> relocations, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException;
+
+	/**
+	 * Copy paths on the server in one batch job and wait for it to complete,
+	 * see {@link #deleteBatch(List, DbxClientV2, DropBoxLibProperties)}.
+	 */
+	List<RelocationBatchResultEntry> copyBatch(List<RelocationPath> relocations, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException;
+
+	/**
+	 * Upload a file of any size through an upload session, see
+	 * {@link #uploadSession(InputStream, DbxClientV2, DropBoxLibProperties)}.
+	 *
+	 * @param override
+	 *            same semantics as {@link #upload(InputStream, String, DbxClientV2, boolean)}
+	 * @return metadata of the committed file
+	 */
+	FileMetadata uploadChunked(InputStream inputFile, String fullPath, DbxClientV2 client, boolean override, DropBoxLibProperties appProperties) throws DbxException, IOException;
+
+	/**
+	 * @param fullPath
+	 *            DropBox path of the file
+	 * @param override
+	 *            overwrite an existing file, otherwise the file is renamed on
+	 *            conflict
+	 * @return commit info matching {@link #upload(InputStream, String, DbxClientV2, boolean)}
+	 */
+	CommitInfo getCommitInfo(String fullPath, boolean override);
+
+}
\ No newline at end of file
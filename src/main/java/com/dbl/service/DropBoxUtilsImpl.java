@@ -1,12 +1,29 @@
 package com.dbl.service;
 
 import java.io.*;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -15,11 +32,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.dbl.config.DropBoxLibProperties;
+import com.dbl.service.http.CancellableHttpRequestor;
+import com.dbl.service.http.CancellableRequestor;
+import com.dbl.service.http.HttpTransport;
+import com.dbl.service.http.JavaHttpClientRequestor;
+import com.dbl.service.http.ThrottlingHttpRequestor;
 import com.dropbox.core.DbxAuthInfo;
 import com.dropbox.core.DbxDownloader;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxHost;
 import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
 import com.dropbox.core.http.StandardHttpRequestor;
 import com.dropbox.core.http.StandardHttpRequestor.Config;
 import com.dropbox.core.v2.DbxClientV2;
@@ -28,6 +51,28 @@ public class DropBoxUtilsImpl implements DropBoxUtils {
 
     private final Logger logger = LoggerFactory.getLogger(DropBoxUtilsImpl.class);
 
+    // requestors of the clients created, forgotten with the client
+    private final Map<DbxClientV2, CancellableRequestor> requestors = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final DropBoxLibProperties appProperties;
+    // shared by every client created, DropBox limits the rate per account and app
+    private final RequestThrottler throttler;
+    // built with the first client of the JAVA_HTTP_CLIENT transport, guarded by this
+    private HttpClient httpClient;
+
+    public DropBoxUtilsImpl() {
+        this(new DropBoxLibProperties());
+    }
+
+    public DropBoxUtilsImpl(DropBoxLibProperties appProperties) {
+        this(appProperties, new RequestThrottler(appProperties));
+    }
+
+    public DropBoxUtilsImpl(DropBoxLibProperties appProperties, RequestThrottler throttler) {
+        this.appProperties = appProperties;
+        this.throttler = throttler;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -36,10 +81,62 @@ public class DropBoxUtilsImpl implements DropBoxUtils {
      */
     @Override
     public DbxClientV2 createClient(DbxAuthInfo auth, StandardHttpRequestor.Config config, String clientUserAgentId) {
-        StandardHttpRequestor requestor = new StandardHttpRequestor(config);
-        DbxRequestConfig requestConfig = DbxRequestConfig.newBuilder(clientUserAgentId).withHttpRequestor(requestor).build();
+        // cancellable so a long-poll can be ended on stop
+        HttpRequestor requestor = appProperties.getHttpTransport() == HttpTransport.JAVA_HTTP_CLIENT
+                ? new JavaHttpClientRequestor(getHttpClient(config), config)
+                : new CancellableHttpRequestor(config);
+        DbxRequestConfig.Builder requestConfig = DbxRequestConfig.newBuilder(clientUserAgentId)
+                .withHttpRequestor(new ThrottlingHttpRequestor(requestor, throttler, auth.getHost().getNotify()));
+        // rate limits are retried by the client after the retry-after, transient errors by the throttler
+        if (throttler.getMaxRetries() > 0) {
+            requestConfig.withAutoRetryEnabled(throttler.getMaxRetries());
+        }
+
+        DbxClientV2 client = new DbxClientV2(requestConfig.build(), auth.getAccessToken(), auth.getHost());
+        requestors.put(client, (CancellableRequestor) requestor);
+        return client;
+    }
 
-        return new DbxClientV2(requestConfig, auth.getAccessToken(), auth.getHost());
+    /**
+     * One client for every DropBox client, so they share its connections
+     */
+    private synchronized HttpClient getHttpClient(StandardHttpRequestor.Config config) {
+        if (httpClient == null) {
+            httpClient = JavaHttpClientRequestor.newHttpClient(appProperties, config);
+        }
+        return httpClient;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#cancelRequests(com.dropbox.core.v2.DbxClientV2)
+     */
+    @Override
+    public int cancelRequests(DbxClientV2 client) {
+        CancellableRequestor requestor = requestors.get(client);
+        return requestor == null ? 0 : requestor.cancel();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#cancelRequests(com.dropbox.core.v2.DbxClientV2, java.lang.Thread)
+     */
+    @Override
+    public int cancelRequests(DbxClientV2 client, Thread thread) {
+        CancellableRequestor requestor = requestors.get(client);
+        return requestor == null ? 0 : requestor.cancel(thread);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#getRequestThrottler()
+     */
+    @Override
+    public RequestThrottler getRequestThrottler() {
+        return throttler;
     }
 
     /*
@@ -65,8 +162,10 @@ public class DropBoxUtilsImpl implements DropBoxUtils {
      */
     @Override
     public Config getDefaultConfig(DropBoxLibProperties appProperties) {
-        // TODO: create another getConfig method with config construction
-        StandardHttpRequestor.Config config = Config.DEFAULT_INSTANCE;
+        StandardHttpRequestor.Config config = Config.builder()
+                .withConnectTimeout(appProperties.getHttpConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .withReadTimeout(appProperties.getHttpReadTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .build();
         return config;
     }
 
@@ -99,62 +198,261 @@ public class DropBoxUtilsImpl implements DropBoxUtils {
     @Override
     public byte[] download(String filePath, DbxClientV2 client) throws DbxException, IOException {
         logger.debug("Going to download file" + filePath);
-        byte[] out = null;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try {
-            DbxDownloader<FileMetadata> download = client.files().download(filePath);
-            FileMetadata download2 = download.download(outputStream);
-            logger.info("Metadata: " + download2.toString());
-            out = outputStream.toByteArray();
+        try (DbxDownloader<FileMetadata> download = client.files().download(filePath)) {
+            FileMetadata metadata = download.getResult();
+            logger.info("Metadata: " + metadata.toString());
+            if (metadata.getSize() > Integer.MAX_VALUE - 8) {
+                throw new IOException("file " + filePath + " is too large to download into memory, use a streaming download");
+            }
+            // the size is known before the body is read, so fill an exact buffer
+            // instead of growing a ByteArrayOutputStream and copying it again
+            byte[] out = download.getInputStream().readNBytes((int) metadata.getSize());
+            if (out.length != metadata.getSize()) {
+                throw new EOFException("expected " + metadata.getSize() + " bytes for file " + filePath + " but got " + out.length);
+            }
+            return out;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#download(java.lang.String,
+     * java.io.OutputStream, com.dropbox.core.v2.DbxClientV2)
+     */
+    @Override
+    public FileMetadata download(String filePath, OutputStream outputStream, DbxClientV2 client) throws DbxException, IOException {
+        logger.debug("Going to stream file {}", filePath);
+        DbxDownloader<FileMetadata> download = client.files().download(filePath);
+        // DbxDownloader.download copies with a fixed buffer and closes the downloader
+        FileMetadata metadata = download.download(outputStream);
+        logger.debug("Streamed {} bytes of file {}", metadata.getSize(), filePath);
+        return metadata;
+    }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#download(java.lang.String,
+     * java.nio.file.Path, com.dropbox.core.v2.DbxClientV2)
+     */
+    @Override
+    public FileMetadata download(String filePath, Path target, DbxClientV2 client) throws DbxException, IOException {
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        boolean completed = false;
+        try {
+            FileMetadata metadata;
+            try (OutputStream outputStream = Files.newOutputStream(part)) {
+                metadata = download(filePath, outputStream, client);
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            completed = true;
+            return metadata;
         } finally {
-            outputStream.close();
+            if (!completed) {
+                Files.deleteIfExists(part);
+            }
         }
+    }
 
-        return out;
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#download(java.lang.String,
+     * java.nio.channels.WritableByteChannel, com.dropbox.core.v2.DbxClientV2)
+     */
+    @Override
+    public FileMetadata download(String filePath, WritableByteChannel channel, DbxClientV2 client) throws DbxException, IOException {
+        // the adapter is unbuffered, so there is nothing to flush and it must not be
+        // closed as that would close the caller's channel
+        return download(filePath, Channels.newOutputStream(channel), client);
     }
 
-    private final static Long MILLS_IN_DAY = 86400000L;
+    private static final long MIN_RANGE_PART_SIZE = 1024L * 1024;
+    private static final int RANGE_BUFFER_SIZE = 64 * 1024;
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#downloadRanged(java.lang.String,
+     * java.nio.file.Path, com.dropbox.core.v2.DbxClientV2,
+     * com.dbl.config.DropBoxLibProperties)
+     */
     @Override
-    public Map<String, byte[]> downloadZip(String filePath, DbxClientV2 client) throws DbxException, IOException {
-        logger.debug("Going to download folder" + filePath);
-        Map<String, byte[]> out = new HashMap<>();
-        DbxDownloader<DownloadZipResult> downloadZipResultDbxDownloader = null;
-        ZipInputStream zis = null;
+    public FileMetadata downloadRanged(String filePath, Path target, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        Metadata metadata = client.files().getMetadata(filePath);
+        if (!(metadata instanceof FileMetadata fileMetadata)) {
+            throw new IOException("path " + filePath + " is not a file");
+        }
+        long size = fileMetadata.getSize();
+        long partSize = Math.max(MIN_RANGE_PART_SIZE, appProperties.getRangedDownloadPartSize());
+        int parallelism = Math.max(1, appProperties.getRangedDownloadParallelism());
+        if (size <= partSize || parallelism == 1) {
+            return download(filePath, target, client);
+        }
+
+        List<RangePart> pending = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += partSize) {
+            pending.add(new RangePart(offset, Math.min(partSize, size - offset)));
+        }
+        logger.debug("Going to download file {} of {} bytes in {} ranges", filePath, size, pending.size());
 
+        // every range is read from the same revision so a concurrent edit can not mix content
+        String revPath = "rev:" + fileMetadata.getRev();
+        int maxAttempts = 1 + Math.max(0, appProperties.getTransferMaxRetries());
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        ExecutorService executor = DropBoxExecutors.newExecutor("dropbox-range", Math.min(parallelism, pending.size()), appProperties.isVirtualThreads());
+        // a virtual thread executor starts every range at once, the permits bound the ones in flight
+        Semaphore inFlight = new Semaphore(parallelism);
+        boolean completed = false;
         try {
-            downloadZipResultDbxDownloader = client.files().downloadZip(filePath);
-            zis = new ZipInputStream(downloadZipResultDbxDownloader.getInputStream());
-
-            ZipEntry zipEntry = zis.getNextEntry();
-            byte[] buffer = new byte[1024];
-            while (zipEntry != null) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                int len;
-                while ((len = zis.read(buffer)) > 0) {
-                    baos.write(buffer, 0, len);
+            try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw"); FileChannel channel = file.getChannel()) {
+                file.setLength(size);
+                for (int attempt = 1; !pending.isEmpty(); attempt++) {
+                    Map<RangePart, Future<?>> futures = new LinkedHashMap<>();
+                    for (RangePart range : pending) {
+                        futures.put(range, executor.submit(() -> {
+                            inFlight.acquire();
+                            try {
+                                downloadRange(client, revPath, channel, range);
+                            } finally {
+                                inFlight.release();
+                            }
+                            return null;
+                        }));
+                    }
+                    List<RangePart> failed = new ArrayList<>();
+                    Throwable lastError = null;
+                    for (Map.Entry<RangePart, Future<?>> entry : futures.entrySet()) {
+                        try {
+                            entry.getValue().get();
+                        } catch (ExecutionException e) {
+                            RangePart range = entry.getKey();
+                            logger.warn("range {} of file {} failed after {} bytes (attempt {})", range, filePath, range.written, attempt, e.getCause());
+                            failed.add(range);
+                            lastError = e.getCause();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("ranged download of " + filePath + " was interrupted");
+                        }
+                    }
+                    if (!failed.isEmpty() && attempt >= maxAttempts) {
+                        if (lastError instanceof DbxException dbxException) {
+                            throw dbxException;
+                        }
+                        throw new IOException(failed.size() + " ranges of file " + filePath + " failed after " + attempt + " attempts", lastError);
+                    }
+                    if (!failed.isEmpty()) {
+                        try {
+                            Thread.sleep(throttler.backoffMillis(attempt));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("ranged download of " + filePath + " was interrupted");
+                        }
+                    }
+                    pending = failed;
                 }
-                out.put(zipEntry.getName(), baos.toByteArray());
-                baos.close();
-                logger.info("unzip:"+zipEntry.getName());
-                zipEntry = zis.getNextEntry();
             }
-
-        } catch (java.util.zip.ZipException e) {
-            logger.error("could not unzip due to :",e);
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            completed = true;
         } finally {
-            if (downloadZipResultDbxDownloader != null) {
-                downloadZipResultDbxDownloader.close();
+            executor.shutdownNow();
+            if (!completed) {
+                Files.deleteIfExists(part);
             }
-            if (zis != null) {
-                zis.close();
+        }
+        return fileMetadata;
+    }
+
+    private void downloadRange(DbxClientV2 client, String revPath, FileChannel channel, RangePart range) throws DbxException, IOException {
+        // resume after the bytes a previous attempt already wrote
+        long remaining = range.length - range.written;
+        try (DbxDownloader<FileMetadata> downloader = client.files().downloadBuilder(revPath).range(range.offset + range.written, remaining).start()) {
+            InputStream in = downloader.getInputStream();
+            byte[] buffer = new byte[RANGE_BUFFER_SIZE];
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("range " + range + " ended " + remaining + " bytes early");
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                long position = range.offset + range.written;
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                range.written += read;
+                remaining -= read;
             }
         }
+    }
+
+    private static final class RangePart {
+        private final long offset;
+        private final long length;
+        private volatile long written;
+
+        private RangePart(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + offset + "-" + (offset + length - 1) + "]";
+        }
+    }
+
+    private final static Long MILLS_IN_DAY = 86400000L;
 
+    @Override
+    public Map<String, byte[]> downloadZip(String filePath, DbxClientV2 client) throws DbxException, IOException {
+        Map<String, byte[]> out = new HashMap<>();
+        downloadZip(filePath, client, (zipEntry, content) -> out.put(zipEntry.getName(), content.readAllBytes()));
         return out;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#downloadZip(java.lang.String,
+     * com.dropbox.core.v2.DbxClientV2, com.dbl.service.ZipEntryConsumer)
+     */
+    @Override
+    public DownloadZipResult downloadZip(String filePath, DbxClientV2 client, ZipEntryConsumer consumer) throws DbxException, IOException {
+        logger.debug("Going to download folder" + filePath);
+        try (DbxDownloader<DownloadZipResult> downloader = client.files().downloadZip(filePath);
+             ZipInputStream zis = new ZipInputStream(new BufferedInputStream(downloader.getInputStream(), RANGE_BUFFER_SIZE))) {
+            // a broken zip is reported to the caller instead of returning the entries read so far
+            InputStream entryContent = new FilterInputStream(zis) {
+                @Override
+                public void close() {
+                    // the consumer must not close the zip stream
+                }
+            };
+            ZipEntry zipEntry;
+            while ((zipEntry = zis.getNextEntry()) != null) {
+                logger.debug("unzip:" + zipEntry.getName());
+                consumer.accept(zipEntry, entryContent);
+                zis.closeEntry();
+            }
+            return downloader.getResult();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#downloadZip(java.lang.String,
+     * java.nio.file.Path, com.dropbox.core.v2.DbxClientV2)
+     */
+    @Override
+    public DownloadZipResult downloadZip(String filePath, Path target, DbxClientV2 client) throws DbxException, IOException {
+        logger.debug("Going to download folder {} to {}", filePath, target);
+        try (OutputStream outputStream = Files.newOutputStream(target)) {
+            return client.files().downloadZip(filePath).download(outputStream);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -186,4 +484,235 @@ public class DropBoxUtilsImpl implements DropBoxUtils {
 
         return metadata;
     }
+
+    private static final int SESSION_CHUNK_ALIGNMENT = 4 * 1024 * 1024;
+    // a single request is limited to 150 MB
+    private static final int MAX_SESSION_CHUNK_SIZE = 37 * SESSION_CHUNK_ALIGNMENT;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#getCommitInfo(java.lang.String, boolean)
+     */
+    @Override
+    public CommitInfo getCommitInfo(String fullPath, boolean override) {
+        return CommitInfo.newBuilder(fullPath)
+                .withMode(override ? WriteMode.OVERWRITE : WriteMode.ADD)
+                .withAutorename(!override)
+                .build();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#uploadChunked(java.io.InputStream,
+     * java.lang.String, com.dropbox.core.v2.DbxClientV2, boolean,
+     * com.dbl.config.DropBoxLibProperties)
+     */
+    @Override
+    public FileMetadata uploadChunked(InputStream inputFile, String fullPath, DbxClientV2 client, boolean override, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        logger.debug("going to upload file {} through an upload session", fullPath);
+        UploadSessionCursor cursor = uploadSession(inputFile, client, appProperties);
+        CommitInfo commitInfo = getCommitInfo(fullPath, override);
+        return client.files().uploadSessionFinish(cursor, commitInfo).uploadAndFinish(new ByteArrayInputStream(new byte[0]));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#uploadSession(java.io.InputStream,
+     * com.dropbox.core.v2.DbxClientV2, com.dbl.config.DropBoxLibProperties)
+     */
+    @Override
+    public UploadSessionCursor uploadSession(InputStream inputFile, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        // all chunks but the last of a concurrent session must be a multiple of 4 MB
+        int chunkSize = Math.min(MAX_SESSION_CHUNK_SIZE, Math.max(1, (appProperties.getUploadChunkSize() + SESSION_CHUNK_ALIGNMENT - 1) / SESSION_CHUNK_ALIGNMENT) * SESSION_CHUNK_ALIGNMENT);
+        int parallelism = Math.max(1, appProperties.getUploadParallelism());
+        int maxAttempts = 1 + Math.max(0, appProperties.getTransferMaxRetries());
+
+        byte[] chunk = inputFile.readNBytes(chunkSize);
+        if (chunk.length < chunkSize) {
+            // the whole content fits in the request that opens the session
+            byte[] content = chunk;
+            String sessionId = withRetries(maxAttempts, () -> client.files().uploadSessionStartBuilder()
+                    .withClose(true)
+                    .uploadAndFinish(new ByteArrayInputStream(content))
+                    .getSessionId());
+            return new UploadSessionCursor(sessionId, content.length);
+        }
+
+        String sessionId = withRetries(maxAttempts, () -> client.files().uploadSessionStartBuilder()
+                .withSessionType(UploadSessionType.CONCURRENT)
+                .uploadAndFinish(new ByteArrayInputStream(new byte[0]))
+                .getSessionId());
+        logger.debug("started upload session {} with chunks of {} bytes", sessionId, chunkSize);
+
+        // bounds the chunks held in memory to the ones being appended plus the one being read
+        Semaphore buffers = new Semaphore(parallelism);
+        ExecutorService executor = DropBoxExecutors.newExecutor("dropbox-upload", parallelism, appProperties.isVirtualThreads());
+        List<Future<?>> appends = new ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        long offset = 0;
+        try {
+            while (chunk.length == chunkSize) {
+                byte[] content = chunk;
+                long chunkOffset = offset;
+                appends.add(executor.submit(() -> {
+                    try {
+                        appendChunk(client, sessionId, chunkOffset, content, false, maxAttempts);
+                    } catch (Exception e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        buffers.release();
+                    }
+                    return null;
+                }));
+                offset += chunk.length;
+                if (failed.get()) {
+                    break;
+                }
+                buffers.acquire();
+                chunk = inputFile.readNBytes(chunkSize);
+            }
+            for (Future<?> append : appends) {
+                append.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DbxException dbxException) {
+                throw dbxException;
+            }
+            throw new IOException("upload session " + sessionId + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("upload session " + sessionId + " was interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the last, possibly empty, chunk closes the session once every other chunk is stored
+        appendChunk(client, sessionId, offset, chunk, true, maxAttempts);
+        return new UploadSessionCursor(sessionId, offset + chunk.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#uploadSessionFinishBatch(java.util.List,
+     * com.dropbox.core.v2.DbxClientV2, com.dbl.config.DropBoxLibProperties)
+     */
+    @Override
+    public List<UploadSessionFinishBatchResultEntry> uploadSessionFinishBatch(List<UploadSessionFinishArg> entries, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        int maxAttempts = 1 + Math.max(0, appProperties.getTransferMaxRetries());
+        // a commit may have been applied when the response was lost, only retry what the server rejected up front
+        List<UploadSessionFinishBatchResultEntry> results = withRetries(maxAttempts, false,
+                () -> client.files().uploadSessionFinishBatchV2(entries).getEntries());
+        return checkBatchSize(results, entries.size());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#deleteBatch(java.util.List,
+     * com.dropbox.core.v2.DbxClientV2, com.dbl.config.DropBoxLibProperties)
+     */
+    @Override
+    public List<DeleteBatchResultEntry> deleteBatch(List<String> paths, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        int maxAttempts = 1 + Math.max(0, appProperties.getTransferMaxRetries());
+        List<DeleteArg> entries = paths.stream().map(DeleteArg::new).toList();
+        DeleteBatchLaunch launch = withRetries(maxAttempts, false, () -> client.files().deleteBatch(entries));
+        DeleteBatchResult result;
+        if (launch.isComplete()) {
+            result = launch.getCompleteValue();
+        } else if (launch.isAsyncJobId()) {
+            String jobId = launch.getAsyncJobIdValue();
+            DeleteBatchJobStatus status = new AsyncJobPoller(appProperties).poll(jobId,
+                    () -> withRetries(maxAttempts, () -> client.files().deleteBatchCheck(jobId)), DeleteBatchJobStatus::isInProgress);
+            if (!status.isComplete()) {
+                throw new IOException(MessageFormat.format("delete batch job {0} failed: {1}", jobId, status));
+            }
+            result = status.getCompleteValue();
+        } else {
+            throw new IOException("unexpected delete batch response: " + launch);
+        }
+        return checkBatchSize(result.getEntries(), entries.size());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#moveBatch(java.util.List,
+     * com.dropbox.core.v2.DbxClientV2, com.dbl.config.DropBoxLibProperties)
+     */
+    @Override
+    public List<RelocationBatchResultEntry> moveBatch(List<RelocationPath> relocations, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        int maxAttempts = 1 + Math.max(0, appProperties.getTransferMaxRetries());
+        RelocationBatchV2Launch launch = withRetries(maxAttempts, false, () -> client.files().moveBatchV2(relocations));
+        return relocationResult(launch, relocations.size(), client.files()::moveBatchCheckV2, maxAttempts, appProperties);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.DropBoxUtils#copyBatch(java.util.List,
+     * com.dropbox.core.v2.DbxClientV2, com.dbl.config.DropBoxLibProperties)
+     */
+    @Override
+    public List<RelocationBatchResultEntry> copyBatch(List<RelocationPath> relocations, DbxClientV2 client, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        int maxAttempts = 1 + Math.max(0, appProperties.getTransferMaxRetries());
+        RelocationBatchV2Launch launch = withRetries(maxAttempts, false, () -> client.files().copyBatchV2(relocations));
+        return relocationResult(launch, relocations.size(), client.files()::copyBatchCheckV2, maxAttempts, appProperties);
+    }
+
+    private interface RelocationCheck {
+        RelocationBatchV2JobStatus check(String jobId) throws DbxException;
+    }
+
+    private List<RelocationBatchResultEntry> relocationResult(RelocationBatchV2Launch launch, int size, RelocationCheck check, int maxAttempts, DropBoxLibProperties appProperties) throws DbxException, IOException {
+        RelocationBatchV2Result result;
+        if (launch.isComplete()) {
+            result = launch.getCompleteValue();
+        } else if (launch.isAsyncJobId()) {
+            String jobId = launch.getAsyncJobIdValue();
+            RelocationBatchV2JobStatus status = new AsyncJobPoller(appProperties).poll(jobId,
+                    () -> withRetries(maxAttempts, () -> check.check(jobId)), RelocationBatchV2JobStatus::isInProgress);
+            if (!status.isComplete()) {
+                throw new IOException(MessageFormat.format("relocation batch job {0} failed: {1}", jobId, status));
+            }
+            result = status.getCompleteValue();
+        } else {
+            throw new IOException("unexpected relocation batch response: " + launch);
+        }
+        return checkBatchSize(result.getEntries(), size);
+    }
+
+    private static <E> List<E> checkBatchSize(List<E> results, int size) throws IOException {
+        if (results.size() != size) {
+            throw new IOException(MessageFormat.format("batch returned {0} results for {1} entries", results.size(), size));
+        }
+        return results;
+    }
+
+    private void appendChunk(DbxClientV2 client, String sessionId, long offset, byte[] content, boolean close, int maxAttempts) throws DbxException, IOException {
+        withRetries(maxAttempts, () -> client.files().uploadSessionAppendV2Builder(new UploadSessionCursor(sessionId, offset))
+                .withClose(close)
+                .uploadAndFinish(new ByteArrayInputStream(content)));
+    }
+
+    /**
+     * Run a request that can be safely repeated, retrying transient network and
+     * server errors.
+     */
+    private <T> T withRetries(int maxAttempts, DbxCall<T> call) throws DbxException, IOException {
+        return withRetries(maxAttempts, true, call);
+    }
+
+    /**
+     * Run a request, retrying transient network and server errors when it can
+     * be safely repeated. Rate limits are retried by the client.
+     */
+    private <T> T withRetries(int maxAttempts, boolean idempotent, DbxCall<T> call) throws DbxException, IOException {
+        return throttler.call(maxAttempts, idempotent, call);
+    }
+
 }
@@ -0,0 +1,168 @@
+package com.dbl.service;
+
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.exception.DropBoxLibException;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.DbxUserListFolderBuilder;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * Iterates the entries of a folder listing page by page. A page is requested
+ * only when the entries of the previous one are consumed, or while they are
+ * consumed when prefetch is on. Errors are thrown as DropBoxLibException.
+ */
+public class ListFolderIterator implements Iterator<Metadata>, AutoCloseable {
+
+	// idle threads expire, an abandoned iterator does not keep one alive
+	private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(DropBoxExecutors.namedThreadFactory("dropbox-list-prefetch"));
+
+	private final Logger logger = LoggerFactory.getLogger(ListFolderIterator.class);
+
+	private final DbxClientV2 client;
+	private final String description;
+	private final boolean prefetch;
+
+	private DbxCall<ListFolderResult> firstPage;
+	private ListFolderResult page;
+	private Iterator<Metadata> entries;
+	private CompletableFuture<ListFolderResult> nextPage;
+	private long pages;
+	private boolean closed;
+
+	/**
+	 * @param pageLimit
+	 *            entries per page, 0 for the server default
+	 */
+	public ListFolderIterator(DbxClientV2 client, String path, boolean recursive, long pageLimit, boolean prefetch) {
+		this(client, MessageFormat.format("path: {0}", path), prefetch, () -> {
+			DbxUserListFolderBuilder listFolderBuilder = client.files().listFolderBuilder(path == null ? "" : path).withRecursive(recursive);
+			if (pageLimit > 0) {
+				listFolderBuilder.withLimit(Math.min(2000, pageLimit));
+			}
+			return listFolderBuilder.start();
+		});
+	}
+
+	/**
+	 * Continue a listing from a cursor returned by a previous listing.
+	 */
+	public static ListFolderIterator fromCursor(DbxClientV2 client, String cursor, boolean prefetch) {
+		return new ListFolderIterator(client, MessageFormat.format("cursor: {0}", cursor), prefetch, () -> client.files().listFolderContinue(cursor));
+	}
+
+	private ListFolderIterator(DbxClientV2 client, String description, boolean prefetch, DbxCall<ListFolderResult> firstPage) {
+		this.client = client;
+		this.description = description;
+		this.prefetch = prefetch;
+		this.firstPage = firstPage;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		if (page == null) {
+			page = fetch(firstPage, null);
+			firstPage = null;
+			startPage();
+		}
+		while (!entries.hasNext() && page.getHasMore()) {
+			CompletableFuture<ListFolderResult> fetched = nextPage;
+			nextPage = null;
+			page = fetched != null ? join(fetched) : fetch(continueCall(page.getCursor()), page.getCursor());
+			startPage();
+		}
+		return entries.hasNext();
+	}
+
+	@Override
+	public Metadata next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return entries.next();
+	}
+
+	/**
+	 * @return cursor of the current page, the listing resumes after this page
+	 *         from it. Null before the first page is fetched
+	 */
+	public String getCursor() {
+		return page == null ? null : page.getCursor();
+	}
+
+	public long getPageCount() {
+		return pages;
+	}
+
+	/**
+	 * Stop the listing, a prefetched page is dropped.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (nextPage != null) {
+			nextPage.cancel(true);
+			nextPage = null;
+		}
+	}
+
+	/**
+	 * @return the remaining entries, closing the stream closes the iterator
+	 */
+	public Stream<Metadata> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(this::close);
+	}
+
+	private void startPage() {
+		pages++;
+		entries = page.getEntries().iterator();
+		logger.debug("fetched page {} of {} entries for {}", pages, page.getEntries().size(), description);
+		if (prefetch && page.getHasMore()) {
+			String cursor = page.getCursor();
+			nextPage = CompletableFuture.supplyAsync(() -> fetch(continueCall(cursor), cursor), PREFETCH_EXECUTOR);
+		}
+	}
+
+	private DbxCall<ListFolderResult> continueCall(String cursor) {
+		return () -> client.files().listFolderContinue(cursor);
+	}
+
+	private ListFolderResult fetch(DbxCall<ListFolderResult> call, String cursor) {
+		try {
+			return call.call();
+		} catch (Exception e) {
+			String message = MessageFormat.format("Failed to continue folder listing at {0} | Cursor: {1}", description, cursor);
+			throw new DropBoxLibException(message, e);
+		}
+	}
+
+	private static ListFolderResult join(CompletableFuture<ListFolderResult> fetched) {
+		try {
+			return fetched.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof DropBoxLibException dropBoxLibException) {
+				throw dropBoxLibException;
+			}
+			throw e;
+		}
+	}
+
+}
@@ -1,8 +1,10 @@
 package com.dbl.service;
 
 import java.util.List;
+import java.util.Map;
 
 import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.metrics.ChangeLagTracker;
 import com.dropbox.core.DbxApiException;
 import com.dropbox.core.DbxException;
 
@@ -13,7 +15,8 @@ public interface LongPoolService {
 	List<ChangeEventListener> getEventListeners();
 
 	/**
-	 * This method will call observers
+	 * This method will hand the change to the observers, each observer gets it
+	 * on its own dispatch threads unless dispatch stripes are set to 0
 	 * 
 	 * @param fileMessage
 	 * @return number of observers been called
@@ -27,7 +30,37 @@ public interface LongPoolService {
 	 */
 	void connect() throws DbxApiException, DbxException;
 
+	/**
+	 * This method will run {@link #connect()} on a thread of its own and
+	 * return right away
+	 */
+	void start();
+
+	/**
+	 * This method will cancel the running long-poll, wait for the loop to end
+	 * and deliver the changes already listed to the observers
+	 */
+	void stop();
+
+	boolean isRunning();
+
 	boolean isHealth();
 
+	/**
+	 * @return changes queued for every observer and not yet delivered
+	 */
+	Map<ChangeEventListener, Integer> getQueueDepths();
+
+	/**
+	 * @return changes not sent to the observers because a later change of the
+	 *         same path replaced them within the coalesce window
+	 */
+	long getCollapsedChangeCount();
+
+	/**
+	 * @return lag of the changes delivered to the observers
+	 */
+	ChangeLagTracker getChangeLagTracker();
+
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -3,6 +3,14 @@ package com.dbl.service;
 import com.dbl.config.DropBoxLibProperties;
 import com.dbl.domain.ChangeType;
 import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.cursor.CursorStore;
+import com.dbl.service.cursor.InMemoryCursorStore;
+import com.dbl.service.dispatch.ChangeCoalescer;
+import com.dbl.service.dispatch.ChangeDispatcher;
+import com.dbl.service.dispatch.SubscriptionIndex;
+import com.dbl.service.metrics.ChangeLagTracker;
+import com.dbl.service.metrics.DropBoxMetrics;
+import com.dbl.service.prefetch.ContentPrefetcher;
 import com.dropbox.core.DbxApiException;
 import com.dropbox.core.DbxAuthInfo;
 import com.dropbox.core.DbxException;
@@ -12,29 +20,93 @@ import com.dropbox.core.v2.files.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.SmartLifecycle;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 @EnableConfigurationProperties(DropBoxLibProperties.class)
-public class LongPoolServiceImpl implements LongPoolService {
+public class LongPoolServiceImpl implements LongPoolService, SmartLifecycle {
     private final Logger logger = LoggerFactory.getLogger(LongPoolServiceImpl.class);
 
+    // pages listed ahead of the delivery while their content is prefetched
+    private static final int PAGES_IN_FLIGHT = 2;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
     private final DropBoxUtils dropBoxUtils;
     private final DropBoxLibProperties appProperties;
+    private final CursorStore cursorStore;
+    // closed by stop, a new one is created by the next start
+    private volatile ChangeDispatcher changeDispatcher;
+    // null unless changes are coalesced, closed by stop, a new one is created by the next start
+    private volatile ChangeCoalescer changeCoalescer;
+    // changes collapsed by the coalescers closed so far
+    private volatile long collapsedBeforeStart;
+    // null unless content is prefetched
+    private final ContentPrefetcher contentPrefetcher;
+    private final DropBoxMetrics dropBoxMetrics;
+    private final ChangeLagTracker changeLagTracker;
 
     private long longpollTimeoutSecs = TimeUnit.MINUTES.toSeconds(2);
 
     private List<ChangeEventListener> eventListeners;
 
-    private boolean health;
+    // rebuilt on register
+    private volatile SubscriptionIndex subscriptionIndex;
+
+    private volatile boolean health;
+
+    // state of the loop, set by start and stop
+    private volatile boolean stopRequested;
+    private volatile Thread loopThread;
+    private volatile DbxClientV2 longpollClient;
+    private volatile DbxClientV2 client;
+    private ExecutorService loopExecutor;
+    // null unless pages are prefetched and delivered off the loop, in order
+    private volatile ExecutorService deliveryExecutor;
+    private final Semaphore pagesInFlight = new Semaphore(PAGES_IN_FLIGHT);
+    // later pages are skipped until the loop lists them again from the last checkpoint
+    private volatile RuntimeException deliveryFailure;
+    // pages whose cursor is saved once they were delivered, guarded by checkpointLock
+    private final Object checkpointLock = new Object();
+    private long pagesListed;
+    private long pagesCheckpointed;
 
     public LongPoolServiceImpl(DropBoxLibProperties appProperties, DropBoxUtils dropBoxUtils) {
+        this(appProperties, dropBoxUtils, new InMemoryCursorStore());
+    }
+
+    /**
+     * @param cursorStore checkpoints of the processed changes, the loop resumes from them
+     */
+    public LongPoolServiceImpl(DropBoxLibProperties appProperties, DropBoxUtils dropBoxUtils, CursorStore cursorStore) {
+        this(appProperties, dropBoxUtils, cursorStore, new DropBoxMetrics());
+    }
+
+    /**
+     * @param dropBoxMetrics meters of the loop and of the deliveries to the observers, may be null
+     */
+    public LongPoolServiceImpl(DropBoxLibProperties appProperties, DropBoxUtils dropBoxUtils, CursorStore cursorStore, DropBoxMetrics dropBoxMetrics) {
         this.dropBoxUtils = dropBoxUtils;
         this.appProperties = appProperties;
+        this.cursorStore = cursorStore;
+        this.changeCoalescer = newCoalescer();
+        this.contentPrefetcher = appProperties.isPrefetchEnabled() ? new ContentPrefetcher(appProperties, dropBoxUtils) : null;
+        this.dropBoxMetrics = dropBoxMetrics == null ? new DropBoxMetrics() : dropBoxMetrics;
+        this.changeLagTracker = new ChangeLagTracker(appProperties);
+        this.dropBoxMetrics.bindLongPoolService(this);
+        if (contentPrefetcher != null) {
+            this.dropBoxMetrics.bindPrefetcher(contentPrefetcher);
+        }
         eventListeners = new ArrayList<>();
+        subscriptionIndex = new SubscriptionIndex(eventListeners, appProperties.getInterestingFileFormat());
+        changeDispatcher = newDispatcher();
     }
 
     /*
@@ -44,9 +116,12 @@ public class LongPoolServiceImpl implements LongPoolService {
      * com.dbl.service.LongPoolService#register(com.dbl.service.FileEventListener)
      */
     @Override
-    public void register(ChangeEventListener changeEventListener) {
+    public synchronized void register(ChangeEventListener changeEventListener) {
         if (eventListeners.isEmpty() || !eventListeners.contains(changeEventListener)) {
             eventListeners.add(changeEventListener);
+            changeDispatcher.register(changeEventListener);
+            dropBoxMetrics.bindListenerQueue(changeEventListener, this);
+            subscriptionIndex = new SubscriptionIndex(eventListeners, appProperties.getInterestingFileFormat());
         } else {
             logger.error("Check why we are registering again the same listener");
         }
@@ -72,17 +147,79 @@ public class LongPoolServiceImpl implements LongPoolService {
     public int updateListeners(ChangeMessage changeMessage) {
         int res = 0;
 
-        List<ChangeEventListener> eventListeners2 = getEventListeners();
-        for (ChangeEventListener changeEventListener : eventListeners2) {
-//			if (isInterestingFileFormat(changeMessage.getMessageDetails().getPathLower(), changeEventListener)) {
-            changeEventListener.change(changeMessage);
+        for (ChangeEventListener changeEventListener : subscriptionIndex.match(changeMessage)) {
+            try {
+                changeDispatcher.dispatch(changeEventListener, changeMessage);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the queue of " + changeEventListener, e);
+            }
             res++;
-//			}
         }
 
         return res;
     }
 
+    /**
+     * Prefetch the content of the changes and hand them to the observers, after
+     * coalescing so a collapsed revision is not downloaded.
+     */
+    private void updateListeners(List<ChangeMessage> changes) {
+        if (contentPrefetcher != null) {
+            List<ChangeMessage> interesting = new ArrayList<>();
+            for (ChangeMessage changeMessage : changes) {
+                // a change no observer gets is not worth a download
+                if (contentPrefetcher.accepts(changeMessage) && !subscriptionIndex.match(changeMessage).isEmpty()) {
+                    interesting.add(changeMessage);
+                }
+            }
+            try {
+                contentPrefetcher.prefetch(interesting, client);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while prefetching content", e);
+            }
+        }
+        for (ChangeMessage changeMessage : changes) {
+            int updateListeners = updateListeners(changeMessage);
+            logger.debug(updateListeners + " where updated");
+        }
+        changeDispatcher.endOfPage();
+    }
+
+    // emitter of the coalescer, the cursor it marks is saved once the changes were delivered
+    private void emitCoalesced(List<ChangeMessage> changes) {
+        updateListeners(changes);
+        changeDispatcher.afterDelivery(() -> releaseContent(changes));
+    }
+
+    // runs on the delivery executor, one page at a time, the permit is released once the page was delivered
+    private void deliverPage(List<ChangeMessage> page, String cursor) {
+        try {
+            if (deliveryFailure != null) {
+                pagesInFlight.release();
+                return;
+            }
+            updateListeners(page);
+            checkpointOnceDelivered(cursor, () -> {
+                releaseContent(page);
+                pagesInFlight.release();
+            });
+        } catch (RuntimeException e) {
+            deliveryFailure = e;
+            pagesInFlight.release();
+        }
+    }
+
+    // content still queued for a listener is left to the garbage collector
+    private static void releaseContent(List<ChangeMessage> changes) {
+        for (ChangeMessage changeMessage : changes) {
+            if (changeMessage.getContent() != null) {
+                changeMessage.getContent().close();
+            }
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -102,15 +239,43 @@ public class LongPoolServiceImpl implements LongPoolService {
         DbxAuthInfo auth = dropBoxUtils.getAuth(appProperties);
         DbxClientV2 dbxClient = dropBoxUtils.createClient(auth, config, appProperties.getDropboxConfig());
         DbxClientV2 dbxLongpollClient = dropBoxUtils.createClient(auth, longpollConfig, appProperties.getDropboxConfig());
+        client = dbxClient;
+        longpollClient = dbxLongpollClient;
 
-        // We only care about file changes, not existing files, so grab latest cursor
-        // for this path and then longpoll for changes.
-        String cursor = getLatestCursor(dbxClient, appProperties.getDropBoxRootPath());
+        loopThread = Thread.currentThread();
+        String cursor = null;
+        int failures = 0;
+        if (contentPrefetcher != null && changeCoalescer == null) {
+            // downloads of the prefetch do not hold back the long-poll
+            deliveryExecutor = DropBoxExecutors.newExecutor("dropbox-delivery", 1, false);
+            // permits of pages a stop left undelivered
+            pagesInFlight.drainPermits();
+            pagesInFlight.release(PAGES_IN_FLIGHT);
+        }
 
-        while (appProperties.isLongPull()) {
+        while (appProperties.isLongPull() && !stopRequested) {
             try {
+                // We only care about file changes, not existing files. Resume from the last
+                // checkpoint, or grab latest cursor for this path, and then longpoll for changes.
+                // Retried with the backoff below while DropBox can not be reached.
+                if (cursor == null) {
+                    cursor = getStartCursor(dbxClient);
+                }
+                if (deliveryFailure != null) {
+                    cursor = resumeAfterFailedDelivery(cursor);
+                }
                 // will block for longpollTimeoutSecs or until a change is made in the folder
-                ListFolderLongpollResult result = dbxLongpollClient.files().listFolderLongpoll(cursor, longpollTimeoutSecs);
+                long polledAt = System.nanoTime();
+                ListFolderLongpollResult result;
+                try {
+                    result = dbxLongpollClient.files().listFolderLongpoll(cursor, longpollTimeoutSecs);
+                } catch (Exception e) {
+                    if (!stopRequested) {
+                        dropBoxMetrics.longPoll(System.nanoTime() - polledAt, "error");
+                    }
+                    throw e;
+                }
+                dropBoxMetrics.longPoll(System.nanoTime() - polledAt, result.getChanges() ? "changes" : "timeout");
 
                 // we have changes, list them
                 // TODO: check what happends when the connection is lost - we might need to stop
@@ -121,31 +286,324 @@ public class LongPoolServiceImpl implements LongPoolService {
 
                 Long wait = result.getBackoff();
                 if (wait != null) {
+                    dropBoxMetrics.backoff(wait);
                     try {
-                        logger.debug("backing off for %d secs...\n", wait.longValue());
+                        logger.debug("backing off for {} secs...", wait.longValue());
                         Thread.sleep(TimeUnit.SECONDS.toMillis(wait));
                     } catch (InterruptedException ex) {
-                        logger.error("", ex);
+                        // interrupted by stop, or by the owner of the thread
+                        Thread.currentThread().interrupt();
+                        stopRequested = true;
+                        break;
                     }
                 }
                 health = true;
+                failures = 0;
             } catch (Exception ex) {
+                if (stopRequested || Thread.currentThread().isInterrupted()) {
+                    // the long-poll request was cancelled by stop
+                    logger.debug("longPool service connection loop stopped", ex);
+                    break;
+                }
                 logger.error("Error on longPool service connection loop", ex);
                 config = dropBoxUtils.getDefaultConfig(appProperties);
                 longpollConfig = dropBoxUtils.getLongPoolConfig(appProperties);
                 auth = dropBoxUtils.getAuth(appProperties);
                 dbxClient = dropBoxUtils.createClient(auth, config, appProperties.getDropboxConfig());
                 dbxLongpollClient = dropBoxUtils.createClient(auth, longpollConfig, appProperties.getDropboxConfig());
-                try {
-                    cursor = getLatestCursor(dbxClient, appProperties.getDropBoxRootPath());
-                } catch (Exception e) {
-                    logger.error("Error on getting last cursor", e);
+                client = dbxClient;
+                longpollClient = dbxLongpollClient;
+                // the cursor of the last processed page is still valid unless the server reset it
+                if (cursor != null && isCursorReset(ex)) {
+                    logger.warn("cursor was reset by dropbox, changes since the last checkpoint are skipped");
+                    try {
+                        cursor = getLatestCursor(dbxClient, appProperties.getDropBoxRootPath());
+                        savePage(List.of(), cursor);
+                    } catch (Exception e) {
+                        logger.error("Error on getting last cursor", e);
+                    }
                 }
                 health = false;
+                failures++;
+                long backoffMillis = Math.min(appProperties.getLongPollMaxBackoffMillis(), INITIAL_BACKOFF_MILLIS << Math.min(20, failures - 1));
+                logger.warn("polling again in {} ms (failure {})", backoffMillis, failures);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopRequested = true;
+                    break;
+                }
+            }
+        }
+        ExecutorService delivery = deliveryExecutor;
+        if (delivery != null) {
+            // pages handed over are still delivered, stop waits for them
+            delivery.shutdown();
+        }
+        health = false;
+        loopThread = null;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.LongPoolService#start()
+     */
+    @Override
+    public synchronized void start() {
+        if (loopExecutor != null) {
+            return;
+        }
+        stopRequested = false;
+        // pages a failed delivery of the previous run skipped are listed again from the checkpoint
+        deliveryFailure = null;
+        if (changeDispatcher.isClosed()) {
+            changeDispatcher = newDispatcher();
+        }
+        if (changeCoalescer != null && changeCoalescer.isClosed()) {
+            changeCoalescer = newCoalescer();
+        }
+        // a platform thread, the loop holds it for as long as it runs
+        ExecutorService executor = DropBoxExecutors.newExecutor("dropbox-longpoll", 1, false);
+        loopExecutor = executor;
+        executor.execute(() -> {
+            try {
+                connect();
+            } catch (Exception e) {
+                logger.error("Error on starting the longPool service", e);
+            } finally {
+                // the next start runs the loop again, unless stop took the executor
+                synchronized (this) {
+                    if (loopExecutor == executor) {
+                        loopExecutor = null;
+                        executor.shutdown();
+                    }
+                }
+            }
+        });
+        logger.info("longPool service started");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.LongPoolService#stop()
+     */
+    @Override
+    public void stop() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = loopExecutor;
+            loopExecutor = null;
+        }
+        if (executor == null && loopThread == null) {
+            return;
+        }
+        long timeoutMillis = appProperties.getLongPollStopTimeoutMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        stopRequested = true;
+        try {
+            // a request may start right after the cancel, so cancel until the loop ends
+            for (Thread thread = loopThread; thread != null && thread != Thread.currentThread() && thread.isAlive(); thread = loopThread) {
+                cancelLongpoll();
+                thread.interrupt();
+                if (System.nanoTime() - deadline >= 0) {
+                    logger.warn("longPool service connection loop did not end within {} ms", timeoutMillis);
+                    break;
+                }
+                thread.join(100);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            ExecutorService delivery = deliveryExecutor;
+            if (delivery != null) {
+                delivery.shutdown();
+                if (!delivery.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    logger.warn("listed pages are still being delivered after {} ms", timeoutMillis);
+                    delivery.shutdownNow();
+                }
+                deliveryExecutor = null;
+            }
+            // deliver what was already listed, the cursor of it is saved once it was delivered
+            ChangeCoalescer coalescer = changeCoalescer;
+            if (coalescer != null) {
+                try {
+                    // stops the timer thread of the coalescer
+                    coalescer.close();
+                } catch (RuntimeException e) {
+                    logger.warn("coalesced changes were not delivered, they are listed again on restart", e);
+                } finally {
+                    collapsedBeforeStart += coalescer.getCollapsedCount();
+                }
+            }
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            if (!changeDispatcher.awaitIdle(remaining, TimeUnit.NANOSECONDS)) {
+                logger.warn("changes are still queued for the listeners after {} ms", timeoutMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // stops the workers and deletes the spill files
+            changeDispatcher.close();
+            if (contentPrefetcher != null) {
+                contentPrefetcher.close();
+            }
+        }
+        logger.info("longPool service stopped");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.LongPoolService#isRunning()
+     */
+    @Override
+    public boolean isRunning() {
+        Thread thread = loopThread;
+        return thread != null && thread.isAlive() && !stopRequested;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return appProperties.isLongPollAutoStartup();
+    }
+
+    // callers hold the lock of this, or run before the service is published
+    private ChangeCoalescer newCoalescer() {
+        if (appProperties.getCoalesceWindowMillis() <= 0) {
+            return null;
+        }
+        return new ChangeCoalescer(appProperties.getCoalesceWindowMillis(), this::emitCoalesced, this::checkpointOnceDelivered);
+    }
+
+    // callers hold the lock of this, or run before the service is published
+    private ChangeDispatcher newDispatcher() {
+        ChangeDispatcher dispatcher = new ChangeDispatcher(appProperties);
+        dispatcher.addObserver(dropBoxMetrics);
+        dispatcher.addObserver(changeLagTracker);
+        for (ChangeEventListener changeEventListener : eventListeners) {
+            dispatcher.register(changeEventListener);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Save the cursor once the changes listed before it were delivered, the
+     * coalescer marks it once it emitted them and the delivery executor once
+     * it dispatched the page. The loop does not wait for the listeners.
+     */
+    private void savePage(List<ChangeMessage> page, String cursor) throws InterruptedException {
+        ExecutorService delivery = deliveryExecutor;
+        ChangeCoalescer coalescer = changeCoalescer;
+        if (coalescer != null) {
+            coalescer.mark(cursor);
+        } else if (delivery != null) {
+            try {
+                pagesInFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
             }
+            try {
+                delivery.execute(() -> deliverPage(page, cursor));
+            } catch (RejectedExecutionException e) {
+                pagesInFlight.release();
+                throw e;
+            }
+        } else {
+            checkpointOnceDelivered(cursor);
         }
     }
 
+    private void checkpointOnceDelivered(String cursor) {
+        checkpointOnceDelivered(cursor, () -> {
+        });
+    }
+
+    /**
+     * Save the cursor once every change dispatched so far was delivered, the
+     * listeners keep up with the loop on their own workers. A page delivered
+     * after a later one does not move the checkpoint back.
+     */
+    private void checkpointOnceDelivered(String cursor, Runnable afterDelivery) {
+        synchronized (checkpointLock) {
+            long page = ++pagesListed;
+            changeDispatcher.afterDelivery(() -> {
+                synchronized (checkpointLock) {
+                    if (page > pagesCheckpointed) {
+                        pagesCheckpointed = page;
+                        checkpoint(cursor);
+                    }
+                }
+                afterDelivery.run();
+            });
+        }
+    }
+
+    /**
+     * Wait for the pages handed to the delivery executor, they are skipped
+     * after the failed one, and list again from the last checkpoint.
+     */
+    private String resumeAfterFailedDelivery(String cursor) throws InterruptedException, IOException {
+        pagesInFlight.acquire(PAGES_IN_FLIGHT);
+        pagesInFlight.release(PAGES_IN_FLIGHT);
+        String checkpoint = cursorStore.load(getCursorKey());
+        RuntimeException failure = deliveryFailure;
+        deliveryFailure = null;
+        logger.error("Error on delivering changes, listing again from the last checkpoint", failure);
+        health = false;
+        return checkpoint == null ? cursor : checkpoint;
+    }
+
+    private void cancelLongpoll() {
+        DbxClientV2 client = longpollClient;
+        if (client != null) {
+            dropBoxUtils.cancelRequests(client);
+        }
+    }
+
+    private String getStartCursor(DbxClientV2 dbxClient) throws DbxException {
+        String cursor = null;
+        try {
+            cursor = cursorStore.load(getCursorKey());
+        } catch (IOException e) {
+            logger.error("Error on loading the cursor checkpoint, starting from the latest cursor", e);
+        }
+        if (cursor != null) {
+            logger.info("resuming changes of {} from the last checkpoint", getCursorKey());
+            return cursor;
+        }
+        cursor = getLatestCursor(dbxClient, appProperties.getDropBoxRootPath());
+        checkpoint(cursor);
+        return cursor;
+    }
+
+    private static boolean isCursorReset(Exception ex) {
+        if (ex instanceof ListFolderContinueErrorException continueError) {
+            return continueError.errorValue.isReset();
+        }
+        if (ex instanceof ListFolderLongpollErrorException longpollError) {
+            return longpollError.errorValue == ListFolderLongpollError.RESET;
+        }
+        return false;
+    }
+
+    private void checkpoint(String cursor) {
+        try {
+            cursorStore.save(getCursorKey(), cursor);
+        } catch (IOException e) {
+            // the changes are processed, only a restart would see them again
+            logger.error("Error on saving the cursor checkpoint", e);
+        }
+    }
+
+    private String getCursorKey() {
+        String rootPath = appProperties.getDropBoxRootPath();
+        return rootPath == null || rootPath.isEmpty() ? "/" : rootPath;
+    }
+
     /**
      * Returns latest cursor for listing changes to a directory in Dropbox with the
      * given path.
@@ -168,37 +626,36 @@ public class LongPoolServiceImpl implements LongPoolService {
      * @return latest cursor after changes
      * @throws IOException
      */
-    private String getChanges(DbxClientV2 client, String cursor) throws DbxApiException, DbxException, IOException {
+    private String getChanges(DbxClientV2 client, String cursor) throws DbxApiException, DbxException, IOException, InterruptedException {
 
         // TODO: remove true
         while (true) {
+            if (deliveryFailure != null) {
+                // the loop lists again from the last checkpoint
+                return cursor;
+            }
             ListFolderResult result = client.files().listFolderContinue(cursor);
+            long listedAt = System.currentTimeMillis();
+            dropBoxMetrics.pagesFetched("changes", 1);
+            List<ChangeMessage> page = new ArrayList<>(result.getEntries().size());
             for (Metadata metadata : result.getEntries()) {
-                ChangeType type;
-                String details;
-                if (metadata instanceof FileMetadata fileMetadata) {
-                    type = ChangeType.FILE;
-                    details = "(rev=" + fileMetadata.getRev() + ")";
-                } else if (metadata instanceof FolderMetadata folderMetadata) {
-                    type = ChangeType.FOLDER;
-                    details = folderMetadata.getSharingInfo() != null ? "(shared)" : "";
-                } else if (metadata instanceof DeletedMetadata) {
-                    type = ChangeType.DELETE;
-                    details = "";
-                } else {
-                    throw new IllegalStateException("Unrecognized metadata type: " + metadata.getClass());
-                }
-
-                ChangeMessage changeMessage = getFileMessage(type, metadata);
-//				updateFileMessage(client, changeMessage);
+                ChangeType type = ChangeType.of(metadata);
+                ChangeMessage changeMessage = getFileMessage(type, metadata, listedAt);
 
                 // channel.send(MessageBuilder.withPayload(changeMessage).build());
-                int updateListeners = updateListeners(changeMessage);
-                logger.debug(updateListeners + " where updated");
-                logger.debug("type:" + type + " details:" + details + " meta:" + metadata.getPathLower());
+                if (changeCoalescer != null) {
+                    changeCoalescer.add(changeMessage);
+                } else {
+                    page.add(changeMessage);
+                }
+                logger.debug("type:{} meta:{}", type, metadata.getPathLower());
+            }
+            if (changeCoalescer == null && deliveryExecutor == null) {
+                updateListeners(page);
             }
             // update cursor to fetch remaining results
             cursor = result.getCursor();
+            savePage(page, cursor);
 
             if (!result.getHasMore()) {
                 break;
@@ -208,35 +665,11 @@ public class LongPoolServiceImpl implements LongPoolService {
         return cursor;
     }
 
-    private void updateFileMessage(DbxClientV2 client, ChangeMessage fileMessage) throws DbxException, IOException {
-        if (fileMessage.getMessageType() == ChangeType.FILE) {
-            byte[] download = dropBoxUtils.download(fileMessage.getMessageDetails().getPathLower(), client);
-            fileMessage.setFile(download);
-        } else {
-            logger.debug("did not download file");
-        }
-    }
-
-    private boolean isInterestingFileFormat(String pathLower, ChangeEventListener changeEventListener) {
-        List<String> fileEventListenerInterestingFileFormat = changeEventListener.getInterestingFileFormat();
-        List<String> interestingFileFormat = fileEventListenerInterestingFileFormat == null ? appProperties.getInterestingFileFormat() : fileEventListenerInterestingFileFormat;
-
-        if (interestingFileFormat.size() == 0) {
-            return true;
-        } else {
-            for (String format : interestingFileFormat) {
-                if (pathLower.endsWith(format)) {
-                    return true;
-                }
-            }
-            return false;
-        }
-    }
-
-    private ChangeMessage getFileMessage(ChangeType type, Metadata details) {
+    private ChangeMessage getFileMessage(ChangeType type, Metadata details, long listedAt) {
         ChangeMessage changeMessage = new ChangeMessage();
         changeMessage.setMessageType(type);
         changeMessage.setMessageDetails(details);
+        changeMessage.setListedAt(listedAt);
         return changeMessage;
     }
 
@@ -245,4 +678,35 @@ public class LongPoolServiceImpl implements LongPoolService {
         return health;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.LongPoolService#getQueueDepths()
+     */
+    @Override
+    public Map<ChangeEventListener, Integer> getQueueDepths() {
+        return changeDispatcher.getQueueDepths();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.LongPoolService#getCollapsedChangeCount()
+     */
+    @Override
+    public long getCollapsedChangeCount() {
+        ChangeCoalescer coalescer = changeCoalescer;
+        return collapsedBeforeStart + (coalescer == null || coalescer.isClosed() ? 0 : coalescer.getCollapsedCount());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.LongPoolService#getChangeLagTracker()
+     */
+    @Override
+    public ChangeLagTracker getChangeLagTracker() {
+        return changeLagTracker;
+    }
+
 }
@@ -0,0 +1,187 @@
+package com.dbl.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.ServerException;
+
+/**
+ * Throttling shared by every request of the clients of the lib: a token
+ * bucket limiting the request rate, a cap on the requests in flight and a
+ * pause every thread waits for once DropBox answered with a retry-after.
+ */
+public class RequestThrottler {
+	private static final long BASE_BACKOFF_MILLIS = 500;
+
+	private final Logger logger = LoggerFactory.getLogger(RequestThrottler.class);
+
+	private final double requestsPerSecond;
+	private final double burst;
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final int maxRetries;
+	private final long maxBackoffMillis;
+
+	// token bucket, guarded by this. Tokens go negative for requests waiting their turn
+	private double tokens;
+	private long refilledAt = System.nanoTime();
+
+	private final AtomicLong pausedUntil = new AtomicLong(System.nanoTime());
+	private final AtomicLong pauses = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	public RequestThrottler(DropBoxLibProperties appProperties) {
+		this(appProperties.getThrottleRequestsPerSecond(), appProperties.getThrottleBurst(), appProperties.getThrottleMaxInFlight(),
+				appProperties.getThrottleMaxRetries(), appProperties.getThrottleMaxBackoffMillis());
+	}
+
+	/**
+	 * @param requestsPerSecond
+	 *            0 for no rate limit
+	 * @param maxInFlight
+	 *            0 for no limit of the requests in flight
+	 */
+	public RequestThrottler(double requestsPerSecond, int burst, int maxInFlight, int maxRetries, long maxBackoffMillis) {
+		this.requestsPerSecond = Math.max(0, requestsPerSecond);
+		this.burst = Math.max(1, burst);
+		this.tokens = this.burst;
+		this.maxInFlight = Math.max(0, maxInFlight);
+		this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+		this.maxRetries = Math.max(0, maxRetries);
+		this.maxBackoffMillis = Math.max(BASE_BACKOFF_MILLIS, maxBackoffMillis);
+	}
+
+	/**
+	 * Wait for a pause to end, for a token and for a free in-flight slot. Every
+	 * acquire has to be followed by a {@link #release()}.
+	 */
+	public void acquire() throws InterruptedIOException {
+		try {
+			awaitPause();
+			long wait = reserveToken();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			if (inFlight != null) {
+				inFlight.acquire();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting to send a request");
+		}
+	}
+
+	public void release() {
+		if (inFlight != null) {
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Hold off every request until the time has passed.
+	 *
+	 * @param millis
+	 *            time to wait, as asked by DropBox
+	 */
+	public void pause(long millis) {
+		long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+		pauses.incrementAndGet();
+		pausedUntil.accumulateAndGet(until, (current, next) -> next - current > 0 ? next : current);
+		logger.warn("rate limited by dropbox, pausing requests for {} ms", millis);
+	}
+
+	/**
+	 * Wait for a pause to end without taking a token.
+	 */
+	public void awaitPause() throws InterruptedException {
+		for (long wait = pausedUntil.get() - System.nanoTime(); wait > 0; wait = pausedUntil.get() - System.nanoTime()) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * @return exponential backoff of the attempt, randomized so clients that
+	 *         failed together do not retry together
+	 */
+	public long backoffMillis(int attempt) {
+		long backoff = Math.min(maxBackoffMillis, BASE_BACKOFF_MILLIS << Math.min(Math.max(0, attempt - 1), 20));
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+
+	/**
+	 * Run a request retrying transient network and server errors up to
+	 * {@link #getMaxRetries()} times. Rate limits are retried by the client.
+	 *
+	 * @param idempotent
+	 *            false when the request can not be safely repeated, it is then
+	 *            not retried
+	 */
+	public <T> T call(boolean idempotent, DbxCall<T> call) throws DbxException, IOException {
+		return call(maxRetries + 1, idempotent, call);
+	}
+
+	public <T> T call(int maxAttempts, boolean idempotent, DbxCall<T> call) throws DbxException, IOException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return call.call();
+			} catch (NetworkIOException | ServerException e) {
+				if (!idempotent || attempt >= maxAttempts) {
+					throw e;
+				}
+				long backoff = backoffMillis(attempt);
+				retries.incrementAndGet();
+				logger.warn("request failed (attempt {} of {}), retrying in {} ms", attempt, maxAttempts, backoff, e);
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting to retry");
+				}
+			}
+		}
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @return requests waiting for a response, 0 when there is no limit
+	 */
+	public int getInFlightCount() {
+		return inFlight == null ? 0 : maxInFlight - inFlight.availablePermits();
+	}
+
+	public long getPauseCount() {
+		return pauses.get();
+	}
+
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * @return nanos to wait for the reserved token
+	 */
+	private synchronized long reserveToken() {
+		if (requestsPerSecond == 0) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - refilledAt) * requestsPerSecond / 1e9);
+		refilledAt = now;
+		tokens--;
+		return tokens >= 0 ? 0 : (long) (-tokens / requestsPerSecond * 1e9);
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.dbl.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Receives the entries of a zipped DropBox folder while the zip is read from
+ * the network.
+ */
+@FunctionalInterface
+public interface ZipEntryConsumer {
+
+	/**
+	 * @param entry
+	 *            the current zip entry
+	 * @param content
+	 *            content of the entry, only valid until this method returns.
+	 *            Closing it does not close the zip stream
+	 * @throws IOException
+	 */
+	void accept(ZipEntry entry, InputStream content) throws IOException;
+
+}
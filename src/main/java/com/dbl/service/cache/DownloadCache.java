@@ -0,0 +1,81 @@
+package com.dbl.service.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.dbl.service.ChangeEventListener;
+import com.dropbox.core.v2.files.FileMetadata;
+
+/**
+ * Local cache of downloaded files. Content is stored by content hash (or rev)
+ * so paths sharing the same content share one entry. The cache registers as a
+ * change listener and forgets a path as soon as the long-poll reports a new
+ * revision or a delete for it.
+ */
+public interface DownloadCache extends ChangeEventListener {
+
+	/**
+	 * @param path
+	 *            DropBox path
+	 * @return metadata of the cached revision of the path or null when the path
+	 *         is not cached
+	 */
+	FileMetadata getMetadata(String path);
+
+	/**
+	 * @param path
+	 *            DropBox path
+	 * @return a copy of the cached content or null when the path is not cached
+	 */
+	byte[] get(String path);
+
+	/**
+	 * Write the cached content of the path to the output stream.
+	 *
+	 * @param path
+	 *            DropBox path
+	 * @param outputStream
+	 *            target stream, not closed
+	 * @return metadata of the cached revision or null when the path is not
+	 *         cached and nothing was written
+	 */
+	FileMetadata copyTo(String path, OutputStream outputStream) throws IOException;
+
+	/**
+	 * Open a writer before the download starts, content of a path that changes
+	 * while it is written is not cached.
+	 *
+	 * @return a writer to stream content into the cache while it is downloaded
+	 */
+	Writer newWriter() throws IOException;
+
+	/**
+	 * Forget the path and every path under it.
+	 *
+	 * @param path
+	 *            DropBox path
+	 */
+	void invalidate(String path);
+
+	void clear();
+
+	long getHitCount();
+
+	long getMissCount();
+
+	/**
+	 * Content streamed into the cache. The content becomes visible only once
+	 * committed, closing an uncommitted writer discards it.
+	 */
+	interface Writer extends Closeable {
+
+		OutputStream getOutputStream();
+
+		void commit(FileMetadata metadata) throws IOException;
+
+		@Override
+		void close();
+	}
+
+}
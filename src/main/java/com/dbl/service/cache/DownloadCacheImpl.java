@@ -0,0 +1,386 @@
+package com.dbl.service.cache;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk backed {@link DownloadCache} with an optional memory tier. Both tiers
+ * are size bounded and evict the least recently used content first.
+ */
+public class DownloadCacheImpl implements DownloadCache {
+    private static final String ENTRY_SUFFIX = ".cache";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAX_TRACKED_INVALIDATIONS = 10_000;
+
+    private final Logger logger = LoggerFactory.getLogger(DownloadCacheImpl.class);
+
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final long maxMemoryBytes;
+
+    private final Map<String, FileMetadata> metadataByPath = new ConcurrentHashMap<>();
+
+    // access ordered, guarded by this
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+    private long memoryBytes;
+
+    // paths changed recently, used to drop downloads that raced with a change. Guarded by this
+    private final LinkedHashMap<String, Long> invalidations = new LinkedHashMap<>();
+    private long generation;
+    private long forgottenGeneration;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DownloadCacheImpl(Path directory, long maxDiskBytes, long maxMemoryBytes) throws IOException {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxMemoryBytes = maxMemoryBytes;
+        Files.createDirectories(directory);
+        // entries of a previous run can not be mapped back to paths
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*{" + ENTRY_SUFFIX + "," + TEMP_SUFFIX + "}")) {
+            for (Path path : stale) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Override
+    public FileMetadata getMetadata(String path) {
+        return path == null ? null : metadataByPath.get(normalize(path));
+    }
+
+    @Override
+    public byte[] get(String path) {
+        FileMetadata metadata = getMetadata(path);
+        if (metadata == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        String key = key(metadata);
+        synchronized (this) {
+            if (diskEntries.get(key) == null) {
+                // evicted since the path was mapped
+                metadataByPath.remove(normalize(path), metadata);
+                misses.incrementAndGet();
+                return null;
+            }
+            byte[] content = memoryEntries.get(key);
+            if (content != null) {
+                hits.incrementAndGet();
+                return content.clone();
+            }
+        }
+        try {
+            byte[] content = Files.readAllBytes(entryFile(key));
+            synchronized (this) {
+                putInMemory(key, content);
+            }
+            hits.incrementAndGet();
+            return content.clone();
+        } catch (IOException e) {
+            logger.warn("could not read cached content of {}", path, e);
+            metadataByPath.remove(normalize(path), metadata);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    @Override
+    public FileMetadata copyTo(String path, OutputStream outputStream) throws IOException {
+        FileMetadata metadata = getMetadata(path);
+        if (metadata == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        String key = key(metadata);
+        byte[] content;
+        synchronized (this) {
+            if (diskEntries.get(key) == null) {
+                metadataByPath.remove(normalize(path), metadata);
+                misses.incrementAndGet();
+                return null;
+            }
+            content = memoryEntries.get(key);
+        }
+        if (content != null) {
+            outputStream.write(content);
+        } else {
+            try {
+                Files.copy(entryFile(key), outputStream);
+            } catch (NoSuchFileException e) {
+                // evicted before the copy started, nothing was written
+                metadataByPath.remove(normalize(path), metadata);
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        hits.incrementAndGet();
+        return metadata;
+    }
+
+    @Override
+    public Writer newWriter() throws IOException {
+        long startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+        Path temp = Files.createTempFile(directory, "entry", TEMP_SUFFIX);
+        return new FileWriter(temp, Files.newOutputStream(temp), startGeneration);
+    }
+
+    @Override
+    public void invalidate(String path) {
+        invalidate(path, true);
+    }
+
+    /**
+     * @param subtree
+     *            false when the path is known to be a file, nothing under it
+     *            has to be looked for
+     */
+    private void invalidate(String path, boolean subtree) {
+        String normalized = normalize(path);
+        synchronized (this) {
+            generation++;
+            invalidations.remove(normalized);
+            invalidations.put(normalized, generation);
+            if (invalidations.size() > MAX_TRACKED_INVALIDATIONS) {
+                Iterator<Long> eldest = invalidations.values().iterator();
+                forgottenGeneration = eldest.next();
+                eldest.remove();
+            }
+        }
+        // a cached path is a file, a folder is only found by scanning for its files
+        if (metadataByPath.remove(normalized) != null || !subtree) {
+            return;
+        }
+        String prefix = normalized.endsWith("/") ? normalized : normalized + "/";
+        metadataByPath.keySet().removeIf(cached -> cached.startsWith(prefix));
+    }
+
+    @Override
+    public synchronized void clear() {
+        metadataByPath.clear();
+        memoryEntries.clear();
+        memoryBytes = 0;
+        for (String key : diskEntries.keySet()) {
+            deleteEntryFile(key);
+        }
+        diskEntries.clear();
+        diskBytes = 0;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public List<String> getInterestingFileFormat() {
+        // every change may invalidate an entry
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isOrderSensitive() {
+        // a folder delete has to invalidate before later revisions are cached
+        return true;
+    }
+
+    @Override
+    public void change(ChangeMessage changeMessage) {
+        Metadata details = changeMessage.getMessageDetails();
+        if (details == null || details.getPathLower() == null) {
+            return;
+        }
+        if (changeMessage.getMessageType() == ChangeType.DELETE) {
+            // the deleted path may be a folder, or the old path of a moved one
+            invalidate(details.getPathLower(), true);
+        } else if (changeMessage.getMessageType() == ChangeType.FILE && details instanceof FileMetadata fileMetadata) {
+            FileMetadata cached = metadataByPath.get(details.getPathLower());
+            if (cached == null || !key(cached).equals(key(fileMetadata))) {
+                invalidate(details.getPathLower(), false);
+            }
+        }
+    }
+
+    private void commit(Path temp, long size, byte[] content, FileMetadata metadata, long startGeneration) throws IOException {
+        String path = normalize(metadata.getPathLower());
+        String key = key(metadata);
+        synchronized (this) {
+            if (size > maxDiskBytes || changedSince(path, startGeneration)) {
+                Files.deleteIfExists(temp);
+                return;
+            }
+            if (diskEntries.containsKey(key)) {
+                Files.deleteIfExists(temp);
+            } else {
+                Files.move(temp, entryFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                diskEntries.put(key, size);
+                diskBytes += size;
+            }
+            if (content != null) {
+                putInMemory(key, content);
+            }
+            metadataByPath.put(path, metadata);
+            evictDisk();
+        }
+    }
+
+    // callers hold the lock
+    private boolean changedSince(String path, long startGeneration) {
+        if (forgottenGeneration > startGeneration) {
+            return true;
+        }
+        for (String current = path; !current.isEmpty(); current = current.substring(0, Math.max(0, current.lastIndexOf('/')))) {
+            Long changed = invalidations.get(current);
+            if (changed != null && changed > startGeneration) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // callers hold the lock
+    private void putInMemory(String key, byte[] content) {
+        if (maxMemoryBytes <= 0 || content.length > maxMemoryBytes / 4 || memoryEntries.containsKey(key)) {
+            return;
+        }
+        memoryEntries.put(key, content);
+        memoryBytes += content.length;
+        Iterator<Map.Entry<String, byte[]>> eldest = memoryEntries.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    // callers hold the lock
+    private void evictDisk() {
+        Iterator<Map.Entry<String, Long>> eldest = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            diskBytes -= entry.getValue();
+            eldest.remove();
+            byte[] inMemory = memoryEntries.remove(entry.getKey());
+            if (inMemory != null) {
+                memoryBytes -= inMemory.length;
+            }
+            deleteEntryFile(entry.getKey());
+            logger.debug("evicted cached content {}", entry.getKey());
+        }
+    }
+
+    private void deleteEntryFile(String key) {
+        try {
+            Files.deleteIfExists(entryFile(key));
+        } catch (IOException e) {
+            logger.warn("could not delete cached content {}", key, e);
+        }
+    }
+
+    private Path entryFile(String key) {
+        return directory.resolve(key + ENTRY_SUFFIX);
+    }
+
+    private static String key(FileMetadata metadata) {
+        return metadata.getContentHash() != null ? metadata.getContentHash() : "rev-" + metadata.getRev();
+    }
+
+    private static String normalize(String path) {
+        return path.toLowerCase(Locale.ROOT);
+    }
+
+    private final class FileWriter implements Writer {
+        private final Path temp;
+        private final OutputStream fileStream;
+        private final OutputStream countingStream;
+        private final long startGeneration;
+        // small content is also kept for the memory tier
+        private ByteArrayOutputStream memoryCopy = maxMemoryBytes > 0 ? new ByteArrayOutputStream() : null;
+        private long size;
+        private boolean committed;
+
+        private FileWriter(Path temp, OutputStream fileStream, long startGeneration) {
+            this.temp = temp;
+            this.fileStream = fileStream;
+            this.startGeneration = startGeneration;
+            this.countingStream = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    fileStream.write(b, off, len);
+                    size += len;
+                    if (memoryCopy != null) {
+                        if (size > maxMemoryBytes / 4) {
+                            memoryCopy = null;
+                        } else {
+                            memoryCopy.write(b, off, len);
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return countingStream;
+        }
+
+        @Override
+        public void commit(FileMetadata metadata) throws IOException {
+            Objects.requireNonNull(metadata.getPathLower(), "cached metadata needs a path");
+            fileStream.close();
+            committed = true;
+            DownloadCacheImpl.this.commit(temp, size, memoryCopy == null ? null : memoryCopy.toByteArray(), metadata, startGeneration);
+        }
+
+        @Override
+        public void close() {
+            if (committed) {
+                return;
+            }
+            try {
+                fileStream.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                logger.warn("could not discard cache file {}", temp, e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.dbl.service.cursor;
+
+import java.io.IOException;
+
+/**
+ * Keeps the last processed list_folder cursor so the long-poll resumes from
+ * it instead of skipping the changes made while it was down.
+ */
+public interface CursorStore {
+
+	/**
+	 * @param key
+	 *            identifies the listing, e.g. its root path
+	 * @return the saved cursor or null when there is none
+	 */
+	String load(String key) throws IOException;
+
+	/**
+	 * Save the cursor of the key, replacing the previous one. A cursor must be
+	 * saved only once every change before it was processed.
+	 */
+	void save(String key, String cursor) throws IOException;
+
+	void remove(String key) throws IOException;
+
+}
@@ -0,0 +1,74 @@
+package com.dbl.service.cursor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * {@link CursorStore} backed by a properties file. Every save writes a new
+ * file next to the store and moves it over the old one, a crash leaves either
+ * the previous or the new cursors, never a partial file.
+ */
+public class FileCursorStore implements CursorStore {
+
+    private final Path file;
+    // guarded by this, loaded on first use
+    private Properties cursors;
+
+    public FileCursorStore(Path file) {
+        this.file = file.toAbsolutePath();
+    }
+
+    @Override
+    public synchronized String load(String key) throws IOException {
+        return cursors().getProperty(key);
+    }
+
+    @Override
+    public synchronized void save(String key, String cursor) throws IOException {
+        if (cursor.equals(cursors().getProperty(key))) {
+            return;
+        }
+        cursors.setProperty(key, cursor);
+        write();
+    }
+
+    @Override
+    public synchronized void remove(String key) throws IOException {
+        if (cursors().remove(key) != null) {
+            write();
+        }
+    }
+
+    private Properties cursors() throws IOException {
+        if (cursors == null) {
+            Properties loaded = new Properties();
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                loaded.load(inputStream);
+            } catch (NoSuchFileException e) {
+                // nothing saved yet
+            }
+            cursors = loaded;
+        }
+        return cursors;
+    }
+
+    private void write() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                cursors.store(outputStream, "DropBox list_folder cursors");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.dbl.service.cursor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link CursorStore} that lives as long as the application, cursors survive
+ * reconnects but not restarts.
+ */
+public class InMemoryCursorStore implements CursorStore {
+
+    private final Map<String, String> cursors = new ConcurrentHashMap<>();
+
+    @Override
+    public String load(String key) {
+        return cursors.get(key);
+    }
+
+    @Override
+    public void save(String key, String cursor) {
+        cursors.put(key, cursor);
+    }
+
+    @Override
+    public void remove(String key) {
+        cursors.remove(key);
+    }
+
+}
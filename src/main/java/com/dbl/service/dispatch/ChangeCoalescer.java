@@ -0,0 +1,266 @@
+package com.dbl.service.dispatch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * Hold the changes of every path for a window and emit only the last state of
+ * the path, several revisions of a file become the last revision and a file
+ * followed by a delete becomes the delete.
+ * 
+ * The window of a path starts with its first change. A delete also replaces
+ * the held changes under the deleted path, and a path deleted and then
+ * created again is emitted as the delete followed by the new state, so
+ * listeners forget what was under it before.
+ * 
+ * Held changes are emitted in the order their paths first changed, one emit
+ * at a time whichever thread emits. A {@link #mark(String) cursor marked}
+ * after some changes is checkpointed only once they were all emitted, so
+ * changes held when the process stops are listed again on restart. Under a
+ * steady stream of changes the checkpoint waits for the coalescer to run
+ * empty.
+ */
+public class ChangeCoalescer implements AutoCloseable {
+	private final Logger logger = LoggerFactory.getLogger(ChangeCoalescer.class);
+
+	private final long windowNanos;
+	private final Consumer<List<ChangeMessage>> emitter;
+	private final Consumer<String> checkpointer;
+	private final ScheduledExecutorService scheduler;
+	// held while changes are taken and emitted, taken before this
+	private final Object emitLock = new Object();
+
+	// guarded by this, in the order the paths first changed
+	private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+	private boolean scheduled;
+	private boolean emitting;
+	// cursor waiting for the changes added before it
+	private String mark;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong collapsed = new AtomicLong();
+
+	/**
+	 * @param windowMillis
+	 *            how long the changes of a path are held
+	 * @param emitter
+	 *            gets the changes due, called on the thread of the coalescer
+	 *            or of a flush, never on two threads at once
+	 */
+	public ChangeCoalescer(long windowMillis, Consumer<List<ChangeMessage>> emitter) {
+		this(windowMillis, emitter, cursor -> {
+		});
+	}
+
+	/**
+	 * @param checkpointer
+	 *            gets the marked cursors once the changes added before them
+	 *            were emitted, called holding the lock of the coalescer
+	 */
+	public ChangeCoalescer(long windowMillis, Consumer<List<ChangeMessage>> emitter, Consumer<String> checkpointer) {
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.emitter = emitter;
+		this.checkpointer = checkpointer;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dropbox-change-coalescer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void add(ChangeMessage changeMessage) {
+		received.incrementAndGet();
+		Metadata details = changeMessage.getMessageDetails();
+		String path = details == null ? null : details.getPathLower();
+		if (path == null) {
+			// nothing to coalesce with
+			synchronized (emitLock) {
+				synchronized (this) {
+					emitting = true;
+				}
+				emit(List.of(changeMessage));
+			}
+			return;
+		}
+		synchronized (this) {
+			boolean delete = changeMessage.getMessageType() == ChangeType.DELETE;
+			if (delete) {
+				String prefix = path.endsWith("/") ? path : path + "/";
+				Iterator<Map.Entry<String, Pending>> entries = pending.entrySet().iterator();
+				while (entries.hasNext()) {
+					Map.Entry<String, Pending> entry = entries.next();
+					if (entry.getKey().startsWith(prefix)) {
+						collapsed.addAndGet(entry.getValue().count);
+						entries.remove();
+					}
+				}
+			}
+			Pending held = pending.get(path);
+			if (held == null) {
+				pending.put(path, new Pending(changeMessage, System.nanoTime() + windowNanos));
+			} else {
+				held.count++;
+				if (!delete && held.latest.getMessageType() == ChangeType.DELETE) {
+					held.delete = held.latest;
+				} else if (delete) {
+					held.delete = null;
+				}
+				held.latest = changeMessage;
+			}
+			if (!scheduled) {
+				scheduled = true;
+				scheduler.schedule(this::emitDue, windowNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Emit every held change now, on the calling thread.
+	 */
+	public void flush() {
+		synchronized (emitLock) {
+			List<ChangeMessage> changes = new ArrayList<>();
+			synchronized (this) {
+				for (Pending held : pending.values()) {
+					held.emitTo(changes, collapsed);
+				}
+				pending.clear();
+				emitting = true;
+			}
+			emit(changes);
+		}
+	}
+
+	/**
+	 * Mark the changes added so far, the cursor is checkpointed once they were
+	 * all emitted. A later mark replaces a mark still waiting.
+	 */
+	public synchronized void mark(String cursor) {
+		if (pending.isEmpty() && !emitting) {
+			checkpointer.accept(cursor);
+			mark = null;
+		} else {
+			mark = cursor;
+		}
+	}
+
+	/**
+	 * @return changes held and not yet emitted
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	public long getReceivedCount() {
+		return received.get();
+	}
+
+	/**
+	 * @return changes replaced by a later change of the same path
+	 */
+	public long getCollapsedCount() {
+		return collapsed.get();
+	}
+
+	/**
+	 * Stop the coalescer, held changes are emitted first.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+		flush();
+	}
+
+	public boolean isClosed() {
+		return scheduler.isShutdown();
+	}
+
+	private void emitDue() {
+		synchronized (emitLock) {
+			List<ChangeMessage> changes = new ArrayList<>();
+			synchronized (this) {
+				long now = System.nanoTime();
+				Iterator<Pending> held = pending.values().iterator();
+				while (held.hasNext()) {
+					Pending next = held.next();
+					if (next.deadline - now > 0) {
+						// later paths changed later
+						scheduler.schedule(this::emitDue, next.deadline - now, TimeUnit.NANOSECONDS);
+						break;
+					}
+					next.emitTo(changes, collapsed);
+					held.remove();
+				}
+				scheduled = !pending.isEmpty();
+				emitting = !changes.isEmpty();
+			}
+			if (changes.isEmpty()) {
+				return;
+			}
+			try {
+				emit(changes);
+			} catch (RuntimeException e) {
+				logger.error("Error on emitting {} coalesced changes", changes.size(), e);
+			}
+			logger.debug("emitted {} changes, {} collapsed so far", changes.size(), collapsed.get());
+		}
+	}
+
+	// callers hold the emit lock, the mark is checkpointed only if the emit
+	// succeeded
+	private void emit(List<ChangeMessage> changes) {
+		boolean emitted = false;
+		try {
+			if (!changes.isEmpty()) {
+				emitter.accept(changes);
+			}
+			emitted = true;
+		} finally {
+			synchronized (this) {
+				emitting = false;
+				if (emitted && mark != null && pending.isEmpty()) {
+					checkpointer.accept(mark);
+					mark = null;
+				}
+			}
+		}
+	}
+
+	private static final class Pending {
+		private final long deadline;
+		private ChangeMessage latest;
+		// a delete the latest change came after
+		private ChangeMessage delete;
+		private int count = 1;
+
+		private Pending(ChangeMessage latest, long deadline) {
+			this.latest = latest;
+			this.deadline = deadline;
+		}
+
+		// the changes not emitted count as collapsed
+		private void emitTo(List<ChangeMessage> changes, AtomicLong collapsed) {
+			if (delete != null) {
+				changes.add(delete);
+			}
+			changes.add(latest);
+			collapsed.addAndGet(count - (delete != null ? 2 : 1));
+		}
+	}
+
+}
@@ -0,0 +1,689 @@
+package com.dbl.service.dispatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.BatchChangeEventListener;
+import com.dbl.service.ChangeEventListener;
+import com.dbl.service.snapshot.MetadataCodec;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * Deliver changes to every listener on threads of its own, so a slow listener
+ * does not hold back the long-poll or the other listeners.
+ * 
+ * The changes of a listener are split in stripes by the hash of their path.
+ * Each stripe has a bounded queue and a single worker, so changes of the same
+ * path reach the listener in the order they were listed while changes of
+ * different paths are delivered in parallel. With no stripes changes are
+ * delivered on the calling thread. Listeners that are
+ * {@link ChangeEventListener#isOrderSensitive() order sensitive} get a single
+ * stripe.
+ * 
+ * {@link BatchChangeEventListener Batch listeners} get the changes of a stripe
+ * in batches, a batch is delivered once it is full, at the end of the page or,
+ * with a batch delay, once its oldest change waited for the delay.
+ * 
+ * {@link #afterDelivery(Runnable)} runs an action once the changes dispatched
+ * before it were delivered, without waiting for the ones dispatched after it.
+ * 
+ * Spilled changes keep the fields written by {@link MetadataCodec} and the
+ * file bytes only. Changes carrying prefetched content are never spilled, they
+ * wait for room in the queue as with {@link OverflowPolicy#BLOCK}.
+ */
+public class ChangeDispatcher implements AutoCloseable {
+	private final Logger logger = LoggerFactory.getLogger(ChangeDispatcher.class);
+
+	private static final int NO_TYPE = -1;
+	private static final int NO_FILE = -1;
+
+	private final int stripes;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final Path spillDirectory;
+	private final int batchSize;
+	private final long batchDelayNanos;
+
+	private final Map<ChangeEventListener, ListenerQueue> queues = new ConcurrentHashMap<>();
+	private final AtomicLong dropped = new AtomicLong();
+	// batches of the calling thread when there are no stripes
+	private final Map<BatchChangeEventListener, List<ChangeMessage>> pendingBatches = new LinkedHashMap<>();
+	private final List<DeliveryObserver> observers = new CopyOnWriteArrayList<>();
+	private volatile boolean closed;
+
+	public ChangeDispatcher(DropBoxLibProperties appProperties) {
+		this(appProperties.getDispatchStripes(), appProperties.getDispatchQueueCapacity(), appProperties.getDispatchOverflowPolicy(),
+				spillDirectory(appProperties.getDispatchSpillDirectory()), appProperties.getListenerBatchSize(), appProperties.getListenerBatchDelayMillis());
+	}
+
+	public ChangeDispatcher(int stripes, int capacity, OverflowPolicy overflowPolicy, Path spillDirectory) {
+		this(stripes, capacity, overflowPolicy, spillDirectory, 1000, 0);
+	}
+
+	/**
+	 * @param stripes
+	 *            workers per listener, 0 to deliver on the calling thread
+	 * @param capacity
+	 *            changes queued per stripe before the overflow policy applies
+	 * @param spillDirectory
+	 *            directory of the spill files, only used with
+	 *            {@link OverflowPolicy#SPILL}
+	 * @param batchSize
+	 *            most changes in a batch of a batch listener
+	 * @param batchDelayMillis
+	 *            longest wait for a batch to fill, 0 to end batches with the
+	 *            page
+	 */
+	public ChangeDispatcher(int stripes, int capacity, OverflowPolicy overflowPolicy, Path spillDirectory, int batchSize, long batchDelayMillis) {
+		this.stripes = Math.max(0, stripes);
+		this.capacity = Math.max(1, capacity);
+		this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.BLOCK : overflowPolicy;
+		this.spillDirectory = spillDirectory;
+		this.batchSize = Math.max(1, batchSize);
+		this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, batchDelayMillis));
+	}
+
+	/**
+	 * The observer is called on the thread of the listener, after each
+	 * callback.
+	 */
+	public void addObserver(DeliveryObserver observer) {
+		observers.add(observer);
+	}
+
+	public void register(ChangeEventListener listener) {
+		if (stripes > 0 && !closed) {
+			queues.computeIfAbsent(listener, ListenerQueue::new);
+		}
+	}
+
+	/**
+	 * Queue the change for the listener, or deliver it when there are no
+	 * stripes.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room in a full queue
+	 */
+	public void dispatch(ChangeEventListener listener, ChangeMessage changeMessage) throws InterruptedException {
+		if (stripes == 0) {
+			if (listener instanceof BatchChangeEventListener batchListener) {
+				List<ChangeMessage> batch = pendingBatches.computeIfAbsent(batchListener, l -> new ArrayList<>());
+				batch.add(changeMessage);
+				if (batch.size() >= batchSize) {
+					pendingBatches.remove(batchListener);
+					deliver(batchListener, batch);
+				}
+			} else {
+				deliver(listener, changeMessage);
+			}
+			return;
+		}
+		if (closed) {
+			throw new IllegalStateException("change dispatcher is closed");
+		}
+		queues.computeIfAbsent(listener, ListenerQueue::new).offer(changeMessage);
+	}
+
+	/**
+	 * Called at the end of every page of changes, batches end with the page
+	 * unless there is a batch delay. Without stripes batches always end with
+	 * the page.
+	 */
+	public void endOfPage() {
+		if (batchDelayNanos == 0 || stripes == 0) {
+			flush();
+		}
+	}
+
+	/**
+	 * Deliver the changes dispatched so far to the batch listeners without
+	 * waiting for their batches to fill.
+	 */
+	public void flush() {
+		if (stripes == 0) {
+			List<Map.Entry<BatchChangeEventListener, List<ChangeMessage>>> batches = new ArrayList<>(pendingBatches.entrySet());
+			pendingBatches.clear();
+			for (Map.Entry<BatchChangeEventListener, List<ChangeMessage>> batch : batches) {
+				deliver(batch.getKey(), batch.getValue());
+			}
+			return;
+		}
+		for (ListenerQueue queue : queues.values()) {
+			for (Stripe stripe : queue.stripes) {
+				stripe.flush();
+			}
+		}
+	}
+
+	/**
+	 * @return changes queued or spilled for the listener and not yet delivered
+	 */
+	public int getQueueDepth(ChangeEventListener listener) {
+		ListenerQueue queue = queues.get(listener);
+		return queue == null ? 0 : queue.depth();
+	}
+
+	public Map<ChangeEventListener, Integer> getQueueDepths() {
+		Map<ChangeEventListener, Integer> depths = new LinkedHashMap<>();
+		queues.forEach((listener, queue) -> depths.put(listener, queue.depth()));
+		return depths;
+	}
+
+	/**
+	 * @return changes dropped by {@link OverflowPolicy#DROP_OLDEST}
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Flush and wait until every queued change was delivered.
+	 *
+	 * @return false if changes are still queued after the timeout
+	 */
+	public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		flush();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (ListenerQueue queue : queues.values()) {
+			for (Stripe stripe : queue.stripes) {
+				if (!stripe.awaitIdle(deadline)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Run the action once every change dispatched so far was delivered, or
+	 * dropped by {@link OverflowPolicy#DROP_OLDEST}. The action runs on the
+	 * worker of the last of those deliveries, or right away on the calling
+	 * thread when there are none. It does not run if the dispatcher is closed
+	 * first.
+	 */
+	public void afterDelivery(Runnable action) {
+		flush();
+		List<Stripe> pending = new ArrayList<>();
+		for (ListenerQueue queue : queues.values()) {
+			for (Stripe stripe : queue.stripes) {
+				pending.add(stripe);
+			}
+		}
+		DeliveryMark mark = new DeliveryMark(action, pending.size());
+		for (Stripe stripe : pending) {
+			stripe.mark(mark);
+		}
+		mark.stripeDelivered();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stop the workers, changes still queued are not delivered and spill files
+	 * are deleted.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (ListenerQueue queue : queues.values()) {
+			for (Stripe stripe : queue.stripes) {
+				stripe.stop();
+			}
+		}
+	}
+
+	private static Path spillDirectory(String directory) {
+		return directory == null || directory.isEmpty() ? Path.of(System.getProperty("java.io.tmpdir"), "dropbox-dispatch") : Path.of(directory);
+	}
+
+	private final class ListenerQueue {
+		private final Stripe[] stripes;
+
+		private ListenerQueue(ChangeEventListener listener) {
+			stripes = new Stripe[listener.isOrderSensitive() ? 1 : ChangeDispatcher.this.stripes];
+			String name = listener.getClass().getSimpleName().isEmpty() ? "listener" : listener.getClass().getSimpleName();
+			for (int i = 0; i < stripes.length; i++) {
+				stripes[i] = new Stripe(listener, "dropbox-dispatch-" + name + "-" + i);
+			}
+		}
+
+		private void offer(ChangeMessage changeMessage) throws InterruptedException {
+			Metadata details = changeMessage.getMessageDetails();
+			String path = details == null ? null : details.getPathLower();
+			int hash = path == null ? 0 : path.hashCode();
+			stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)].offer(changeMessage);
+		}
+
+		private int depth() {
+			int depth = 0;
+			for (Stripe stripe : stripes) {
+				depth += stripe.depth();
+			}
+			return depth;
+		}
+	}
+
+	private static final class DeliveryMark {
+		private final Runnable action;
+		// stripes still delivering changes dispatched before the mark, plus one
+		// until the mark was added to every stripe
+		private final AtomicInteger remaining;
+
+		private DeliveryMark(Runnable action, int stripes) {
+			this.action = action;
+			this.remaining = new AtomicInteger(stripes + 1);
+		}
+
+		private void stripeDelivered() {
+			if (remaining.decrementAndGet() == 0) {
+				action.run();
+			}
+		}
+	}
+
+	private final class Stripe implements Runnable {
+		private final ChangeEventListener listener;
+		private final Thread worker;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition();
+		private final Condition notFull = lock.newCondition();
+		private final Condition idle = lock.newCondition();
+
+		// guarded by lock
+		private final ArrayDeque<ChangeMessage> queue = new ArrayDeque<>();
+		private int delivering;
+		private boolean stopped;
+		// sequence numbers of the changes offered and taken, a flush marks the
+		// changes offered so far for delivery
+		private long offered;
+		private long taken;
+		private long flushedUpTo;
+		// changes delivered or dropped, in the order they were offered
+		private long done;
+		// marks waiting for the changes offered before them, by sequence number
+		private final ArrayDeque<Map.Entry<Long, DeliveryMark>> marks = new ArrayDeque<>();
+		private long oldestQueuedNanos;
+		// changes that did not fit the queue, in order after every queued change
+		private Path spillFile;
+		private DataOutputStream spillOut;
+		private DataInputStream spillIn;
+		private long spilled;
+
+		private Stripe(ChangeEventListener listener, String name) {
+			this.listener = listener;
+			worker = new Thread(this, name);
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		private void offer(ChangeMessage changeMessage) throws InterruptedException {
+			List<DeliveryMark> reached = new ArrayList<>();
+			lock.lockInterruptibly();
+			try {
+				if (queue.isEmpty() && spilled == 0) {
+					oldestQueuedNanos = System.nanoTime();
+				}
+				offered++;
+				// the content is not written to the spill file
+				boolean spillable = changeMessage.getContent() == null;
+				if (spilled > 0 && spillable) {
+					spill(changeMessage);
+					return;
+				}
+				// queued after the spilled changes to keep the order
+				while (spilled > 0 && !stopped) {
+					notFull.await();
+				}
+				while (queue.size() >= capacity && !stopped) {
+					if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+						ChangeMessage oldest = queue.pollFirst();
+						taken++;
+						done++;
+						reachedMarks(reached);
+						dropped.incrementAndGet();
+						logger.warn("queue of {} is full, dropped change of {}", worker.getName(), oldest.getMessageDetails() == null ? null : oldest.getMessageDetails().getPathLower());
+					} else if (overflowPolicy == OverflowPolicy.SPILL && spillable) {
+						spill(changeMessage);
+						return;
+					} else {
+						notFull.await();
+					}
+				}
+				queue.addLast(changeMessage);
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+				runMarks(reached);
+			}
+		}
+
+		private void mark(DeliveryMark mark) {
+			lock.lock();
+			try {
+				if (stopped) {
+					return;
+				}
+				if (done < offered) {
+					marks.addLast(Map.entry(offered, mark));
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+			mark.stripeDelivered();
+		}
+
+		// callers hold the lock, the marks are run once it is released
+		private void reachedMarks(List<DeliveryMark> reached) {
+			while (!marks.isEmpty() && marks.peekFirst().getKey() <= done) {
+				reached.add(marks.pollFirst().getValue());
+			}
+		}
+
+		private void runMarks(List<DeliveryMark> reached) {
+			for (DeliveryMark mark : reached) {
+				try {
+					mark.stripeDelivered();
+				} catch (RuntimeException e) {
+					logger.error("action after the delivery of {} failed", worker.getName(), e);
+				}
+			}
+		}
+
+		private void delivered(int changes) {
+			List<DeliveryMark> reached = new ArrayList<>();
+			lock.lock();
+			try {
+				done += changes;
+				reachedMarks(reached);
+			} finally {
+				lock.unlock();
+			}
+			runMarks(reached);
+		}
+
+		@Override
+		public void run() {
+			boolean batching = listener instanceof BatchChangeEventListener;
+			while (true) {
+				List<ChangeMessage> changes;
+				lock.lock();
+				try {
+					delivering = 0;
+					while (!stopped && !readyToDeliver(batching)) {
+						if (queue.isEmpty() && spilled > 0) {
+							unspill();
+						} else if (queue.isEmpty()) {
+							idle.signalAll();
+							notEmpty.awaitUninterruptibly();
+						} else if (batchDelayNanos > 0) {
+							idle.signalAll();
+							awaitUninterruptibly(oldestQueuedNanos + batchDelayNanos - System.nanoTime());
+						} else {
+							idle.signalAll();
+							notEmpty.awaitUninterruptibly();
+						}
+					}
+					if (stopped) {
+						return;
+					}
+					changes = new ArrayList<>(batching ? Math.min(batchSize, queue.size()) : 1);
+					while (!queue.isEmpty() && changes.size() < (batching ? batchSize : 1)) {
+						changes.add(queue.pollFirst());
+					}
+					taken += changes.size();
+					delivering = changes.size();
+					oldestQueuedNanos = System.nanoTime();
+					notFull.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				if (batching) {
+					deliver((BatchChangeEventListener) listener, changes);
+				} else {
+					deliver(listener, changes.get(0));
+				}
+				// still delivering until the marks ran, awaitIdle sees their effects
+				delivered(changes.size());
+			}
+		}
+
+		// callers hold the lock
+		private boolean readyToDeliver(boolean batching) {
+			if (queue.isEmpty()) {
+				return false;
+			}
+			if (!batching) {
+				return true;
+			}
+			return queue.size() + spilled >= batchSize || queue.size() >= capacity || flushedUpTo > taken
+					|| (batchDelayNanos > 0 && System.nanoTime() - oldestQueuedNanos >= batchDelayNanos);
+		}
+
+		private void awaitUninterruptibly(long nanos) {
+			try {
+				notEmpty.awaitNanos(Math.max(1, nanos));
+			} catch (InterruptedException e) {
+				// the worker only stops through stop()
+			}
+		}
+
+		private void flush() {
+			lock.lock();
+			try {
+				flushedUpTo = offered;
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private int depth() {
+			lock.lock();
+			try {
+				return (int) Math.min(Integer.MAX_VALUE, queue.size() + spilled + delivering);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private boolean awaitIdle(long deadline) throws InterruptedException {
+			lock.lockInterruptibly();
+			try {
+				while (!stopped && (delivering > 0 || !queue.isEmpty() || spilled > 0)) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					idle.awaitNanos(remaining);
+				}
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void stop() {
+			lock.lock();
+			try {
+				stopped = true;
+				queue.clear();
+				marks.clear();
+				closeSpill();
+				notEmpty.signalAll();
+				notFull.signalAll();
+				idle.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		// callers hold the lock
+		private void spill(ChangeMessage changeMessage) {
+			try {
+				if (spillOut == null) {
+					Files.createDirectories(spillDirectory);
+					spillFile = Files.createTempFile(spillDirectory, worker.getName(), ".spill");
+					spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), 1 << 16));
+					logger.warn("queue of {} is full, spilling changes to {}", worker.getName(), spillFile);
+				}
+				byte[] record = encode(changeMessage);
+				spillOut.writeInt(record.length);
+				spillOut.write(record);
+				spilled++;
+			} catch (IOException e) {
+				throw new UncheckedIOException("could not spill change of " + worker.getName(), e);
+			}
+		}
+
+		// callers hold the lock, moves spilled changes back to the empty queue
+		private void unspill() {
+			try {
+				spillOut.flush();
+				if (spillIn == null) {
+					spillIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile), 1 << 16));
+				}
+				while (spilled > 0 && queue.size() < capacity) {
+					byte[] record = new byte[spillIn.readInt()];
+					spillIn.readFully(record);
+					queue.addLast(decode(record));
+					spilled--;
+				}
+			} catch (IOException e) {
+				logger.error("could not read spilled changes of {}, {} changes are lost", worker.getName(), spilled, e);
+				spilled = 0;
+			}
+			if (spilled == 0) {
+				closeSpill();
+			}
+		}
+
+		// callers hold the lock
+		private void closeSpill() {
+			if (spillFile == null) {
+				return;
+			}
+			try {
+				spillOut.close();
+				if (spillIn != null) {
+					spillIn.close();
+				}
+				Files.deleteIfExists(spillFile);
+			} catch (IOException e) {
+				logger.warn("could not delete spill file {}", spillFile, e);
+			}
+			spillFile = null;
+			spillOut = null;
+			spillIn = null;
+			spilled = 0;
+		}
+	}
+
+	private void deliver(ChangeEventListener listener, ChangeMessage changeMessage) {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try {
+			listener.change(changeMessage);
+		} catch (RuntimeException e) {
+			failed = true;
+			if (stripes == 0) {
+				throw e;
+			}
+			logger.error("listener {} failed on change {}", listener, changeMessage.getMessageDetails(), e);
+		} finally {
+			if (!observers.isEmpty()) {
+				observe(listener, List.of(changeMessage), System.nanoTime() - start, failed);
+			}
+		}
+	}
+
+	private void deliver(BatchChangeEventListener listener, List<ChangeMessage> changes) {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try {
+			listener.changes(changes);
+		} catch (RuntimeException e) {
+			failed = true;
+			if (stripes == 0) {
+				throw e;
+			}
+			logger.error("listener {} failed on a batch of {} changes", listener, changes.size(), e);
+		} finally {
+			if (!observers.isEmpty()) {
+				observe(listener, changes, System.nanoTime() - start, failed);
+			}
+		}
+	}
+
+	private void observe(ChangeEventListener listener, List<ChangeMessage> changes, long callbackNanos, boolean failed) {
+		for (DeliveryObserver observer : observers) {
+			try {
+				observer.delivered(listener, changes, callbackNanos, failed);
+			} catch (RuntimeException e) {
+				logger.warn("delivery observer {} failed", observer, e);
+			}
+		}
+	}
+
+	private static byte[] encode(ChangeMessage changeMessage) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(changeMessage.getMessageType() == null ? NO_TYPE : changeMessage.getMessageType().ordinal());
+		out.writeLong(changeMessage.getListedAt());
+		if (!MetadataCodec.write(out, changeMessage.getMessageDetails())) {
+			MetadataCodec.writeEnd(out);
+		}
+		byte[] file = changeMessage.getFile();
+		out.writeInt(file == null ? NO_FILE : file.length);
+		if (file != null) {
+			out.write(file);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static ChangeMessage decode(byte[] record) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		ChangeMessage changeMessage = new ChangeMessage();
+		byte type = buffer.get();
+		changeMessage.setMessageType(type == NO_TYPE ? null : ChangeType.values()[type]);
+		changeMessage.setListedAt(buffer.getLong());
+		changeMessage.setMessageDetails(MetadataCodec.read(buffer));
+		int length = buffer.getInt();
+		if (length != NO_FILE) {
+			byte[] file = new byte[length];
+			buffer.get(file);
+			changeMessage.setFile(file);
+		}
+		return changeMessage;
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.dbl.service.dispatch;
+
+import java.util.List;
+
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+
+/**
+ * Told about every callback of a listener once it returned.
+ */
+@FunctionalInterface
+public interface DeliveryObserver {
+
+	/**
+	 * @param changes
+	 *            the change or the batch handed to the listener
+	 * @param callbackNanos
+	 *            time spent in the listener
+	 * @param failed
+	 *            true when the listener threw
+	 */
+	void delivered(ChangeEventListener listener, List<ChangeMessage> changes, long callbackNanos, boolean failed);
+
+}
@@ -0,0 +1,24 @@
+package com.dbl.service.dispatch;
+
+/**
+ * What the dispatch does with a change when the queue of a listener is full.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Wait for the listener to make room, this slows down the long-poll.
+	 */
+	BLOCK,
+
+	/**
+	 * Drop the oldest queued change of the same stripe.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Write the change to a spill file on disk, it is delivered once the
+	 * listener catches up.
+	 */
+	SPILL;
+
+}
@@ -0,0 +1,187 @@
+package com.dbl.service.dispatch;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * Routes a change to the listeners interested in it. The interests of the
+ * listeners are compiled once: file formats into a trie of reversed suffixes,
+ * paths into a trie of path segments and change types into a set per type.
+ * Matching a change walks its path once through each trie.
+ * 
+ * A listener gets a change when its type, one of its paths and, for files, one
+ * of its file formats match. A folder or delete also matches the paths under
+ * it, deleting a folder deletes what the listener is interested in. An empty
+ * interest matches everything, a null file format list falls back to the
+ * default formats.
+ * 
+ * Instances are immutable, build a new index when listeners are added.
+ */
+public class SubscriptionIndex {
+
+	private final ChangeEventListener[] listeners;
+	private final Map<ChangeType, BitSet> byType = new EnumMap<>(ChangeType.class);
+	private final BitSet anyType = new BitSet();
+	private final BitSet anyPath = new BitSet();
+	private final BitSet anyFormat = new BitSet();
+	private final SuffixNode formats = new SuffixNode();
+	private final PathNode paths = new PathNode();
+
+	/**
+	 * @param listeners
+	 *            listeners in the order they get changes
+	 * @param defaultFormats
+	 *            file formats of the listeners that do not declare any
+	 */
+	public SubscriptionIndex(Collection<? extends ChangeEventListener> listeners, List<String> defaultFormats) {
+		this.listeners = listeners.toArray(new ChangeEventListener[0]);
+		for (ChangeType type : ChangeType.values()) {
+			byType.put(type, new BitSet());
+		}
+		for (int i = 0; i < this.listeners.length; i++) {
+			ChangeEventListener listener = this.listeners[i];
+			Collection<ChangeType> types = listener.getInterestingChangeTypes();
+			if (types == null || types.isEmpty()) {
+				anyType.set(i);
+			} else {
+				for (ChangeType type : types) {
+					byType.get(type).set(i);
+				}
+			}
+			addPaths(i, listener.getInterestingPaths());
+			List<String> listenerFormats = listener.getInterestingFileFormat();
+			addFormats(i, listenerFormats == null ? defaultFormats : listenerFormats);
+		}
+	}
+
+	/**
+	 * @return the interested listeners in the order they were given
+	 */
+	public List<ChangeEventListener> match(ChangeMessage changeMessage) {
+		BitSet matched = (BitSet) anyType.clone();
+		if (changeMessage.getMessageType() != null) {
+			matched.or(byType.get(changeMessage.getMessageType()));
+		}
+		Metadata details = changeMessage.getMessageDetails();
+		String path = details == null ? null : details.getPathLower();
+		ChangeType type = changeMessage.getMessageType();
+		matched.and(matchPath(path, type != ChangeType.FILE));
+		if (type == ChangeType.FILE) {
+			matched.and(matchFormat(path));
+		}
+
+		List<ChangeEventListener> result = new ArrayList<>(matched.cardinality());
+		for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+			result.add(listeners[i]);
+		}
+		return result;
+	}
+
+	public int size() {
+		return listeners.length;
+	}
+
+	private void addPaths(int listener, Collection<String> interestingPaths) {
+		if (interestingPaths == null || interestingPaths.isEmpty()) {
+			anyPath.set(listener);
+			return;
+		}
+		for (String interestingPath : interestingPaths) {
+			PathNode node = paths;
+			for (String segment : segments(interestingPath.toLowerCase(Locale.ROOT))) {
+				node.below.set(listener);
+				node = node.children.computeIfAbsent(segment, s -> new PathNode());
+			}
+			node.listeners.set(listener);
+			node.below.set(listener);
+		}
+	}
+
+	private void addFormats(int listener, Collection<String> interestingFormats) {
+		if (interestingFormats == null || interestingFormats.isEmpty()) {
+			anyFormat.set(listener);
+			return;
+		}
+		for (String format : interestingFormats) {
+			String lower = format.toLowerCase(Locale.ROOT);
+			SuffixNode node = formats;
+			for (int i = lower.length() - 1; i >= 0; i--) {
+				node = node.children.computeIfAbsent(lower.charAt(i), c -> new SuffixNode());
+			}
+			node.listeners.set(listener);
+		}
+	}
+
+	/**
+	 * @param withPathsBelow
+	 *            also match the paths under the path of the change
+	 */
+	private BitSet matchPath(String path, boolean withPathsBelow) {
+		BitSet matched = (BitSet) anyPath.clone();
+		if (path == null) {
+			return matched;
+		}
+		PathNode node = paths;
+		matched.or(node.listeners);
+		for (String segment : segments(path)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				return matched;
+			}
+			matched.or(node.listeners);
+		}
+		if (withPathsBelow) {
+			matched.or(node.below);
+		}
+		return matched;
+	}
+
+	private BitSet matchFormat(String path) {
+		BitSet matched = (BitSet) anyFormat.clone();
+		if (path == null) {
+			return matched;
+		}
+		SuffixNode node = formats;
+		for (int i = path.length() - 1; i >= 0 && node != null; i--) {
+			node = node.children.get(path.charAt(i));
+			if (node != null) {
+				matched.or(node.listeners);
+			}
+		}
+		return matched;
+	}
+
+	private static List<String> segments(String path) {
+		List<String> segments = new ArrayList<>();
+		for (String segment : path.split("/")) {
+			if (!segment.isEmpty()) {
+				segments.add(segment);
+			}
+		}
+		return segments;
+	}
+
+	private static final class PathNode {
+		private final Map<String, PathNode> children = new HashMap<>();
+		private final BitSet listeners = new BitSet();
+		// listeners of this path or of a path under it
+		private final BitSet below = new BitSet();
+	}
+
+	private static final class SuffixNode {
+		private final Map<Character, SuffixNode> children = new HashMap<>();
+		private final BitSet listeners = new BitSet();
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.dbl.service.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.dropbox.core.http.StandardHttpRequestor;
+
+/**
+ * {@link StandardHttpRequestor} whose open requests can be cancelled from
+ * another thread. A thread blocked reading a response reacts neither to an
+ * interrupt nor to a disconnect of its connection, closing the socket under
+ * the connection makes the read fail right away.
+ */
+public class CancellableHttpRequestor extends StandardHttpRequestor implements CancellableRequestor {
+
+	// one factory for every request, connections are only reused by the same factory
+	private final TrackingSocketFactory socketFactory;
+
+	public CancellableHttpRequestor(Config config) {
+		super(config);
+		SSLSocketFactory delegate = config.getSslSocketFactory();
+		socketFactory = new TrackingSocketFactory(delegate != null ? delegate : HttpsURLConnection.getDefaultSSLSocketFactory());
+	}
+
+	@Override
+	protected void configure(HttpURLConnection conn) throws IOException {
+		super.configure(conn);
+		if (conn instanceof HttpsURLConnection https) {
+			https.setSSLSocketFactory(socketFactory);
+		}
+	}
+
+	/**
+	 * Close the sockets of every request sent so far, requests still running
+	 * fail with an IOException.
+	 *
+	 * @return number of sockets closed
+	 */
+	@Override
+	public int cancel() {
+		return socketFactory.closeAll();
+	}
+
+	/**
+	 * Pooled connections move between threads and the sockets are shared by
+	 * every caller of the client, so the requests of a thread can not be told
+	 * apart: nothing is cancelled. The thread ends its request once the server
+	 * answers or the read timeout expires.
+	 */
+	@Override
+	public int cancel(Thread thread) {
+		return 0;
+	}
+
+	SSLSocketFactory getSocketFactory() {
+		return socketFactory;
+	}
+
+	private static final class TrackingSocketFactory extends SSLSocketFactory {
+		private final SSLSocketFactory delegate;
+		// sockets are forgotten once the connection is dropped
+		private final Set<Socket> sockets = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+		private TrackingSocketFactory(SSLSocketFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		private int closeAll() {
+			List<Socket> open;
+			synchronized (sockets) {
+				open = new ArrayList<>(sockets);
+				sockets.clear();
+			}
+			int closed = 0;
+			for (Socket socket : open) {
+				if (!socket.isClosed()) {
+					try {
+						socket.close();
+						closed++;
+					} catch (IOException e) {
+						// closing is all that matters
+					}
+				}
+			}
+			return closed;
+		}
+
+		private <T extends Socket> T track(T socket) {
+			sockets.add(socket);
+			return socket;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return delegate.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return track(delegate.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			// closing the plain socket also ends a read blocked in the TLS layer
+			track(socket);
+			return track(delegate.createSocket(socket, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return track(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return track(delegate.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return track(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return track(delegate.createSocket(address, port, localAddress, localPort));
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.dbl.service.http;
+
+/**
+ * A requestor whose open requests can be cancelled from another thread.
+ */
+public interface CancellableRequestor {
+
+	/**
+	 * Cancel every request sent so far, requests still running fail with an
+	 * IOException.
+	 *
+	 * @return number of requests cancelled
+	 */
+	int cancel();
+
+	/**
+	 * Cancel the requests the thread is waiting for. A requestor that can not
+	 * tell the requests of a thread apart cancels none, the requests of the
+	 * other threads are never cancelled.
+	 *
+	 * @return number of requests cancelled
+	 */
+	default int cancel(Thread thread) {
+		return 0;
+	}
+
+}
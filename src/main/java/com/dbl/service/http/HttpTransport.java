@@ -0,0 +1,20 @@
+package com.dbl.service.http;
+
+/**
+ * HTTP client the DropBox clients of the lib send their requests with.
+ */
+public enum HttpTransport {
+
+	/**
+	 * {@link java.net.HttpURLConnection} of the DropBox SDK, one connection per
+	 * request in flight.
+	 */
+	STANDARD,
+
+	/**
+	 * {@link java.net.http.HttpClient} shared by every client, requests to the
+	 * same host are multiplexed over HTTP/2 connections.
+	 */
+	JAVA_HTTP_CLIENT;
+
+}
@@ -0,0 +1,612 @@
+package com.dbl.service.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.service.DropBoxExecutors;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.http.StandardHttpRequestor;
+
+/**
+ * {@link HttpRequestor} sending requests with a {@link HttpClient}. The client
+ * is meant to be shared, requests to the same host then share its HTTP/2
+ * connections. Request bodies are buffered like the SDK's requestor does,
+ * except in streaming mode where the chunks written are handed to the client
+ * through a bounded queue, the writer waits while the queue is full.
+ * 
+ * The read timeout bounds the wait for the response status, counted from the
+ * end of the body for streamed uploads however long they take to send, and
+ * every read of the response body.
+ */
+public class JavaHttpClientRequestor extends HttpRequestor implements CancellableRequestor {
+	private static final int CHUNK_SIZE = 64 * 1024;
+	// chunks written and not yet taken by the client
+	private static final int MAX_QUEUED_CHUNKS = 4;
+	// set by the client itself
+	private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		Collections.addAll(RESTRICTED_HEADERS, "Connection", "Content-Length", "Expect", "Host", "Upgrade");
+	}
+
+	private final HttpClient httpClient;
+	private final Duration readTimeout;
+	// requests waiting for their response, by the thread that sent them
+	private final Map<CompletableFuture<?>, Thread> running = new ConcurrentHashMap<>();
+
+	/**
+	 * @param config
+	 *            only the read timeout is used, it bounds the wait for the
+	 *            response status and for each read of the response body
+	 */
+	public JavaHttpClientRequestor(HttpClient httpClient, StandardHttpRequestor.Config config) {
+		this.httpClient = httpClient;
+		this.readTimeout = config.getReadTimeoutMillis() > 0 ? Duration.ofMillis(config.getReadTimeoutMillis()) : null;
+	}
+
+	/**
+	 * Build the client shared by the requestors. The pool size and keep-alive
+	 * of the JDK client are JVM wide, the application sets them with the
+	 * jdk.httpclient.connectionPoolSize and jdk.httpclient.keepalive.timeout
+	 * system properties on the command line.
+	 */
+	public static HttpClient newHttpClient(DropBoxLibProperties appProperties, StandardHttpRequestor.Config config) {
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.version(appProperties.getHttpVersion())
+				.followRedirects(HttpClient.Redirect.NEVER);
+		if (config.getConnectTimeoutMillis() > 0) {
+			builder.connectTimeout(Duration.ofMillis(config.getConnectTimeoutMillis()));
+		}
+		if (appProperties.getHttpThreads() > 0) {
+			builder.executor(DropBoxExecutors.newExecutor("dropbox-http", appProperties.getHttpThreads(), appProperties.isVirtualThreads()));
+		}
+		Proxy proxy = config.getProxy();
+		if (proxy != null && proxy.type() == Proxy.Type.HTTP && proxy.address() instanceof InetSocketAddress address) {
+			builder.proxy(ProxySelector.of(address));
+		}
+		return builder.build();
+	}
+
+	@Override
+	public Response doGet(String url, Iterable<Header> headers) throws IOException {
+		return await(send(newRequest(url, headers, true).GET().build()), null);
+	}
+
+	@Override
+	public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+		return new BufferedUploader(newRequest(url, headers, true), "POST");
+	}
+
+	@Override
+	public Uploader startPostInStreamingMode(String url, Iterable<Header> headers) throws IOException {
+		// sending the body may take longer than the read timeout, the wait for the status starts once it was sent
+		return new StreamingUploader(newRequest(url, headers, false));
+	}
+
+	@Override
+	public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+		return new BufferedUploader(newRequest(url, headers, true), "PUT");
+	}
+
+	/**
+	 * Cancel the requests waiting for their response, the threads waiting for
+	 * them fail with an IOException.
+	 *
+	 * @return number of requests cancelled
+	 */
+	@Override
+	public int cancel() {
+		return cancel(new ArrayList<>(running.keySet()));
+	}
+
+	@Override
+	public int cancel(Thread thread) {
+		List<CompletableFuture<?>> open = new ArrayList<>();
+		running.forEach((request, sender) -> {
+			if (sender == thread) {
+				open.add(request);
+			}
+		});
+		return cancel(open);
+	}
+
+	private static int cancel(List<CompletableFuture<?>> open) {
+		int cancelled = 0;
+		for (CompletableFuture<?> request : open) {
+			if (request.cancel(true)) {
+				cancelled++;
+			}
+		}
+		return cancelled;
+	}
+
+	/**
+	 * @param timed
+	 *            bound the whole exchange until the response status by the read
+	 *            timeout
+	 */
+	private HttpRequest.Builder newRequest(String url, Iterable<Header> headers, boolean timed) throws IOException {
+		HttpRequest.Builder builder;
+		try {
+			builder = HttpRequest.newBuilder(URI.create(url));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("invalid url " + url, e);
+		}
+		if (timed && readTimeout != null) {
+			builder.timeout(readTimeout);
+		}
+		for (Header header : headers) {
+			if (!RESTRICTED_HEADERS.contains(header.getKey())) {
+				builder.header(header.getKey(), header.getValue());
+			}
+		}
+		return builder;
+	}
+
+	private CompletableFuture<HttpResponse<InputStream>> send(HttpRequest request) {
+		CompletableFuture<HttpResponse<InputStream>> response = httpClient.sendAsync(request, responseInfo -> new TimedBody(readTimeout));
+		running.put(response, Thread.currentThread());
+		response.whenComplete((result, failure) -> running.remove(response));
+		return response;
+	}
+
+	/**
+	 * @param timeout
+	 *            longest wait for the response status, null to wait until the
+	 *            request ends
+	 */
+	private static Response await(CompletableFuture<HttpResponse<InputStream>> request, Duration timeout) throws IOException {
+		HttpResponse<InputStream> response;
+		try {
+			response = timeout == null ? request.get() : request.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			request.cancel(true);
+			throw new HttpTimeoutException("no response within " + timeout.toMillis() + " ms");
+		} catch (InterruptedException e) {
+			request.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a response");
+		} catch (CancellationException e) {
+			throw new IOException("request cancelled", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException cause) {
+				throw cause;
+			}
+			throw new IOException(e.getCause());
+		}
+		return new Response(response.statusCode(), response.body(), response.headers().map());
+	}
+
+	private final class BufferedUploader extends Uploader {
+		private final HttpRequest.Builder request;
+		private final String method;
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		private BufferedUploader(HttpRequest.Builder request, String method) {
+			this.request = request;
+			this.method = method;
+		}
+
+		@Override
+		public OutputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public void close() {
+			// nothing was sent before finish
+		}
+
+		@Override
+		public void abort() {
+			body.reset();
+		}
+
+		@Override
+		public Response finish() throws IOException {
+			return await(send(request.method(method, HttpRequest.BodyPublishers.ofByteArray(body.toByteArray())).build()), null);
+		}
+	}
+
+	private final class StreamingUploader extends Uploader {
+		private final StreamingBody body = new StreamingBody();
+		private final CompletableFuture<HttpResponse<InputStream>> response;
+
+		private StreamingUploader(HttpRequest.Builder request) {
+			// the client takes the chunks on its own threads while the body is written
+			response = send(request.POST(body).build());
+			// a writer waiting for room in the queue gives up once the request ended
+			response.whenComplete((result, failure) -> body.end(failure));
+		}
+
+		@Override
+		public OutputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public void close() {
+			try {
+				body.close();
+			} catch (IOException e) {
+				// the request fails on its own
+			}
+		}
+
+		@Override
+		public void abort() {
+			response.cancel(true);
+			body.end(new IOException("upload aborted"));
+		}
+
+		@Override
+		public Response finish() throws IOException {
+			body.close();
+			body.awaitSent();
+			return await(response, readTimeout);
+		}
+	}
+
+	/**
+	 * Body written by the caller and published to the client chunk by chunk,
+	 * no thread of the client is tied to the writer. It is published once.
+	 */
+	private static final class StreamingBody extends OutputStream implements HttpRequest.BodyPublisher, Flow.Subscription {
+		// filled by the writer
+		private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+		// guarded by this
+		private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+		private Flow.Subscriber<? super ByteBuffer> subscriber;
+		private long demand;
+		private boolean draining;
+		private boolean closed;
+		// the body was published, cancelled or the request ended
+		private boolean done;
+		private Throwable failure;
+
+		@Override
+		public long contentLength() {
+			return -1;
+		}
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+			boolean first;
+			synchronized (this) {
+				first = this.subscriber == null;
+				if (first) {
+					this.subscriber = subscriber;
+				}
+			}
+			if (!first) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IOException("a streamed body can only be sent once"));
+				return;
+			}
+			subscriber.onSubscribe(this);
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				IllegalArgumentException error = new IllegalArgumentException("non-positive request " + n);
+				end(error);
+				subscriber.onError(error);
+				return;
+			}
+			synchronized (this) {
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			end(new IOException("request body cancelled"));
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!chunk.hasRemaining()) {
+				enqueue();
+			}
+			chunk.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!chunk.hasRemaining()) {
+					enqueue();
+				}
+				int count = Math.min(len, chunk.remaining());
+				chunk.put(b, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (chunk.position() > 0) {
+				enqueue();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+			}
+			flush();
+			synchronized (this) {
+				closed = true;
+			}
+			drain();
+		}
+
+		/**
+		 * End the body, writers waiting for room fail. Does nothing once the
+		 * body was published.
+		 */
+		private synchronized void end(Throwable failure) {
+			if (!done) {
+				done = true;
+				this.failure = failure != null ? failure : new IOException("response received before the body was sent");
+				chunks.clear();
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Wait until the whole body was handed to the client, or the request
+		 * ended.
+		 */
+		private synchronized void awaitSent() throws IOException {
+			try {
+				while (!done) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while sending the body");
+			}
+		}
+
+		private void enqueue() throws IOException {
+			synchronized (this) {
+				try {
+					while (chunks.size() >= MAX_QUEUED_CHUNKS && !done) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting to send the body");
+				}
+				if (done) {
+					throw new IOException("request ended before the body was sent", failure);
+				}
+				if (closed) {
+					throw new IOException("body is closed");
+				}
+				chunks.addLast(chunk.flip());
+			}
+			chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			drain();
+		}
+
+		// hands the queued chunks to the subscriber, one thread at a time
+		private void drain() {
+			Flow.Subscriber<? super ByteBuffer> target;
+			synchronized (this) {
+				if (draining || subscriber == null) {
+					return;
+				}
+				draining = true;
+				target = subscriber;
+			}
+			while (true) {
+				ByteBuffer next;
+				synchronized (this) {
+					if (done) {
+						draining = false;
+						return;
+					}
+					if (demand > 0 && !chunks.isEmpty()) {
+						next = chunks.pollFirst();
+						demand--;
+						notifyAll();
+					} else if (chunks.isEmpty() && closed) {
+						done = true;
+						next = null;
+						notifyAll();
+					} else {
+						draining = false;
+						return;
+					}
+				}
+				if (next == null) {
+					target.onComplete();
+					return;
+				}
+				target.onNext(next);
+			}
+		}
+	}
+
+	/**
+	 * Response body read by the caller, each read waits for data at most the
+	 * read timeout. The client hands over the next buffers once the previous
+	 * ones were taken.
+	 */
+	private static final class TimedBody extends InputStream implements HttpResponse.BodySubscriber<InputStream> {
+		// a list of its own, the client may hand over empty lists
+		private static final List<ByteBuffer> END = Collections.unmodifiableList(new ArrayList<>());
+
+		private final Duration timeout;
+		private final BlockingQueue<List<ByteBuffer>> received = new LinkedBlockingQueue<>();
+		private volatile Flow.Subscription subscription;
+		private volatile Throwable failure;
+		private volatile boolean closed;
+
+		// used by the reader only
+		private Iterator<ByteBuffer> buffers = Collections.emptyIterator();
+		private ByteBuffer current;
+		private boolean ended;
+
+		private TimedBody(Duration timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public CompletionStage<InputStream> getBody() {
+			return CompletableFuture.completedStage(this);
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (closed) {
+				subscription.cancel();
+			} else {
+				subscription.request(1);
+			}
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> item) {
+			received.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			failure = throwable;
+			received.add(END);
+		}
+
+		@Override
+		public void onComplete() {
+			received.add(END);
+		}
+
+		@Override
+		public int read() throws IOException {
+			ByteBuffer buffer = current();
+			return buffer == null ? -1 : buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			ByteBuffer buffer = current();
+			if (buffer == null) {
+				return -1;
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return current == null ? 0 : current.remaining();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			Flow.Subscription s = subscription;
+			if (s != null) {
+				s.cancel();
+			}
+		}
+
+		// the buffer with data left, null at the end of the body
+		private ByteBuffer current() throws IOException {
+			while (current == null || !current.hasRemaining()) {
+				if (closed) {
+					throw new IOException("response body is closed");
+				}
+				if (buffers.hasNext()) {
+					current = buffers.next();
+					continue;
+				}
+				if (ended) {
+					return null;
+				}
+				List<ByteBuffer> next;
+				try {
+					next = timeout == null ? received.take() : received.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					close();
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while reading the response body");
+				}
+				if (next == null) {
+					close();
+					throw new HttpTimeoutException("no response data within " + timeout.toMillis() + " ms");
+				}
+				if (next == END) {
+					ended = true;
+					if (failure instanceof IOException e) {
+						throw e;
+					}
+					if (failure != null) {
+						throw new IOException(failure);
+					}
+					continue;
+				}
+				buffers = next.iterator();
+				subscription.request(1);
+			}
+			return current;
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package com.dbl.service.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.dbl.service.AdaptiveConcurrencyLimiter;
+import com.dbl.service.RequestThrottler;
+import com.dropbox.core.http.HttpRequestor;
+
+/**
+ * {@link HttpRequestor} sending the requests of another requestor through a
+ * {@link RequestThrottler}. A request counts as in flight until its response
+ * status arrives, the body of a download is read outside of the cap. A 429 or
+ * 503 response with a retry-after pauses every request of the throttler, and
+ * any 429 or 503 response cuts the adaptive concurrency limit the calling
+ * thread holds a permit of, before the client retries it.
+ * Long-polls to the notify host only wait for a pause, they would hold an
+ * in-flight slot for minutes.
+ */
+public class ThrottlingHttpRequestor extends HttpRequestor {
+	private static final String RETRY_AFTER = "Retry-After";
+
+	private final HttpRequestor delegate;
+	private final RequestThrottler throttler;
+	private final String notifyHost;
+
+	public ThrottlingHttpRequestor(HttpRequestor delegate, RequestThrottler throttler, String notifyHost) {
+		this.delegate = delegate;
+		this.throttler = throttler;
+		this.notifyHost = "//" + notifyHost + "/";
+	}
+
+	@Override
+	public Response doGet(String url, Iterable<Header> headers) throws IOException {
+		Permit permit = acquire(url);
+		try {
+			return permit.observe(delegate.doGet(url, headers));
+		} finally {
+			permit.release();
+		}
+	}
+
+	@Override
+	public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+		Permit permit = acquire(url);
+		try {
+			return new ThrottledUploader(delegate.startPost(url, headers), permit);
+		} catch (IOException | RuntimeException e) {
+			permit.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public Uploader startPostInStreamingMode(String url, Iterable<Header> headers) throws IOException {
+		Permit permit = acquire(url);
+		try {
+			return new ThrottledUploader(delegate.startPostInStreamingMode(url, headers), permit);
+		} catch (IOException | RuntimeException e) {
+			permit.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+		Permit permit = acquire(url);
+		try {
+			return new ThrottledUploader(delegate.startPut(url, headers), permit);
+		} catch (IOException | RuntimeException e) {
+			permit.release();
+			throw e;
+		}
+	}
+
+	private Permit acquire(String url) throws IOException {
+		if (url.contains(notifyHost)) {
+			try {
+				throttler.awaitPause();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting to send a request");
+			}
+			return new Permit(false);
+		}
+		throttler.acquire();
+		return new Permit(true);
+	}
+
+	/**
+	 * @return retry-after of the response in millis, -1 when there is none
+	 */
+	static long retryAfterMillis(Response response) {
+		if (response.getStatusCode() != 429 && response.getStatusCode() != 503) {
+			return -1;
+		}
+		for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+			if (RETRY_AFTER.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()) {
+				try {
+					return Math.max(0, Long.parseLong(header.getValue().get(0).trim())) * 1000;
+				} catch (NumberFormatException e) {
+					// an http date, left to the backoff of the client
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private final class Permit {
+		private final AtomicBoolean held;
+
+		private Permit(boolean held) {
+			this.held = new AtomicBoolean(held);
+		}
+
+		private Response observe(Response response) {
+			if (response.getStatusCode() == 429 || response.getStatusCode() == 503) {
+				AdaptiveConcurrencyLimiter.throttled();
+			}
+			long retryAfter = retryAfterMillis(response);
+			if (retryAfter >= 0) {
+				throttler.pause(retryAfter);
+			}
+			return response;
+		}
+
+		private void release() {
+			if (held.compareAndSet(true, false)) {
+				throttler.release();
+			}
+		}
+	}
+
+	private static final class ThrottledUploader extends Uploader {
+		private final Uploader delegate;
+		private final Permit permit;
+
+		private ThrottledUploader(Uploader delegate, Permit permit) {
+			this.delegate = delegate;
+			this.permit = permit;
+		}
+
+		@Override
+		public OutputStream getBody() {
+			return delegate.getBody();
+		}
+
+		@Override
+		public void close() {
+			try {
+				delegate.close();
+			} finally {
+				permit.release();
+			}
+		}
+
+		@Override
+		public void abort() {
+			try {
+				delegate.abort();
+			} finally {
+				permit.release();
+			}
+		}
+
+		@Override
+		public Response finish() throws IOException {
+			try {
+				return permit.observe(delegate.finish());
+			} finally {
+				permit.release();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.dbl.service.index;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.dbl.service.ChangeEventListener;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * Local copy of the metadata of every path under a root folder. The index is
+ * seeded once by a recursive listing and then kept current as a change
+ * listener of the long-poll. Queries never go to the network.
+ */
+public interface MetadataIndex extends ChangeEventListener {
+
+	/**
+	 * Replace the content of the index with a listing of the root folder.
+	 * Changes received while the listing runs are applied once it is done.
+	 *
+	 * @param entries
+	 *            recursive listing of the root folder
+	 */
+	void seed(Iterator<Metadata> entries);
+
+	/**
+	 * @return true once seeded, queries return nothing before
+	 */
+	boolean isReady();
+
+	/**
+	 * @param path
+	 *            DropBox path
+	 * @return true when the path is the root folder or under it
+	 */
+	boolean covers(String path);
+
+	/**
+	 * @param path
+	 *            DropBox path
+	 * @return metadata of the path or null when it does not exist
+	 */
+	Metadata get(String path);
+
+	boolean exists(String path);
+
+	/**
+	 * @param path
+	 *            DropBox folder path
+	 * @param recursive
+	 *            include the whole subtree, not only the direct children
+	 * @return files under the folder
+	 */
+	List<FileMetadata> files(String path, boolean recursive);
+
+	/**
+	 * @see #files(String, boolean)
+	 */
+	List<FolderMetadata> folders(String path, boolean recursive);
+
+	/**
+	 * Apply a single listing or change entry.
+	 */
+	void apply(Metadata metadata);
+
+	/**
+	 * @return number of paths in the index
+	 */
+	int size();
+
+}
@@ -0,0 +1,417 @@
+package com.dbl.service.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.domain.message.ChangeMessage;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * {@link MetadataIndex} stored as a tree of path segments. Paths sharing a
+ * prefix share its nodes and every segment name is interned, so a name that
+ * repeats across folders is stored once. Small folders keep their children in
+ * an array, large ones in a hash map.
+ */
+public class MetadataIndexImpl implements MetadataIndex {
+    private static final int MAX_ARRAY_CHILDREN = 16;
+
+    private final Logger logger = LoggerFactory.getLogger(MetadataIndexImpl.class);
+
+    private final String rootPath;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private Node root = new Node("");
+    private Map<String, String> segments = new HashMap<>();
+    private int size;
+    private boolean ready;
+    // changes received while seeding
+    private List<Metadata> pendingChanges;
+
+    /**
+     * @param rootPath
+     *            DropBox folder covered by the index, empty for the whole
+     *            account
+     */
+    public MetadataIndexImpl(String rootPath) {
+        this.rootPath = rootPath == null ? "" : normalize(rootPath);
+    }
+
+    @Override
+    public void seed(Iterator<Metadata> entries) {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // the new tree is private until it replaces the current one
+        Node seeded = new Node("");
+        Map<String, String> seededSegments = new HashMap<>();
+        int seededSize = 0;
+        try {
+            while (entries.hasNext()) {
+                Metadata metadata = entries.next();
+                if (!(metadata instanceof DeletedMetadata) && metadata.getPathLower() != null) {
+                    seededSize += put(seeded, metadata, seededSegments);
+                }
+            }
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                for (Metadata change : pendingChanges) {
+                    applyLocked(change);
+                }
+                pendingChanges = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        int applied;
+        lock.writeLock().lock();
+        try {
+            root = seeded;
+            segments = seededSegments;
+            size = seededSize;
+            for (Metadata change : pendingChanges) {
+                applyLocked(change);
+            }
+            applied = pendingChanges.size();
+            pendingChanges = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("metadata index of {} seeded with {} paths, {} changes applied", rootPath, seededSize, applied);
+    }
+
+    @Override
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return ready;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean covers(String path) {
+        String normalized = normalize(path == null ? "" : path);
+        return rootPath.isEmpty() || normalized.equals(rootPath) || normalized.startsWith(rootPath + "/");
+    }
+
+    @Override
+    public Metadata get(String path) {
+        lock.readLock().lock();
+        try {
+            Node node = find(path);
+            return node == null ? null : node.metadata;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        lock.readLock().lock();
+        try {
+            Node node = find(path);
+            return node != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<FileMetadata> files(String path, boolean recursive) {
+        return collect(path, recursive, FileMetadata.class);
+    }
+
+    @Override
+    public List<FolderMetadata> folders(String path, boolean recursive) {
+        return collect(path, recursive, FolderMetadata.class);
+    }
+
+    @Override
+    public void apply(Metadata metadata) {
+        if (metadata == null || metadata.getPathLower() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (pendingChanges != null) {
+                pendingChanges.add(metadata);
+            } else {
+                applyLocked(metadata);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getInterestingFileFormat() {
+        // every change updates the index
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isOrderSensitive() {
+        // a folder delete has to be applied before the adds listed after it
+        return true;
+    }
+
+    @Override
+    public void change(ChangeMessage changeMessage) {
+        apply(changeMessage.getMessageDetails());
+    }
+
+    // callers hold the write lock
+    private void applyLocked(Metadata metadata) {
+        if (metadata instanceof DeletedMetadata) {
+            remove(metadata.getPathLower());
+        } else {
+            size += put(root, metadata, segments);
+        }
+    }
+
+    // callers hold the write lock or own the tree, returns the change of the number of paths
+    private int put(Node tree, Metadata metadata, Map<String, String> segments) {
+        String relative = relativePath(metadata.getPathLower());
+        if (relative == null) {
+            return 0;
+        }
+        if (relative.isEmpty()) {
+            tree.metadata = metadata;
+            return 0;
+        }
+        Node node = tree;
+        int start = 0;
+        while (start <= relative.length()) {
+            int end = relative.indexOf('/', start);
+            if (end < 0) {
+                end = relative.length();
+            }
+            String segment = relative.substring(start, end);
+            Node child = node.child(segment);
+            if (child == null) {
+                child = new Node(segments.computeIfAbsent(segment, key -> key));
+                node.addChild(child);
+            }
+            node = child;
+            start = end + 1;
+        }
+        int added = node.metadata == null ? 1 : 0;
+        if (metadata instanceof FileMetadata && node.childCount() > 0) {
+            // a folder was replaced by a file
+            for (Node child : node.children()) {
+                added -= countSubtree(child);
+            }
+            node.clearChildren();
+        }
+        node.metadata = metadata;
+        return added;
+    }
+
+    // callers hold the write lock
+    private void remove(String path) {
+        String relative = relativePath(path);
+        if (relative == null) {
+            return;
+        }
+        if (relative.isEmpty()) {
+            size = 0;
+            root = new Node("");
+            return;
+        }
+        Node parent = find(root, relative.substring(0, Math.max(0, relative.lastIndexOf('/'))));
+        if (parent == null) {
+            return;
+        }
+        Node node = parent.removeChild(relative.substring(relative.lastIndexOf('/') + 1));
+        if (node != null) {
+            size -= countSubtree(node);
+        }
+    }
+
+    private <T extends Metadata> List<T> collect(String path, boolean recursive, Class<T> type) {
+        List<T> res = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Node node = find(path);
+            if (node != null) {
+                collect(node, recursive, type, res);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return res;
+    }
+
+    private static <T extends Metadata> void collect(Node node, boolean recursive, Class<T> type, List<T> res) {
+        for (Node child : node.children()) {
+            if (type.isInstance(child.metadata)) {
+                res.add(type.cast(child.metadata));
+            }
+            if (recursive) {
+                collect(child, true, type, res);
+            }
+        }
+    }
+
+    // callers hold a lock
+    private Node find(String path) {
+        String relative = relativePath(path == null ? "" : path);
+        return relative == null ? null : find(root, relative);
+    }
+
+    private static Node find(Node tree, String relative) {
+        Node node = tree;
+        int start = 0;
+        while (node != null && start < relative.length()) {
+            int end = relative.indexOf('/', start);
+            if (end < 0) {
+                end = relative.length();
+            }
+            node = node.child(relative.substring(start, end));
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * @return path relative to the root without leading slash, empty for the
+     *         root and null when the path is not covered
+     */
+    private String relativePath(String path) {
+        String normalized = normalize(path);
+        if (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        if (normalized.equals(rootPath)) {
+            return "";
+        }
+        if (!rootPath.isEmpty() && !normalized.startsWith(rootPath + "/")) {
+            return null;
+        }
+        return normalized.substring(rootPath.length() + 1);
+    }
+
+    private static int countSubtree(Node node) {
+        int count = node.metadata == null ? 0 : 1;
+        for (Node child : node.children()) {
+            count += countSubtree(child);
+        }
+        return count;
+    }
+
+    private static String normalize(String path) {
+        return path.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Node {
+        private final String name;
+        // null for a folder only known as the parent of other paths
+        private Metadata metadata;
+        // children in an array while there are few of them, in a map after
+        private Node[] childArray;
+        private int childArraySize;
+        private Map<String, Node> childMap;
+
+        private Node(String name) {
+            this.name = name;
+        }
+
+        private Node child(String segment) {
+            if (childMap != null) {
+                return childMap.get(segment);
+            }
+            for (int i = 0; i < childArraySize; i++) {
+                if (childArray[i].name.equals(segment)) {
+                    return childArray[i];
+                }
+            }
+            return null;
+        }
+
+        private void addChild(Node child) {
+            if (childMap != null) {
+                childMap.put(child.name, child);
+            } else if (childArraySize < MAX_ARRAY_CHILDREN) {
+                if (childArray == null) {
+                    childArray = new Node[2];
+                } else if (childArraySize == childArray.length) {
+                    childArray = Arrays.copyOf(childArray, childArray.length * 2);
+                }
+                childArray[childArraySize++] = child;
+            } else {
+                childMap = new HashMap<>();
+                for (int i = 0; i < childArraySize; i++) {
+                    childMap.put(childArray[i].name, childArray[i]);
+                }
+                childMap.put(child.name, child);
+                childArray = null;
+                childArraySize = 0;
+            }
+        }
+
+        private Node removeChild(String segment) {
+            if (childMap != null) {
+                return childMap.remove(segment);
+            }
+            for (int i = 0; i < childArraySize; i++) {
+                Node child = childArray[i];
+                if (child.name.equals(segment)) {
+                    System.arraycopy(childArray, i + 1, childArray, i, childArraySize - i - 1);
+                    childArray[--childArraySize] = null;
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private int childCount() {
+            return childMap != null ? childMap.size() : childArraySize;
+        }
+
+        private void clearChildren() {
+            childArray = null;
+            childArraySize = 0;
+            childMap = null;
+        }
+
+        private Iterable<Node> children() {
+            if (childMap != null) {
+                return childMap.values();
+            }
+            return childArraySize == 0 ? Collections.emptyList() : Arrays.asList(childArray).subList(0, childArraySize);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.dbl.service.indicator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import com.dbl.service.ChangeEventListener;
+import com.dbl.service.LongPoolService;
+import com.dbl.service.metrics.ChangeLagTracker;
+import com.dbl.service.metrics.DropBoxMetrics;
+
+/**
+ * Actuator endpoint reporting how far behind the changes the listeners are:
+ * lag percentiles of the recent deliveries and the changes still queued.
+ */
+@Component
+@Endpoint(id = "dropboxlag")
+public class ChangeLagEndpoint {
+
+	private final LongPoolService longPoolService;
+
+	public ChangeLagEndpoint(LongPoolService longPoolService) {
+		this.longPoolService = longPoolService;
+	}
+
+	@ReadOperation
+	public Map<String, Object> lag() {
+		ChangeLagTracker changeLagTracker = longPoolService.getChangeLagTracker();
+		Map<String, Object> res = new LinkedHashMap<>();
+		res.put("behind", changeLagTracker.isBehind());
+		res.put("thresholdMillis", changeLagTracker.getThresholdMillis());
+		res.put("windowMillis", changeLagTracker.getWindowMillis());
+		res.put("lagMillis", percentiles(changeLagTracker.getLagPercentiles()));
+		res.put("dispatchLagMillis", percentiles(changeLagTracker.getDispatchLagPercentiles()));
+		res.put("delivered", changeLagTracker.getDeliveredCount());
+		res.put("lastDeliveredAt", changeLagTracker.getLastDeliveredAt());
+		Map<String, Integer> backlog = new LinkedHashMap<>();
+		int total = 0;
+		for (Map.Entry<ChangeEventListener, Integer> depth : longPoolService.getQueueDepths().entrySet()) {
+			backlog.merge(DropBoxMetrics.listenerName(depth.getKey()), depth.getValue(), Integer::sum);
+			total += depth.getValue();
+		}
+		res.put("backlog", total);
+		res.put("backlogByListener", backlog);
+		return res;
+	}
+
+	private static Map<String, Long> percentiles(Map<Double, Long> percentiles) {
+		Map<String, Long> res = new LinkedHashMap<>();
+		percentiles.forEach((percentile, millis) -> res.put(percentile == 1.0 ? "max" : "p" + Math.round(percentile * 100), millis));
+		return res;
+	}
+
+}
@@ -2,13 +2,24 @@ package com.dbl.service.indicator;
 
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.stereotype.Component;
 
 import com.dbl.service.LongPoolService;
+import com.dbl.service.metrics.ChangeLagTracker;
 
+/**
+ * DOWN while the long-poll loop is not connected, DEGRADED while the
+ * listeners get the changes more than dropboxlib.lag-degraded-threshold-millis
+ * after they were listed.
+ * DEGRADED has to be added to management.endpoint.health.status.order for the
+ * aggregated status to show it.
+ */
 @Component
 public class DropBoxConnectionHealthIndicator implements HealthIndicator {
 
+	public static final Status DEGRADED = new Status("DEGRADED", "listeners are behind the changes");
+
 	private final LongPoolService longPoolService;
 
 	public DropBoxConnectionHealthIndicator(LongPoolService longPoolService) {
@@ -17,11 +28,17 @@ public class DropBoxConnectionHealthIndicator implements HealthIndicator {
 
 	@Override
 	public Health health() {
-		if (longPoolService.isHealth()) {
-			return Health.up().withDetail("connected", true).build();
-		}else {
+		if (!longPoolService.isHealth()) {
 			return Health.down().withDetail("connected", false).build();
 		}
+		ChangeLagTracker changeLagTracker = longPoolService.getChangeLagTracker();
+		if (changeLagTracker != null && changeLagTracker.isBehind()) {
+			return Health.status(DEGRADED).withDetail("connected", true)
+					.withDetail("lagMillis", changeLagTracker.getLagPercentiles())
+					.withDetail("dispatchLagMillis", changeLagTracker.getDispatchLagPercentiles())
+					.withDetail("thresholdMillis", changeLagTracker.getThresholdMillis()).build();
+		}
+		return Health.up().withDetail("connected", true).build();
 	}
 
 }
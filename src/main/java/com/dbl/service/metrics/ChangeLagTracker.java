@@ -0,0 +1,149 @@
+package com.dbl.service.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+import com.dbl.service.dispatch.DeliveryObserver;
+import com.dropbox.core.v2.files.FileMetadata;
+
+/**
+ * Lag of the changes handed to the listeners, over the deliveries of a recent
+ * window. The lag of a change runs from its server modified time, or from its
+ * listing when it has none (folders and deletes), until a listener finished
+ * with it. The dispatch lag only runs from the listing. A file moved or
+ * restored keeps its server modified time, its lag includes that age, so only
+ * the dispatch lag tells whether the listeners are behind.
+ */
+public class ChangeLagTracker implements DeliveryObserver {
+	public static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+	private static final int CAPACITY = 4096;
+
+	private final long windowMillis;
+	private final long thresholdMillis;
+
+	// ring of the last deliveries, guarded by this
+	private final long[] deliveredAt = new long[CAPACITY];
+	private final long[] lag = new long[CAPACITY];
+	private final long[] dispatchLag = new long[CAPACITY];
+	private int next;
+	private int size;
+	private long delivered;
+	private long lastDeliveredAt;
+
+	public ChangeLagTracker(DropBoxLibProperties appProperties) {
+		this(appProperties.getLagWindowMillis(), appProperties.getLagDegradedThresholdMillis());
+	}
+
+	/**
+	 * @param windowMillis
+	 *            deliveries older than this are left out of the percentiles
+	 * @param thresholdMillis
+	 *            dispatch lag percentile over which the listeners are behind, 0
+	 *            to never be behind
+	 */
+	public ChangeLagTracker(long windowMillis, long thresholdMillis) {
+		this.windowMillis = Math.max(1, windowMillis);
+		this.thresholdMillis = Math.max(0, thresholdMillis);
+	}
+
+	@Override
+	public void delivered(ChangeEventListener listener, List<ChangeMessage> changes, long callbackNanos, boolean failed) {
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			for (ChangeMessage changeMessage : changes) {
+				long listedAt = changeMessage.getListedAt();
+				long since = changeMessage.getMessageDetails() instanceof FileMetadata file && file.getServerModified() != null
+						? file.getServerModified().getTime()
+						: listedAt;
+				if (since <= 0) {
+					continue;
+				}
+				deliveredAt[next] = now;
+				lag[next] = Math.max(0, now - since);
+				dispatchLag[next] = listedAt > 0 ? Math.max(0, now - listedAt) : -1;
+				next = (next + 1) % CAPACITY;
+				size = Math.min(CAPACITY, size + 1);
+				delivered++;
+				lastDeliveredAt = now;
+			}
+		}
+	}
+
+	/**
+	 * @return lag millis of the deliveries in the window per percentile, empty
+	 *         when there were none
+	 */
+	public Map<Double, Long> getLagPercentiles() {
+		return percentiles(lag);
+	}
+
+	/**
+	 * @return lag millis from the listing of the changes per percentile
+	 */
+	public Map<Double, Long> getDispatchLagPercentiles() {
+		return percentiles(dispatchLag);
+	}
+
+	/**
+	 * @return true when the 90th percentile of the dispatch lag is over the
+	 *         threshold
+	 */
+	public boolean isBehind() {
+		if (thresholdMillis == 0) {
+			return false;
+		}
+		Long lag90 = getDispatchLagPercentiles().get(0.9);
+		return lag90 != null && lag90 > thresholdMillis;
+	}
+
+	public long getThresholdMillis() {
+		return thresholdMillis;
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	public synchronized long getDeliveredCount() {
+		return delivered;
+	}
+
+	/**
+	 * @return epoch millis of the last delivery, 0 before the first one
+	 */
+	public synchronized long getLastDeliveredAt() {
+		return lastDeliveredAt;
+	}
+
+	private Map<Double, Long> percentiles(long[] samples) {
+		long[] recent;
+		synchronized (this) {
+			long from = System.currentTimeMillis() - windowMillis;
+			recent = new long[size];
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				if (deliveredAt[i] >= from && samples[i] >= 0) {
+					recent[count++] = samples[i];
+				}
+			}
+			recent = Arrays.copyOf(recent, count);
+		}
+		Map<Double, Long> res = new LinkedHashMap<>();
+		if (recent.length == 0) {
+			return res;
+		}
+		Arrays.sort(recent);
+		for (double percentile : PERCENTILES) {
+			res.put(percentile, recent[Math.min(recent.length - 1, (int) Math.ceil(percentile * recent.length) - 1)]);
+		}
+		res.put(1.0, recent[recent.length - 1]);
+		return res;
+	}
+
+}
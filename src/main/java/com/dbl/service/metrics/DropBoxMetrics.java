@@ -0,0 +1,192 @@
+package com.dbl.service.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+import com.dbl.service.DropBoxService;
+import com.dbl.service.LongPoolService;
+import com.dbl.service.RequestThrottler;
+import com.dbl.service.dispatch.DeliveryObserver;
+import com.dbl.service.prefetch.ContentPrefetcher;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Micrometer meters of the lib. Without a registry the meters are recorded
+ * nowhere.
+ */
+public class DropBoxMetrics implements DeliveryObserver {
+	public static final String OPERATION = "dropboxlib.operation";
+	public static final String TRANSFER_BYTES = "dropboxlib.transfer.bytes";
+	public static final String LIST_PAGES = "dropboxlib.list.pages";
+	public static final String LONGPOLL = "dropboxlib.longpoll";
+	public static final String LONGPOLL_BACKOFF = "dropboxlib.longpoll.backoff";
+	public static final String LISTENER_EVENTS = "dropboxlib.listener.events";
+	public static final String LISTENER_CALLBACK = "dropboxlib.listener.callback";
+	public static final String LISTENER_QUEUE = "dropboxlib.listener.queue.depth";
+	public static final String CHANGES_COLLAPSED = "dropboxlib.changes.collapsed";
+	public static final String CONCURRENCY_LIMIT = "dropboxlib.concurrency.limit";
+	public static final String REQUESTS_IN_FLIGHT = "dropboxlib.requests.in.flight";
+	public static final String REQUESTS_PAUSED = "dropboxlib.requests.paused";
+	public static final String REQUESTS_RETRIED = "dropboxlib.requests.retried";
+	public static final String PREFETCH = "dropboxlib.prefetch";
+
+	private final MeterRegistry registry;
+
+	public DropBoxMetrics() {
+		this(new CompositeMeterRegistry());
+	}
+
+	public DropBoxMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public MeterRegistry getRegistry() {
+		return registry;
+	}
+
+	public Timer.Sample start() {
+		return Timer.start(registry);
+	}
+
+	/**
+	 * @param operation
+	 *            download, upload, list, search, rename, delete or getRevisions
+	 */
+	public void stop(Timer.Sample sample, String operation, boolean success) {
+		sample.stop(Timer.builder(OPERATION)
+				.description("DropBoxService operations")
+				.tag("operation", operation)
+				.tag("outcome", outcome(success))
+				.register(registry));
+	}
+
+	/**
+	 * @param direction
+	 *            download or upload
+	 */
+	public void transferred(String direction, long bytes) {
+		DistributionSummary.builder(TRANSFER_BYTES)
+				.description("content transferred by an operation")
+				.baseUnit("bytes")
+				.tag("direction", direction)
+				.register(registry)
+				.record(bytes);
+	}
+
+	/**
+	 * @param listing
+	 *            syncFiles or changes
+	 */
+	public void pagesFetched(String listing, long pages) {
+		Counter.builder(LIST_PAGES)
+				.description("pages of a folder listing fetched")
+				.tag("listing", listing)
+				.register(registry)
+				.increment(pages);
+	}
+
+	/**
+	 * @param result
+	 *            changes, timeout or error
+	 */
+	public void longPoll(long nanos, String result) {
+		Timer.builder(LONGPOLL)
+				.description("round trip of a long-poll request")
+				.tag("result", result)
+				.register(registry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void backoff(long seconds) {
+		DistributionSummary.builder(LONGPOLL_BACKOFF)
+				.description("backoff asked for by a long-poll response")
+				.baseUnit("seconds")
+				.register(registry)
+				.record(seconds);
+	}
+
+	@Override
+	public void delivered(ChangeEventListener listener, List<ChangeMessage> changes, long callbackNanos, boolean failed) {
+		String name = listenerName(listener);
+		Counter.builder(LISTENER_EVENTS)
+				.description("changes handed to a listener")
+				.tag("listener", name)
+				.register(registry)
+				.increment(changes.size());
+		Timer.builder(LISTENER_CALLBACK)
+				.description("time spent in a listener callback")
+				.tag("listener", name)
+				.tag("outcome", outcome(!failed))
+				.register(registry)
+				.record(callbackNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void bindListenerQueue(ChangeEventListener listener, LongPoolService longPoolService) {
+		Gauge.builder(LISTENER_QUEUE, longPoolService, service -> service.getQueueDepths().getOrDefault(listener, 0))
+				.description("changes queued for a listener")
+				.tag("listener", listenerName(listener))
+				.register(registry);
+	}
+
+	public void bindLongPoolService(LongPoolService longPoolService) {
+		FunctionCounter.builder(CHANGES_COLLAPSED, longPoolService, LongPoolService::getCollapsedChangeCount)
+				.description("changes collapsed into a later change of the same path")
+				.register(registry);
+	}
+
+	public void bindDropBoxService(DropBoxService dropBoxService) {
+		for (String operation : dropBoxService.getConcurrencyLimits().keySet()) {
+			Gauge.builder(CONCURRENCY_LIMIT, dropBoxService, service -> service.getConcurrencyLimits().getOrDefault(operation, 0))
+					.description("concurrency limit of bulk operations")
+					.tag("operation", operation)
+					.register(registry);
+		}
+	}
+
+	public void bindThrottler(RequestThrottler throttler) {
+		Gauge.builder(REQUESTS_IN_FLIGHT, throttler, RequestThrottler::getInFlightCount)
+				.description("requests waiting for a response")
+				.register(registry);
+		FunctionCounter.builder(REQUESTS_PAUSED, throttler, RequestThrottler::getPauseCount)
+				.description("pauses asked for by a retry-after")
+				.register(registry);
+		FunctionCounter.builder(REQUESTS_RETRIED, throttler, RequestThrottler::getRetryCount)
+				.description("retries of transient errors")
+				.register(registry);
+	}
+
+	public void bindPrefetcher(ContentPrefetcher prefetcher) {
+		FunctionCounter.builder(PREFETCH + ".downloads", prefetcher, ContentPrefetcher::getDownloadCount)
+				.description("changed files prefetched")
+				.register(registry);
+		FunctionCounter.builder(PREFETCH + ".spooled", prefetcher, ContentPrefetcher::getSpooledCount)
+				.description("prefetched files spooled to disk")
+				.register(registry);
+		FunctionCounter.builder(PREFETCH + ".failures", prefetcher, ContentPrefetcher::getFailureCount)
+				.description("prefetches that failed")
+				.register(registry);
+		Gauge.builder(PREFETCH + ".memory", prefetcher, ContentPrefetcher::getMemoryInUse)
+				.description("memory held by prefetched content")
+				.baseUnit("bytes")
+				.register(registry);
+	}
+
+	public static String listenerName(ChangeEventListener listener) {
+		String name = listener.getClass().getSimpleName();
+		return name.isEmpty() ? listener.getClass().getName() : name;
+	}
+
+	private static String outcome(boolean success) {
+		return success ? "success" : "failure";
+	}
+
+}
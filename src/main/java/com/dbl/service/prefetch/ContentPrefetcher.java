@@ -0,0 +1,382 @@
+package com.dbl.service.prefetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.domain.message.FileContent;
+import com.dbl.service.DropBoxExecutors;
+import com.dbl.service.DropBoxUtils;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.FileMetadata;
+
+/**
+ * Download the content of changed files once, before the change reaches the
+ * listeners, so listeners share one download instead of each downloading the
+ * file again.
+ * 
+ * Files up to a size, optionally of some formats only, are downloaded at the
+ * revision of the change with bounded concurrency. Content is held in memory
+ * while the content still referenced by changes fits the memory budget and is
+ * spooled to disk otherwise. Memory is given back and spool files are deleted
+ * once every reference to the content was {@link FileContent#close() closed},
+ * or once the content is garbage collected when a reference was never closed.
+ * 
+ * A file that fails to download reaches the listeners without content.
+ */
+public class ContentPrefetcher implements AutoCloseable {
+	private final Logger logger = LoggerFactory.getLogger(ContentPrefetcher.class);
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private final DropBoxUtils dropBoxUtils;
+	private final long maxFileSize;
+	private final List<String> fileFormats;
+	private final long memoryBudget;
+	private final Path spoolDirectory;
+	private final int concurrency;
+	// guarded by this, created again by the first prefetch after a close
+	private ExecutorService executor;
+
+	// bytes of in memory content still referenced
+	private final AtomicLong memoryInUse = new AtomicLong();
+	private final AtomicLong downloads = new AtomicLong();
+	private final AtomicLong spooled = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	public ContentPrefetcher(DropBoxLibProperties appProperties, DropBoxUtils dropBoxUtils) {
+		this(dropBoxUtils, appProperties.getPrefetchMaxFileSize(), appProperties.getPrefetchFileFormat(), appProperties.getPrefetchConcurrency(),
+				appProperties.getPrefetchMemoryBudget(), spoolDirectory(appProperties.getTempDirectory()));
+	}
+
+	/**
+	 * @param fileFormats
+	 *            suffixes of the files prefetched, null or empty for every file
+	 * @param concurrency
+	 *            downloads running at the same time
+	 * @param memoryBudget
+	 *            bytes of content held in memory, content beyond it is
+	 *            spooled to disk
+	 */
+	public ContentPrefetcher(DropBoxUtils dropBoxUtils, long maxFileSize, List<String> fileFormats, int concurrency, long memoryBudget, Path spoolDirectory) {
+		this.dropBoxUtils = dropBoxUtils;
+		this.maxFileSize = maxFileSize;
+		this.fileFormats = new ArrayList<>();
+		if (fileFormats != null) {
+			for (String format : fileFormats) {
+				this.fileFormats.add(format.toLowerCase(Locale.ROOT));
+			}
+		}
+		this.memoryBudget = memoryBudget;
+		this.spoolDirectory = spoolDirectory;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * @return true if the content of the change is prefetched
+	 */
+	public boolean accepts(ChangeMessage changeMessage) {
+		if (changeMessage.getMessageType() != ChangeType.FILE || !(changeMessage.getMessageDetails() instanceof FileMetadata file)) {
+			return false;
+		}
+		if (file.getSize() > maxFileSize || !file.getIsDownloadable() || file.getPathLower() == null) {
+			return false;
+		}
+		if (fileFormats.isEmpty()) {
+			return true;
+		}
+		for (String format : fileFormats) {
+			if (file.getPathLower().endsWith(format)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Download the content of the accepted changes and attach it to them,
+	 * returns once every download ended.
+	 */
+	public void prefetch(List<ChangeMessage> changeMessages, DbxClientV2 client) throws InterruptedException {
+		List<Future<?>> pending = new ArrayList<>();
+		ExecutorService executor = null;
+		for (ChangeMessage changeMessage : changeMessages) {
+			if (accepts(changeMessage) && changeMessage.getContent() == null) {
+				if (executor == null) {
+					executor = executor();
+				}
+				pending.add(executor.submit(() -> prefetch(changeMessage, client)));
+			}
+		}
+		try {
+			for (Future<?> future : pending) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			// failures are handled by every download
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			for (Future<?> future : pending) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	public long getDownloadCount() {
+		return downloads.get();
+	}
+
+	public long getSpooledCount() {
+		return spooled.get();
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * @return bytes of prefetched content held in memory and still referenced
+	 */
+	public long getMemoryInUse() {
+		return memoryInUse.get();
+	}
+
+	/**
+	 * Stop the downloads, the next prefetch starts new workers. Content
+	 * already attached to changes stays readable.
+	 */
+	@Override
+	public synchronized void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private synchronized ExecutorService executor() {
+		if (executor == null) {
+			executor = DropBoxExecutors.newExecutor("dropbox-prefetch", concurrency, false);
+		}
+		return executor;
+	}
+
+	private void prefetch(ChangeMessage changeMessage, DbxClientV2 client) {
+		FileMetadata file = (FileMetadata) changeMessage.getMessageDetails();
+		// the revision of the change, a later revision is a change of its own
+		String revision = "rev:" + file.getRev();
+		try {
+			if (reserveMemory(file.getSize())) {
+				try {
+					ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.getSize());
+					dropBoxUtils.download(revision, outputStream, client);
+					MemoryContent content = new MemoryContent(outputStream.toByteArray());
+					content.releaseWith(new ReleaseMemory(memoryInUse, file.getSize()));
+					changeMessage.setContent(content);
+					changeMessage.setFile(content.bytes);
+				} catch (Exception e) {
+					memoryInUse.addAndGet(-file.getSize());
+					throw e;
+				}
+			} else {
+				Files.createDirectories(spoolDirectory);
+				Path spoolFile = Files.createTempFile(spoolDirectory, "prefetch", ".tmp");
+				try {
+					try (OutputStream outputStream = Files.newOutputStream(spoolFile)) {
+						dropBoxUtils.download(revision, outputStream, client);
+					}
+					SpooledContent content = new SpooledContent(spoolFile, Files.size(spoolFile));
+					content.releaseWith(new DeleteSpoolFile(spoolFile));
+					changeMessage.setContent(content);
+					spooled.incrementAndGet();
+				} catch (Exception e) {
+					Files.deleteIfExists(spoolFile);
+					throw e;
+				}
+			}
+			downloads.incrementAndGet();
+		} catch (Exception e) {
+			failures.incrementAndGet();
+			logger.warn("could not prefetch {}, listeners get the change without content", file.getPathLower(), e);
+		}
+	}
+
+	private boolean reserveMemory(long size) {
+		while (true) {
+			long inUse = memoryInUse.get();
+			if (inUse + size > memoryBudget) {
+				return false;
+			}
+			if (memoryInUse.compareAndSet(inUse, inUse + size)) {
+				return true;
+			}
+		}
+	}
+
+	private static Path spoolDirectory(String directory) {
+		return Path.of(directory == null || directory.isEmpty() ? System.getProperty("java.io.tmpdir") : directory, "dropboxlib-prefetch");
+	}
+
+	/**
+	 * Content counting its references, the cleaner action runs once with the
+	 * last close or when the content is garbage collected.
+	 */
+	private abstract static class SharedContent implements FileContent {
+		private final AtomicInteger references = new AtomicInteger(1);
+		private volatile Cleaner.Cleanable cleanable;
+
+		// the action must not reference the content
+		void releaseWith(Runnable action) {
+			cleanable = CLEANER.register(this, action);
+		}
+
+		@Override
+		public FileContent retain() {
+			while (true) {
+				int count = references.get();
+				if (count == 0) {
+					throw new IllegalStateException("prefetched content was released");
+				}
+				if (references.compareAndSet(count, count + 1)) {
+					return this;
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			while (true) {
+				int count = references.get();
+				if (count == 0) {
+					return;
+				}
+				if (references.compareAndSet(count, count - 1)) {
+					if (count == 1) {
+						cleanable.clean();
+					}
+					return;
+				}
+			}
+		}
+
+		protected void checkRetained() {
+			if (references.get() == 0) {
+				throw new IllegalStateException("prefetched content was released");
+			}
+		}
+	}
+
+	private static final class MemoryContent extends SharedContent {
+		private final byte[] bytes;
+
+		private MemoryContent(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public long getSize() {
+			return bytes.length;
+		}
+
+		@Override
+		public InputStream openStream() {
+			checkRetained();
+			return new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		public byte[] getBytes() {
+			checkRetained();
+			return bytes;
+		}
+
+		@Override
+		public boolean isInMemory() {
+			return true;
+		}
+	}
+
+	private static final class SpooledContent extends SharedContent {
+		private final Path file;
+		private final long size;
+
+		private SpooledContent(Path file, long size) {
+			this.file = file;
+			this.size = size;
+		}
+
+		@Override
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			checkRetained();
+			return Files.newInputStream(file);
+		}
+
+		@Override
+		public byte[] getBytes() throws IOException {
+			checkRetained();
+			return Files.readAllBytes(file);
+		}
+
+		@Override
+		public boolean isInMemory() {
+			return false;
+		}
+	}
+
+	// cleaner actions must not reference the content they clean up after
+	private static final class ReleaseMemory implements Runnable {
+		private final AtomicLong memoryInUse;
+		private final long size;
+
+		private ReleaseMemory(AtomicLong memoryInUse, long size) {
+			this.memoryInUse = memoryInUse;
+			this.size = size;
+		}
+
+		@Override
+		public void run() {
+			memoryInUse.addAndGet(-size);
+		}
+	}
+
+	private static final class DeleteSpoolFile implements Runnable {
+		private final Path file;
+
+		private DeleteSpoolFile(Path file) {
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// the temp directory is cleaned up eventually
+			}
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.dbl.service.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * Binary snapshot of a recursive folder listing and of the cursor it ended
+ * with. Loading a snapshot and continuing from its cursor is much faster than
+ * listing the folder again.
+ * 
+ * Entries are encoded with {@link MetadataCodec}.
+ */
+public class ListingSnapshot {
+
+	private static final int MAGIC = 0x44424c53; // DBLS
+	private static final int VERSION = 1;
+
+	private final String rootPath;
+	private final String cursor;
+	private final List<Metadata> entries;
+
+	public ListingSnapshot(String rootPath, String cursor, List<Metadata> entries) {
+		this.rootPath = rootPath;
+		this.cursor = cursor;
+		this.entries = entries;
+	}
+
+	public String getRootPath() {
+		return rootPath;
+	}
+
+	/**
+	 * @return cursor to continue the listing from
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public List<Metadata> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Apply the changes of a listing continued from the cursor of this snapshot.
+	 *
+	 * @param changes
+	 *            entries returned by list_folder/continue, in order
+	 * @param newCursor
+	 *            called once the changes are consumed, returns the cursor they
+	 *            ended with
+	 * @return snapshot with the changes applied
+	 */
+	public ListingSnapshot update(Iterator<? extends Metadata> changes, Supplier<String> newCursor) {
+		TreeMap<String, Metadata> byPath = new TreeMap<>();
+		for (Metadata entry : entries) {
+			byPath.put(entry.getPathLower(), entry);
+		}
+		while (changes.hasNext()) {
+			Metadata change = changes.next();
+			String path = change.getPathLower();
+			if (path == null) {
+				continue;
+			}
+			if (change instanceof DeletedMetadata || change instanceof FileMetadata) {
+				// a deleted folder, or a folder replaced by a file, takes its subtree along
+				byPath.subMap(path + "/", path + "0").clear();
+			}
+			if (change instanceof DeletedMetadata) {
+				byPath.remove(path);
+			} else {
+				byPath.put(path, change);
+			}
+		}
+		return new ListingSnapshot(rootPath, newCursor.get(), new ArrayList<>(byPath.values()));
+	}
+
+	/**
+	 * Write this snapshot, see {@link #write(Path, String, Iterator, Supplier)}.
+	 */
+	public void write(Path file) throws IOException {
+		write(file, rootPath, entries.iterator(), () -> cursor);
+	}
+
+	/**
+	 * Write the entries of a listing while it is iterated. The file is replaced
+	 * only once the whole listing is written.
+	 *
+	 * @param entries
+	 *            files and folders, other entries are skipped
+	 * @param cursor
+	 *            called once the entries are written, returns the cursor the
+	 *            listing ended with
+	 * @return number of entries written
+	 */
+	public static long write(Path file, String rootPath, Iterator<? extends Metadata> entries, Supplier<String> cursor) throws IOException {
+		Path target = file.toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		long count = 0;
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				MetadataCodec.writeString(out, rootPath);
+				while (entries.hasNext()) {
+					Metadata entry = entries.next();
+					if ((entry instanceof FileMetadata || entry instanceof FolderMetadata) && MetadataCodec.write(out, entry)) {
+						count++;
+					}
+				}
+				MetadataCodec.writeEnd(out);
+				out.writeLong(count);
+				MetadataCodec.writeString(out, cursor.get());
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return count;
+	}
+
+	/**
+	 * Read a snapshot through a memory mapping of the file.
+	 *
+	 * @throws IOException
+	 *             if the file is not a complete snapshot
+	 */
+	public static ListingSnapshot read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("snapshot " + file + " is larger than 2 GB");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("unsupported snapshot " + file);
+			}
+			String rootPath = MetadataCodec.readString(buffer);
+			List<Metadata> entries = new ArrayList<>();
+			for (Metadata entry = MetadataCodec.read(buffer); entry != null; entry = MetadataCodec.read(buffer)) {
+				entries.add(entry);
+			}
+			if (buffer.getLong() != entries.size()) {
+				throw new IOException("corrupt snapshot " + file + ", entry count does not match");
+			}
+			return new ListingSnapshot(rootPath, MetadataCodec.readString(buffer), entries);
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			throw new IOException("corrupt snapshot " + file, e);
+		}
+	}
+
+}
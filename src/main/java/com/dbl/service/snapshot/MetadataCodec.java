@@ -0,0 +1,137 @@
+package com.dbl.service.snapshot;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+
+/**
+ * Compact binary encoding of file, folder and deleted metadata, shared by the
+ * listing snapshots and the spill files of the change dispatch.
+ * 
+ * Only the fields used to locate and compare content are kept: names, ids,
+ * paths, revs, sizes, dates and content hashes. Media, sharing and property
+ * group details are not.
+ */
+public final class MetadataCodec {
+
+	private static final byte END = 0;
+	private static final byte FILE = 1;
+	private static final byte FOLDER = 2;
+	private static final byte DELETED = 3;
+	private static final int NULL_STRING = -1;
+
+	private MetadataCodec() {
+	}
+
+	/**
+	 * @return false when the entry is of a type that is not encoded, nothing
+	 *         is written then
+	 */
+	public static boolean write(DataOutput out, Metadata entry) throws IOException {
+		if (entry instanceof FileMetadata file) {
+			out.writeByte(FILE);
+			writeCommon(out, entry, file.getId());
+			writeString(out, file.getRev());
+			out.writeLong(file.getSize());
+			out.writeLong(file.getClientModified().getTime());
+			out.writeLong(file.getServerModified().getTime());
+			writeString(out, file.getContentHash());
+			out.writeBoolean(file.getIsDownloadable());
+		} else if (entry instanceof FolderMetadata folder) {
+			out.writeByte(FOLDER);
+			writeCommon(out, entry, folder.getId());
+			writeString(out, folder.getSharedFolderId());
+		} else if (entry instanceof DeletedMetadata) {
+			out.writeByte(DELETED);
+			writeCommon(out, entry, null);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Mark the end of a sequence of entries, read back as null.
+	 */
+	public static void writeEnd(DataOutput out) throws IOException {
+		out.writeByte(END);
+	}
+
+	/**
+	 * @return the next entry or null at the end mark
+	 * @throws IOException
+	 *             if the buffer does not hold an entry
+	 */
+	public static Metadata read(ByteBuffer buffer) throws IOException {
+		byte type = buffer.get();
+		if (type == END) {
+			return null;
+		}
+		String name = readString(buffer);
+		String id = readString(buffer);
+		String pathLower = readString(buffer);
+		String pathDisplay = readString(buffer);
+		String parentSharedFolderId = readString(buffer);
+		switch (type) {
+		case FILE:
+			String rev = readString(buffer);
+			long size = buffer.getLong();
+			Date clientModified = new Date(buffer.getLong());
+			Date serverModified = new Date(buffer.getLong());
+			return FileMetadata.newBuilder(name, id, clientModified, serverModified, rev, size)
+					.withPathLower(pathLower)
+					.withPathDisplay(pathDisplay)
+					.withParentSharedFolderId(parentSharedFolderId)
+					.withContentHash(readString(buffer))
+					.withIsDownloadable(buffer.get() != 0)
+					.build();
+		case FOLDER:
+			return FolderMetadata.newBuilder(name, id)
+					.withPathLower(pathLower)
+					.withPathDisplay(pathDisplay)
+					.withParentSharedFolderId(parentSharedFolderId)
+					.withSharedFolderId(readString(buffer))
+					.build();
+		case DELETED:
+			return new DeletedMetadata(name, pathLower, pathDisplay, parentSharedFolderId, null);
+		default:
+			throw new IOException("unknown metadata type " + type);
+		}
+	}
+
+	public static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(NULL_STRING);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	public static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == NULL_STRING) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeCommon(DataOutput out, Metadata entry, String id) throws IOException {
+		writeString(out, entry.getName());
+		writeString(out, id);
+		writeString(out, entry.getPathLower());
+		writeString(out, entry.getPathDisplay());
+		writeString(out, entry.getParentSharedFolderId());
+	}
+
+}
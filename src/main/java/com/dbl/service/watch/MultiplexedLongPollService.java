@@ -0,0 +1,48 @@
+package com.dbl.service.watch;
+
+import java.util.Collection;
+
+/**
+ * Long-poll many folders, of one or more accounts, without a dedicated thread
+ * and client pair per folder. Changes of a folder are only listed once its
+ * long-poll reports them.
+ */
+public interface MultiplexedLongPollService {
+
+	/**
+	 * This method will start watching the folder of the subscription, right
+	 * away when the service is running
+	 * 
+	 * @throws IllegalStateException
+	 *             when the long-polls run on platform threads and every one of
+	 *             them is taken by a subscription
+	 */
+	void subscribe(WatchSubscription subscription);
+
+	/**
+	 * This method will stop watching the folder of the subscription and
+	 * remove its cursor checkpoint, the clients of the account are released
+	 * with its last subscription
+	 * 
+	 * @return false if there was no subscription with the id
+	 */
+	boolean unsubscribe(String id);
+
+	Collection<WatchSubscription> getSubscriptions();
+
+	void start();
+
+	/**
+	 * This method will cancel the running long-polls and wait for the changes
+	 * being listed to reach the listeners
+	 */
+	void stop();
+
+	boolean isRunning();
+
+	/**
+	 * @return subscriptions listing their changes right now
+	 */
+	int getActiveFetchCount();
+
+}
@@ -0,0 +1,489 @@
+package com.dbl.service.watch;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+import com.dbl.service.DropBoxExecutors;
+import com.dbl.service.DropBoxUtils;
+import com.dbl.service.cursor.CursorStore;
+import com.dbl.service.dispatch.ChangeDispatcher;
+import com.dbl.service.dispatch.SubscriptionIndex;
+import com.dropbox.core.DbxAuthInfo;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxHost;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollError;
+import com.dropbox.core.v2.files.ListFolderLongpollErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link MultiplexedLongPollService} sharing its clients and threads between
+ * the subscriptions.
+ * 
+ * Every subscription cycles through a long-poll, a fetch of its changes when
+ * the long-poll reports some, and a wait when DropBox asks for a backoff or the
+ * subscription failed. Only the long-poll runs on a thread of its own, a
+ * virtual thread when the JVM supports it. Without virtual threads the
+ * long-polls share the poll threads, with more subscriptions than threads they
+ * take turns and are shortened so every subscription is polled about once per
+ * long-poll timeout. Fetches run on a small shared pool, waits are scheduled
+ * and hold no thread. Clients are created once per account, the long-poll
+ * client is shared by the folders of the account.
+ * 
+ * Every subscription delivers through a {@link ChangeDispatcher} of its own,
+ * so a slow listener holds back neither the fetch pool nor the other
+ * subscriptions. The cursor of a page is saved once its changes were
+ * delivered.
+ */
+public class MultiplexedLongPollServiceImpl implements MultiplexedLongPollService, SmartLifecycle {
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    // shortest long-poll timeout DropBox accepts
+    private static final long MIN_LONG_POLL_TIMEOUT_SECS = 30;
+
+    private final Logger logger = LoggerFactory.getLogger(MultiplexedLongPollServiceImpl.class);
+
+    private final DropBoxLibProperties appProperties;
+    private final DropBoxUtils dropBoxUtils;
+    private final CursorStore cursorStore;
+
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private final Map<String, AccountClients> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger activeFetches = new AtomicInteger();
+
+    // replaced on every start
+    private volatile ExecutorService pollExecutor;
+    private volatile ExecutorService fetchExecutor;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    public MultiplexedLongPollServiceImpl(DropBoxLibProperties appProperties, DropBoxUtils dropBoxUtils, CursorStore cursorStore) {
+        this.appProperties = appProperties;
+        this.dropBoxUtils = dropBoxUtils;
+        this.cursorStore = cursorStore;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.watch.MultiplexedLongPollService#subscribe(com.dbl.service.watch.WatchSubscription)
+     */
+    @Override
+    public void subscribe(WatchSubscription subscription) {
+        Watch watch = new Watch(subscription);
+        Watch previous = watches.putIfAbsent(subscription.getId(), watch);
+        if (previous != null) {
+            throw new IllegalArgumentException("there is already a watch subscription " + subscription.getId());
+        }
+        synchronized (this) {
+            // start may have picked it up already
+            if (running && watch.dispatcher == null) {
+                startWatch(watch);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.watch.MultiplexedLongPollService#unsubscribe(java.lang.String)
+     */
+    @Override
+    public boolean unsubscribe(String id) {
+        Watch watch = watches.remove(id);
+        if (watch == null) {
+            return false;
+        }
+        // nothing is fetched or saved after the long-poll of the watch ends
+        synchronized (watch) {
+            watch.cancelled = true;
+        }
+        ChangeDispatcher dispatcher = watch.dispatcher;
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        try {
+            cursorStore.remove(id);
+        } catch (IOException e) {
+            logger.error("Error on removing the cursor checkpoint of {}", id, e);
+        }
+        releaseClients(watch.subscription.getAccessToken());
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.watch.MultiplexedLongPollService#getSubscriptions()
+     */
+    @Override
+    public Collection<WatchSubscription> getSubscriptions() {
+        List<WatchSubscription> subscriptions = new ArrayList<>();
+        for (Watch watch : watches.values()) {
+            subscriptions.add(watch.subscription);
+        }
+        return subscriptions;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.watch.MultiplexedLongPollService#getActiveFetchCount()
+     */
+    @Override
+    public int getActiveFetchCount() {
+        return activeFetches.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.watch.MultiplexedLongPollService#start()
+     */
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        pollExecutor = DropBoxExecutors.newExecutor("dropbox-watch-poll", appProperties.getWatchPollThreads(), appProperties.isWatchVirtualThreads());
+        fetchExecutor = DropBoxExecutors.newExecutor("dropbox-watch-fetch", appProperties.getWatchFetchThreads(), false);
+        scheduler = Executors.newSingleThreadScheduledExecutor(DropBoxExecutors.namedThreadFactory("dropbox-watch-scheduler"));
+        running = true;
+        for (Watch watch : watches.values()) {
+            startWatch(watch);
+        }
+        logger.info("watching {} subscriptions", watches.size());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.watch.MultiplexedLongPollService#stop()
+     */
+    @Override
+    public void stop() {
+        ExecutorService polls;
+        ExecutorService fetches;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            scheduler.shutdownNow();
+            polls = pollExecutor;
+            fetches = fetchExecutor;
+        }
+        for (AccountClients accountClients : clients.values()) {
+            dropBoxUtils.cancelRequests(accountClients.longpoll);
+        }
+        polls.shutdownNow();
+        fetches.shutdown();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(appProperties.getLongPollStopTimeoutMillis());
+        try {
+            if (!fetches.awaitTermination(appProperties.getLongPollStopTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("changes of {} watch subscriptions were still being listed on stop", activeFetches.get());
+                fetches.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fetches.shutdownNow();
+        }
+        for (Watch watch : watches.values()) {
+            stopDelivery(watch, deadline);
+        }
+        logger.info("stopped watching {} subscriptions", watches.size());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.dbl.service.watch.MultiplexedLongPollService#isRunning()
+     */
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return appProperties.isLongPollAutoStartup();
+    }
+
+    private void poll(Watch watch) {
+        if (!isActive(watch)) {
+            return;
+        }
+        try {
+            if (watch.cursor == null) {
+                watch.cursor = getStartCursor(watch);
+            }
+            ListFolderLongpollResult result = clientsOf(watch).longpoll.files().listFolderLongpoll(watch.cursor, longPollTimeoutSecs());
+            long backoffMillis = result.getBackoff() == null ? 0 : TimeUnit.SECONDS.toMillis(result.getBackoff());
+            if (result.getChanges()) {
+                execute(fetchExecutor, () -> fetch(watch, backoffMillis));
+            } else {
+                watch.failures = 0;
+                schedulePoll(watch, backoffMillis);
+            }
+        } catch (Exception e) {
+            onFailure(watch, e);
+        }
+    }
+
+    private void fetch(Watch watch, long backoffMillis) {
+        if (!isActive(watch)) {
+            return;
+        }
+        activeFetches.incrementAndGet();
+        try {
+            DbxClientV2 client = clientsOf(watch).api;
+            ChangeDispatcher dispatcher = watch.dispatcher;
+            int changes = 0;
+            ListFolderResult result;
+            do {
+                result = client.files().listFolderContinue(watch.cursor);
+                long listedAt = System.currentTimeMillis();
+                for (Metadata metadata : result.getEntries()) {
+                    ChangeMessage changeMessage = new ChangeMessage();
+                    changeMessage.setMessageType(ChangeType.of(metadata));
+                    changeMessage.setMessageDetails(metadata);
+                    changeMessage.setListedAt(listedAt);
+                    for (ChangeEventListener listener : watch.subscriptionIndex().match(changeMessage)) {
+                        dispatcher.dispatch(listener, changeMessage);
+                    }
+                    changes++;
+                }
+                dispatcher.endOfPage();
+                watch.cursor = result.getCursor();
+                checkpointOnceDelivered(watch, dispatcher, watch.cursor);
+            } while (result.getHasMore() && isActive(watch));
+            logger.debug("{} changes of {}", changes, watch.subscription.getId());
+            watch.failures = 0;
+            schedulePoll(watch, backoffMillis);
+        } catch (Exception e) {
+            onFailure(watch, e);
+        } finally {
+            activeFetches.decrementAndGet();
+        }
+    }
+
+    private void onFailure(Watch watch, Exception e) {
+        if (!isActive(watch)) {
+            // cancelled by stop or unsubscribe
+            return;
+        }
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (isCursorReset(e)) {
+            logger.warn("cursor of {} was reset by dropbox, changes since the last checkpoint are skipped", watch.subscription.getId());
+            watch.cursor = null;
+            synchronized (watch) {
+                // pages of the reset cursor still being delivered are not saved
+                watch.pagesCheckpointed = watch.pagesListed;
+                try {
+                    cursorStore.remove(watch.subscription.getId());
+                } catch (IOException ioe) {
+                    logger.error("Error on removing the cursor checkpoint of {}", watch.subscription.getId(), ioe);
+                }
+            }
+        }
+        watch.failures++;
+        long backoffMillis = Math.min(appProperties.getWatchMaxBackoffMillis(), INITIAL_BACKOFF_MILLIS << Math.min(20, watch.failures - 1));
+        logger.warn("Error on watching {}, polling again in {} ms (failure {})", watch.subscription.getId(), backoffMillis, watch.failures, e);
+        schedulePoll(watch, backoffMillis);
+    }
+
+    // called with the monitor held, the dispatcher of the previous start is closed
+    private void startWatch(Watch watch) {
+        watch.dispatcher = new ChangeDispatcher(appProperties);
+        submitPoll(watch);
+    }
+
+    private void stopDelivery(Watch watch, long deadline) {
+        ChangeDispatcher dispatcher = watch.dispatcher;
+        if (dispatcher == null) {
+            return;
+        }
+        try {
+            if (!dispatcher.awaitIdle(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                logger.warn("changes of {} were still being delivered on stop", watch.subscription.getId());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcher.close();
+    }
+
+    /**
+     * @return timeout of a long-poll, shortened when the polls take turns on
+     *         the poll threads so a round stays within the configured timeout
+     */
+    long longPollTimeoutSecs() {
+        long timeout = appProperties.getWatchLongPollTimeoutSecs();
+        if (isPollingOnVirtualThreads()) {
+            return timeout;
+        }
+        int threads = Math.max(1, appProperties.getWatchPollThreads());
+        int rounds = (watches.size() + threads - 1) / threads;
+        if (rounds <= 1) {
+            return timeout;
+        }
+        return Math.min(timeout, Math.max(MIN_LONG_POLL_TIMEOUT_SECS, timeout / rounds));
+    }
+
+    private void schedulePoll(Watch watch, long delayMillis) {
+        if (delayMillis <= 0) {
+            submitPoll(watch);
+            return;
+        }
+        try {
+            scheduler.schedule(() -> submitPoll(watch), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    private void submitPoll(Watch watch) {
+        execute(pollExecutor, () -> poll(watch));
+    }
+
+    private void execute(ExecutorService executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    private boolean isActive(Watch watch) {
+        return running && !watch.cancelled;
+    }
+
+    private String getStartCursor(Watch watch) throws DbxException, IOException {
+        String cursor = cursorStore.load(watch.subscription.getId());
+        if (cursor != null) {
+            return cursor;
+        }
+        cursor = clientsOf(watch).api.files().listFolderGetLatestCursorBuilder(watch.subscription.getRootPath())
+                .withIncludeDeleted(true).withIncludeMediaInfo(false).withRecursive(true).start().getCursor();
+        cursorStore.save(watch.subscription.getId(), cursor);
+        return cursor;
+    }
+
+    // runs on the fetch thread, one fetch of the watch runs at a time
+    private void checkpointOnceDelivered(Watch watch, ChangeDispatcher dispatcher, String cursor) {
+        long page = ++watch.pagesListed;
+        dispatcher.afterDelivery(() -> checkpoint(watch, page, cursor));
+    }
+
+    // deliveries of different stripes may end in any order, only a later page is saved
+    private void checkpoint(Watch watch, long page, String cursor) {
+        synchronized (watch) {
+            if (watch.cancelled || page <= watch.pagesCheckpointed) {
+                return;
+            }
+            watch.pagesCheckpointed = page;
+            try {
+                cursorStore.save(watch.subscription.getId(), cursor);
+            } catch (IOException e) {
+                logger.error("Error on saving the cursor checkpoint of {}", watch.subscription.getId(), e);
+            }
+        }
+    }
+
+    private static boolean isCursorReset(Exception ex) {
+        if (ex instanceof ListFolderContinueErrorException continueError) {
+            return continueError.errorValue.isReset();
+        }
+        if (ex instanceof ListFolderLongpollErrorException longpollError) {
+            return longpollError.errorValue == ListFolderLongpollError.RESET;
+        }
+        return false;
+    }
+
+    private AccountClients clientsOf(Watch watch) {
+        return clients.computeIfAbsent(watch.subscription.getAccessToken(), token -> {
+            DbxAuthInfo auth = new DbxAuthInfo(token, DbxHost.DEFAULT);
+            return new AccountClients(
+                    dropBoxUtils.createClient(auth, dropBoxUtils.getDefaultConfig(appProperties), appProperties.getDropboxConfig()),
+                    dropBoxUtils.createClient(auth, dropBoxUtils.getLongPoolConfig(appProperties), appProperties.getDropboxConfig()));
+        });
+    }
+
+    // the clients of an account are released with its last watch
+    private void releaseClients(String accessToken) {
+        for (Watch watch : watches.values()) {
+            if (watch.subscription.getAccessToken().equals(accessToken)) {
+                return;
+            }
+        }
+        AccountClients accountClients = clients.remove(accessToken);
+        if (accountClients != null) {
+            dropBoxUtils.cancelRequests(accountClients.longpoll);
+        }
+    }
+
+    private boolean isPollingOnVirtualThreads() {
+        return appProperties.isWatchVirtualThreads() && DropBoxExecutors.isVirtualThreadsSupported();
+    }
+
+    private static final class AccountClients {
+        private final DbxClientV2 api;
+        private final DbxClientV2 longpoll;
+
+        private AccountClients(DbxClientV2 api, DbxClientV2 longpoll) {
+            this.api = api;
+            this.longpoll = longpoll;
+        }
+    }
+
+    private final class Watch {
+        private final WatchSubscription subscription;
+        // replaced on every start
+        private volatile ChangeDispatcher dispatcher;
+        // one poll or fetch of the watch runs at a time, each starts after the previous ended
+        private volatile String cursor;
+        private volatile int failures;
+        private volatile long pagesListed;
+        // written with the watch held, so no checkpoint is saved after it was cancelled
+        private volatile boolean cancelled;
+        // guarded by the watch
+        private long pagesCheckpointed;
+        private SubscriptionIndex subscriptionIndex;
+
+        private Watch(WatchSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        // listeners may be added after subscribing
+        private SubscriptionIndex subscriptionIndex() {
+            List<ChangeEventListener> listeners = subscription.getListeners();
+            if (subscriptionIndex == null || subscriptionIndex.size() != listeners.size()) {
+                subscriptionIndex = new SubscriptionIndex(listeners, appProperties.getInterestingFileFormat());
+            }
+            return subscriptionIndex;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.dbl.service.watch;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.dbl.service.ChangeEventListener;
+
+/**
+ * A DropBox folder watched for changes: the account token, the root path and
+ * the listeners of its changes.
+ */
+public class WatchSubscription {
+
+	private final String id;
+	private final String accessToken;
+	private final String rootPath;
+	private final List<ChangeEventListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param id
+	 *            unique name of the subscription, also the key of its cursor
+	 *            checkpoints
+	 * @param accessToken
+	 *            token of the account owning the folder
+	 * @param rootPath
+	 *            folder watched recursively, empty for the whole account
+	 */
+	public WatchSubscription(String id, String accessToken, String rootPath) {
+		this.id = Objects.requireNonNull(id, "id");
+		this.accessToken = Objects.requireNonNull(accessToken, "accessToken");
+		this.rootPath = rootPath == null ? "" : rootPath;
+	}
+
+	public WatchSubscription register(ChangeEventListener changeEventListener) {
+		if (!listeners.contains(changeEventListener)) {
+			listeners.add(changeEventListener);
+		}
+		return this;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getAccessToken() {
+		return accessToken;
+	}
+
+	public String getRootPath() {
+		return rootPath;
+	}
+
+	public List<ChangeEventListener> getListeners() {
+		return listeners;
+	}
+
+	@Override
+	public String toString() {
+		return "WatchSubscription [id=" + id + ", rootPath=" + rootPath + ", listeners=" + listeners.size() + "]";
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.dbl.service;
+
+import com.dbl.exception.DropBoxLibException;
+import com.dropbox.core.RateLimitException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void testLimit_growsAdditivelyWhileInUseAndHealthy() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 10, 100);
+
+        for (int round = 0; round < 10; round++) {
+            int limit = limiter.getLimit();
+            List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < limit; i++) {
+                permits.add(limiter.acquireUninterruptibly());
+            }
+            permits.forEach(AdaptiveConcurrencyLimiter.Permit::success);
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > 4 && grown < 10, "limit " + grown);
+        assertEquals(0, limiter.getInFlight());
+
+        // one request at a time does not need a higher limit
+        for (int i = 0; i < 100; i++) {
+            limiter.acquireUninterruptibly().success();
+        }
+        assertEquals(grown, limiter.getLimit());
+    }
+
+    @Test
+    void testLimit_isHalvedOncePerOverload() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 8, 1, 10, 100);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            permits.add(limiter.acquireUninterruptibly());
+        }
+
+        // requests throttled together cut the limit once
+        DropBoxLibException throttled = new DropBoxLibException("error", new RateLimitException("request", "too many requests", 1, TimeUnit.SECONDS));
+        permits.forEach(permit -> permit.failed(throttled));
+        assertEquals(4, limiter.getLimit());
+        assertEquals(8, limiter.getDropCount());
+
+        AdaptiveConcurrencyLimiter.Permit later = limiter.acquireUninterruptibly();
+        later.dropped();
+        assertEquals(2, limiter.getLimit());
+
+        limiter.acquireUninterruptibly().failed(new DropBoxLibException("path not found"));
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void testThrottled_cutsTheLimitOfThePermitOfTheCurrentThread() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 8, 1, 10, 100);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquireUninterruptibly();
+
+        // a thread without a permit does not touch the limit
+        Thread other = new Thread(AdaptiveConcurrencyLimiter::throttled);
+        other.start();
+        other.join(5000);
+        assertEquals(8, limiter.getLimit());
+
+        // the client retries the throttled request on its own, the limit is cut before it succeeds
+        AdaptiveConcurrencyLimiter.throttled();
+        AdaptiveConcurrencyLimiter.throttled();
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getInFlight());
+
+        permit.success();
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, limiter.getDropCount());
+
+        // once given back the permit is no longer the current one
+        AdaptiveConcurrencyLimiter.throttled();
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void testLimit_isCutOnLatencySpike() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 10, 1, 10, 2);
+        for (int i = 0; i < 5; i++) {
+            limiter.acquireUninterruptibly().success();
+        }
+
+        AdaptiveConcurrencyLimiter.Permit slow = limiter.acquireUninterruptibly();
+        Thread.sleep(50);
+        slow.success();
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void testLimit_largeTransferIsNotASpike() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 10, 1, 10, 2);
+        for (int i = 0; i < 5; i++) {
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.acquireUninterruptibly();
+            Thread.sleep(5);
+            permit.success(1024);
+        }
+
+        AdaptiveConcurrencyLimiter.Permit large = limiter.acquireUninterruptibly();
+        Thread.sleep(50);
+        large.success(100L * 1024 * 1024);
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    void testAcquire_waitsAtTheLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 2);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread waiting = new Thread(() -> {
+            limiter.acquireUninterruptibly().release();
+            acquired.set(true);
+        });
+        waiting.start();
+        waiting.join(200);
+        assertFalse(acquired.get());
+
+        first.success();
+        first.release();
+        waiting.join(5000);
+        assertTrue(acquired.get());
+        assertEquals(1, limiter.getLimit());
+    }
+}
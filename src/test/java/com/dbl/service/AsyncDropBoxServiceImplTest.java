@@ -0,0 +1,75 @@
+package com.dbl.service;
+
+import com.dbl.exception.DropBoxLibException;
+import com.dropbox.core.v2.files.FileMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AsyncDropBoxServiceImplTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final DropBoxService dropBoxService = mock(DropBoxService.class);
+    private final AsyncDropBoxService asyncService = new AsyncDropBoxServiceImpl(dropBoxService, executor);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testCheckPath_completesWithResultOrFailure() throws Exception {
+        when(dropBoxService.checkPath("/a")).thenReturn(true);
+        when(dropBoxService.checkPath("/b")).thenThrow(new DropBoxLibException("fail"));
+
+        assertTrue(asyncService.checkPath("/a").get(5, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> asyncService.checkPath("/b").get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DropBoxLibException.class, failure.getCause());
+    }
+
+    @Test
+    void testCancel_stopsRunningDownload() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Throwable> stopped = new CompletableFuture<>();
+        when(dropBoxService.download(eq("/big.bin"), any(OutputStream.class))).thenAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(1);
+            started.countDown();
+            try {
+                while (true) {
+                    outputStream.write(new byte[1024]);
+                    Thread.sleep(1);
+                }
+            } catch (InterruptedIOException | InterruptedException e) {
+                stopped.complete(e);
+                throw new DropBoxLibException("download interrupted", e);
+            }
+        });
+
+        CompletableFuture<FileMetadata> download = asyncService.download("/big.bin", new ByteArrayOutputStream());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(download.cancel(true));
+
+        assertNotNull(stopped.get(5, TimeUnit.SECONDS));
+        assertTrue(download.isCancelled());
+        // requests blocked on a socket are aborted too
+        verify(dropBoxService).cancelRequests(any(Thread.class));
+        // the worker thread is free for the next operation
+        when(dropBoxService.checkPath("/a")).thenReturn(true);
+        assertTrue(asyncService.checkPath("/a").get(5, TimeUnit.SECONDS));
+    }
+
+}
@@ -1,11 +1,22 @@
 package com.dbl.service;
 
 import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.BatchResult;
 import com.dbl.exception.DropBoxLibException;
+import com.dbl.service.cache.DownloadCache;
+import com.dbl.service.index.MetadataIndex;
 import com.dropbox.core.v2.DbxClientV2;
 import com.dropbox.core.v2.files.DbxUserFilesRequests;
 import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.CommitInfo;
 import com.dropbox.core.v2.files.ListRevisionsResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.RelocationBatchErrorEntry;
+import com.dropbox.core.v2.files.RelocationBatchResultEntry;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.UploadSessionFinishArg;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchResultEntry;
+import com.dropbox.core.v2.files.UploadSessionFinishError;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -14,8 +25,13 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.powermock.reflect.Whitebox;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -40,6 +56,7 @@ class DropBoxServiceImplTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(dropBoxUtils.getRequestThrottler()).thenReturn(new RequestThrottler(new DropBoxLibProperties()));
         dropBoxService = new DropBoxServiceImpl(properties, dropBoxUtils);
         // inject mock client manually since DropBoxUtils creates it
         Whitebox.setInternalState(dropBoxService, "client", client);
@@ -83,6 +100,91 @@ class DropBoxServiceImplTest {
         assertTrue(ex.getMessage().contains("error while download file"));
     }
 
+    @Test
+    void testDownload_toOutputStream_success() throws Exception {
+        String filePath = "/some/file.txt";
+        FileMetadata mockMetadata = mock(FileMetadata.class);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        when(dropBoxUtils.download(filePath, outputStream, client)).thenReturn(mockMetadata);
+
+        FileMetadata result = dropBoxService.download(filePath, outputStream);
+
+        assertSame(mockMetadata, result);
+        verify(dropBoxUtils, never()).download(filePath, client);
+    }
+
+    @Test
+    void testDownload_cachedRevCheckedUnlessTheLongPollIsLive() throws Exception {
+        String filePath = "/some/file.txt";
+        DownloadCache downloadCache = mock(DownloadCache.class);
+        LongPoolService longPoolService = mock(LongPoolService.class);
+        FileMetadata cached = mock(FileMetadata.class);
+        when(cached.getRev()).thenReturn("000000001");
+        when(downloadCache.getMetadata(filePath)).thenReturn(cached);
+        when(downloadCache.get(filePath)).thenReturn(new byte[]{1});
+        when(properties.isLongPull()).thenReturn(true);
+        when(client.files()).thenReturn(userFilesRequests);
+        when(userFilesRequests.getMetadata(filePath)).thenReturn(cached);
+        DropBoxServiceImpl cachingService = new DropBoxServiceImpl(properties, dropBoxUtils, downloadCache);
+        Whitebox.setInternalState(cachingService, "client", client);
+        cachingService.setLongPoolService(longPoolService);
+
+        // configured but not running
+        assertArrayEquals(new byte[]{1}, cachingService.download(filePath));
+        verify(userFilesRequests, times(1)).getMetadata(filePath);
+
+        when(longPoolService.isRunning()).thenReturn(true);
+        when(longPoolService.isHealth()).thenReturn(true);
+        assertArrayEquals(new byte[]{1}, cachingService.download(filePath));
+        verify(userFilesRequests, times(1)).getMetadata(filePath);
+    }
+
+    @Test
+    void testCheckPath_indexOnlyAnswersWhileTheLongPollIsLive() throws Exception {
+        MetadataIndex metadataIndex = mock(MetadataIndex.class);
+        LongPoolService longPoolService = mock(LongPoolService.class);
+        when(metadataIndex.isReady()).thenReturn(true);
+        when(metadataIndex.covers(anyString())).thenReturn(true);
+        when(metadataIndex.exists("/a.txt")).thenReturn(true);
+        when(client.files()).thenReturn(userFilesRequests);
+        when(userFilesRequests.getMetadata("/a.txt")).thenReturn(mock(FileMetadata.class));
+        DropBoxServiceImpl indexedService = new DropBoxServiceImpl(properties, dropBoxUtils, null, metadataIndex);
+        Whitebox.setInternalState(indexedService, "client", client);
+        indexedService.setLongPoolService(longPoolService);
+
+        assertTrue(indexedService.checkPath("/a.txt"));
+        verify(userFilesRequests, times(1)).getMetadata("/a.txt");
+
+        when(longPoolService.isRunning()).thenReturn(true);
+        when(longPoolService.isHealth()).thenReturn(true);
+        assertTrue(indexedService.checkPath("/a.txt"));
+        verify(userFilesRequests, times(1)).getMetadata("/a.txt");
+        // a missing path fails like it does without the index
+        assertThrows(DropBoxLibException.class, () -> indexedService.checkPath("/missing.txt"));
+    }
+
+    @Test
+    void testDownloadAllBatch_reportsFailuresPerPath() throws Exception {
+        FileMetadata file1 = mock(FileMetadata.class);
+        FileMetadata file2 = mock(FileMetadata.class);
+        when(file1.getPathLower()).thenReturn("/folder/a.txt");
+        when(file2.getPathLower()).thenReturn("/folder/b.txt");
+        when(properties.getDownloadConcurrency()).thenReturn(2);
+        when(dropBoxUtils.download("/folder/a.txt", client)).thenReturn(new byte[]{1});
+        when(dropBoxUtils.download("/folder/b.txt", client)).thenThrow(new RuntimeException("fail"));
+
+        DropBoxServiceImpl spyService = Mockito.spy(dropBoxService);
+        doReturn(List.of(file1, file2)).when(spyService).allFiles("/folder", true);
+
+        BatchResult<byte[]> result = spyService.downloadAllBatch("/folder");
+
+        assertArrayEquals(new byte[]{1}, result.getSuccesses().get("/folder/a.txt"));
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey("/folder/b.txt"));
+        assertThrows(DropBoxLibException.class, () -> spyService.downloadAll("/folder"));
+    }
+
     @Test
     void testUpload_success() throws Exception {
         FileMetadata mockMetadata = mock(FileMetadata.class);
@@ -94,6 +196,56 @@ class DropBoxServiceImplTest {
         assertNotNull(result);
     }
 
+    @Test
+    void testUploadAll_commitsUploadedSessionsInBatches() throws Exception {
+        when(properties.getUploadConcurrency()).thenReturn(2);
+        when(properties.getBatchSize()).thenReturn(2);
+        Map<String, InputStream> files = new LinkedHashMap<>();
+        for (String name : List.of("a", "b", "c", "d", "e")) {
+            InputStream content = mock(InputStream.class);
+            files.put("/up/" + name, content);
+            if (name.equals("a")) {
+                when(dropBoxUtils.uploadSession(content, client, properties)).thenThrow(new IOException("fail"));
+            } else {
+                when(dropBoxUtils.uploadSession(content, client, properties)).thenReturn(new UploadSessionCursor("session-" + name, 1));
+            }
+        }
+        when(dropBoxUtils.getCommitInfo(anyString(), eq(false))).thenAnswer(invocation -> CommitInfo.newBuilder(invocation.getArgument(0)).build());
+        FileMetadata uploaded = mock(FileMetadata.class);
+        when(dropBoxUtils.uploadSessionFinishBatch(anyList(), eq(client), eq(properties))).thenAnswer(invocation -> {
+            List<UploadSessionFinishArg> entries = invocation.getArgument(0);
+            return entries.stream()
+                    .map(entry -> entry.getCommit().getPath().equals("/up/e")
+                            ? UploadSessionFinishBatchResultEntry.failure(UploadSessionFinishError.TOO_MANY_WRITE_OPERATIONS)
+                            : UploadSessionFinishBatchResultEntry.success(uploaded))
+                    .toList();
+        });
+
+        BatchResult<FileMetadata> result = dropBoxService.uploadAll(files, false);
+
+        assertEquals(List.of("/up/b", "/up/c", "/up/d"), List.copyOf(result.getSuccesses().keySet()));
+        assertEquals(Set.of("/up/a", "/up/e"), result.getFailures().keySet());
+        verify(dropBoxUtils, times(2)).uploadSessionFinishBatch(anyList(), eq(client), eq(properties));
+    }
+
+    @Test
+    void testRenameAll_reportsEntryFailuresBySourcePath() throws Exception {
+        when(properties.getBatchSize()).thenReturn(1000);
+        Metadata moved = mock(Metadata.class);
+        when(dropBoxUtils.moveBatch(anyList(), eq(client), eq(properties))).thenReturn(List.of(
+                RelocationBatchResultEntry.success(moved),
+                RelocationBatchResultEntry.failure(RelocationBatchErrorEntry.TOO_MANY_WRITE_OPERATIONS)));
+        Map<String, String> paths = new LinkedHashMap<>();
+        paths.put("/a.txt", "/archive/a.txt");
+        paths.put("/b.txt", "/archive/b.txt");
+
+        BatchResult<Metadata> result = dropBoxService.renameAll(paths);
+
+        assertSame(moved, result.getSuccesses().get("/a.txt"));
+        assertTrue(result.getFailures().get("/b.txt").getMessage().contains("/archive/b.txt"));
+        verify(dropBoxUtils, never()).copyBatch(anyList(), any(), any());
+    }
+
     @Test
     void testAllFiles_withFilter() {
         FileMetadata file1 = mock(FileMetadata.class);
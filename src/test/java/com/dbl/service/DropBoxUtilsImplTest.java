@@ -1,17 +1,200 @@
 package com.dbl.service;
 
+import com.dbl.config.DropBoxLibProperties;
 import com.dropbox.core.DbxDownloader;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeleteBatchJobStatus;
+import com.dropbox.core.v2.files.DeleteBatchLaunch;
+import com.dropbox.core.v2.files.DeleteBatchResult;
+import com.dropbox.core.v2.files.DeleteBatchResultData;
+import com.dropbox.core.v2.files.DeleteBatchResultEntry;
+import com.dropbox.core.v2.files.DeleteError;
+import com.dropbox.core.v2.files.DownloadBuilder;
 import com.dropbox.core.v2.files.DownloadZipResult;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.UploadSessionAppendV2Builder;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.UploadSessionStartBuilder;
+import com.dropbox.core.v2.files.UploadSessionStartResult;
+import com.dropbox.core.v2.files.UploadSessionType;
 import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
 
 public class DropBoxUtilsImplTest {
 
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDownloadRanged_retriesOnlyFailedRange() throws Exception {
+        byte[] content = new byte[3 * 1024 * 1024 + 10];
+        new Random(7).nextBytes(content);
+        FileMetadata metadata = FileMetadata.newBuilder("big.bin", "id:big", new Date(), new Date(), "0123456789abcdef", content.length)
+                .withPathLower("/big.bin").build();
+
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        DownloadBuilder builder = mock(DownloadBuilder.class);
+        when(client.files()).thenReturn(files);
+        when(files.getMetadata("/big.bin")).thenReturn(metadata);
+        when(files.downloadBuilder("rev:0123456789abcdef")).thenReturn(builder);
+
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        when(builder.range(anyLong(), anyLong())).thenAnswer(invocation -> {
+            long offset = invocation.getArgument(0);
+            long length = invocation.getArgument(1);
+            DownloadBuilder rangeBuilder = mock(DownloadBuilder.class);
+            if (offset == 1024 * 1024 && failedOnce.compareAndSet(false, true)) {
+                when(rangeBuilder.start()).thenThrow(new NetworkIOException(new IOException("connection reset")));
+            } else {
+                byte[] slice = Arrays.copyOfRange(content, (int) offset, (int) (offset + length));
+                when(rangeBuilder.start()).thenReturn(new DbxDownloader<>(metadata, new ByteArrayInputStream(slice)));
+            }
+            return rangeBuilder;
+        });
+
+        DropBoxLibProperties properties = new DropBoxLibProperties();
+        properties.setRangedDownloadPartSize(1024 * 1024);
+        properties.setRangedDownloadParallelism(2);
+
+        Path target = tempDir.resolve("big.bin");
+        FileMetadata result = new DropBoxUtilsImpl().downloadRanged("/big.bin", target, client, properties);
+
+        assertSame(metadata, result);
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(Files.exists(tempDir.resolve("big.bin.part")));
+        verify(builder, times(5)).range(anyLong(), anyLong());
+    }
+
+    @Test
+    void testUploadSession_appendsAlignedChunksAndClosesWithTheLast() throws Exception {
+        int chunkSize = 4 * 1024 * 1024;
+        byte[] content = new byte[2 * chunkSize + 100];
+        new Random(11).nextBytes(content);
+
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        UploadSessionStartBuilder startBuilder = mock(UploadSessionStartBuilder.class);
+        when(client.files()).thenReturn(files);
+        when(files.uploadSessionStartBuilder()).thenReturn(startBuilder);
+        when(startBuilder.withSessionType(UploadSessionType.CONCURRENT)).thenReturn(startBuilder);
+        when(startBuilder.uploadAndFinish(any(InputStream.class))).thenReturn(new UploadSessionStartResult("session"));
+
+        Map<Long, byte[]> appended = new ConcurrentHashMap<>();
+        Map<Long, Boolean> closed = new ConcurrentHashMap<>();
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        when(files.uploadSessionAppendV2Builder(any(UploadSessionCursor.class))).thenAnswer(invocation -> {
+            UploadSessionCursor cursor = invocation.getArgument(0);
+            UploadSessionAppendV2Builder appendBuilder = mock(UploadSessionAppendV2Builder.class);
+            when(appendBuilder.withClose(anyBoolean())).thenAnswer(close -> {
+                closed.put(cursor.getOffset(), close.getArgument(0));
+                return appendBuilder;
+            });
+            when(appendBuilder.uploadAndFinish(any(InputStream.class))).thenAnswer(upload -> {
+                if (cursor.getOffset() == chunkSize && failedOnce.compareAndSet(false, true)) {
+                    throw new NetworkIOException(new IOException("connection reset"));
+                }
+                appended.put(cursor.getOffset(), ((InputStream) upload.getArgument(0)).readAllBytes());
+                return null;
+            });
+            return appendBuilder;
+        });
+
+        DropBoxLibProperties properties = new DropBoxLibProperties();
+        properties.setUploadChunkSize(1000);
+        properties.setUploadParallelism(2);
+
+        UploadSessionCursor cursor = new DropBoxUtilsImpl().uploadSession(new ByteArrayInputStream(content), client, properties);
+
+        assertEquals("session", cursor.getSessionId());
+        assertEquals(content.length, cursor.getOffset());
+        assertEquals(Map.of(0L, false, (long) chunkSize, false, 2L * chunkSize, true), closed);
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        for (long offset : new long[]{0, chunkSize, 2L * chunkSize}) {
+            uploaded.write(appended.get(offset));
+        }
+        assertArrayEquals(content, uploaded.toByteArray());
+    }
+
+    @Test
+    void testDeleteBatch_pollsAsyncJobUntilComplete() throws Exception {
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(client.files()).thenReturn(files);
+        when(files.deleteBatch(anyList())).thenReturn(DeleteBatchLaunch.asyncJobId("job"));
+        Metadata deleted = new Metadata("a.txt", "/a.txt", "/a.txt", null, null);
+        DeleteBatchResult result = new DeleteBatchResult(List.of(
+                DeleteBatchResultEntry.success(new DeleteBatchResultData(deleted)),
+                DeleteBatchResultEntry.failure(DeleteError.TOO_MANY_WRITE_OPERATIONS)));
+        when(files.deleteBatchCheck("job")).thenReturn(DeleteBatchJobStatus.IN_PROGRESS, DeleteBatchJobStatus.IN_PROGRESS,
+                DeleteBatchJobStatus.complete(result));
+
+        DropBoxLibProperties properties = new DropBoxLibProperties();
+        properties.setBatchPollInitialDelayMillis(1);
+
+        List<DeleteBatchResultEntry> entries = new DropBoxUtilsImpl().deleteBatch(List.of("/a.txt", "/b.txt"), client, properties);
+
+        assertSame(deleted, entries.get(0).getSuccessValue().getMetadata());
+        assertTrue(entries.get(1).isFailure());
+        verify(files, times(3)).deleteBatchCheck("job");
+    }
+
+    @Test
+    void testDownloadZip_streamsEntriesToConsumer() throws Exception {
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(zipBytes)) {
+            zos.putNextEntry(new ZipEntry("folder/a.txt"));
+            zos.write("first".getBytes());
+            zos.putNextEntry(new ZipEntry("folder/b.txt"));
+            zos.write("second".getBytes());
+        }
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        DownloadZipResult zipResult = mock(DownloadZipResult.class);
+        when(client.files()).thenReturn(files);
+        when(files.downloadZip("/folder")).thenAnswer(invocation ->
+                new DbxDownloader<>(zipResult, new ByteArrayInputStream(zipBytes.toByteArray())));
+
+        Map<String, String> entries = new HashMap<>();
+        DownloadZipResult result = new DropBoxUtilsImpl().downloadZip("/folder", client, (entry, content) -> {
+            try (content) {
+                entries.put(entry.getName(), new String(content.readAllBytes()));
+            }
+        });
+
+        assertSame(zipResult, result);
+        assertEquals(Map.of("folder/a.txt", "first", "folder/b.txt", "second"), entries);
+
+        byte[] truncated = Arrays.copyOf(zipBytes.toByteArray(), 40);
+        when(files.downloadZip("/broken")).thenReturn(new DbxDownloader<>(zipResult, new ByteArrayInputStream(truncated)));
+        assertThrows(IOException.class, () -> new DropBoxUtilsImpl().downloadZip("/broken", client));
+    }
 
 /*
     @Test
@@ -0,0 +1,74 @@
+package com.dbl.service;
+
+import com.dbl.exception.DropBoxLibException;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DbxUserListFolderBuilder;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ListFolderIteratorTest {
+
+    private final DbxClientV2 client = mock(DbxClientV2.class);
+    private final DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+    private final DbxUserListFolderBuilder builder = mock(DbxUserListFolderBuilder.class);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(client.files()).thenReturn(files);
+        when(files.listFolderBuilder("/root")).thenReturn(builder);
+        when(builder.withRecursive(true)).thenReturn(builder);
+        when(builder.withLimit(anyLong())).thenReturn(builder);
+        when(builder.start()).thenReturn(page("c1", true, "/root/a", "/root/b"));
+        when(files.listFolderContinue("c1")).thenReturn(page("c2", true, "/root/c"));
+        when(files.listFolderContinue("c2")).thenReturn(page("c3", false, "/root/d"));
+    }
+
+    @Test
+    void testIterator_fetchesPagesLazilyUpToTheLastOne() throws Exception {
+        ListFolderIterator iterator = new ListFolderIterator(client, "/root", true, 2, false);
+
+        assertEquals("/root/a", iterator.next().getPathLower());
+        verify(files, never()).listFolderContinue(anyString());
+
+        List<String> rest = iterator.stream().map(Metadata::getPathLower).collect(Collectors.toList());
+
+        assertEquals(List.of("/root/b", "/root/c", "/root/d"), rest);
+        assertEquals("c3", iterator.getCursor());
+        assertEquals(3, iterator.getPageCount());
+        verify(builder).withLimit(2L);
+    }
+
+    @Test
+    void testStream_prefetchesNextPageAndSurfacesErrors() throws Exception {
+        try (Stream<Metadata> stream = new ListFolderIterator(client, "/root", true, 0, true).stream()) {
+            assertEquals(4, stream.count());
+        }
+        verify(builder, never()).withLimit(anyLong());
+
+        when(files.listFolderContinue("c2")).thenThrow(new DbxException("boom"));
+        ListFolderIterator failing = new ListFolderIterator(client, "/root", true, 0, true);
+        DropBoxLibException error = assertThrows(DropBoxLibException.class, () -> failing.forEachRemaining(entry -> { }));
+        assertTrue(error.getMessage().contains("c2"));
+    }
+
+    private static ListFolderResult page(String cursor, boolean hasMore, String... paths) {
+        List<Metadata> entries = Stream.of(paths)
+                .map(path -> (Metadata) new FolderMetadata(path.substring(path.lastIndexOf('/') + 1), "id:" + path, path, path, null, null, null, null, null))
+                .toList();
+        return new ListFolderResult(entries, cursor, hasMore);
+    }
+}
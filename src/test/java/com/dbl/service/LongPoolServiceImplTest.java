@@ -0,0 +1,310 @@
+package com.dbl.service;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.cursor.CursorStore;
+import com.dbl.service.cursor.InMemoryCursorStore;
+import com.dbl.service.dispatch.ChangeCoalescer;
+import com.dbl.service.dispatch.ChangeDispatcher;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListFolderGetLatestCursorBuilder;
+import com.dropbox.core.v2.files.ListFolderGetLatestCursorResult;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import org.junit.jupiter.api.Test;
+import org.powermock.reflect.Whitebox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LongPoolServiceImplTest {
+
+    @Test
+    void testConnect_resumesFromCheckpointAndSavesEveryPage() throws Exception {
+        DropBoxLibProperties properties = mock(DropBoxLibProperties.class);
+        when(properties.getDropBoxRootPath()).thenReturn("/root");
+        when(properties.isLongPull()).thenReturn(true, false);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        when(files.listFolderLongpoll(eq("c0"), anyLong())).thenReturn(new ListFolderLongpollResult(true, null));
+        when(files.listFolderContinue("c0")).thenReturn(new ListFolderResult(List.of(file("/root/a.txt")), "c1", true));
+        when(files.listFolderContinue("c1")).thenReturn(new ListFolderResult(List.of(file("/root/b.txt")), "c2", false));
+
+        CursorStore cursorStore = spy(new InMemoryCursorStore());
+        cursorStore.save("/root", "c0");
+        LongPoolServiceImpl longPoolService = new LongPoolServiceImpl(properties, dropBoxUtils, cursorStore);
+        List<String> changed = new ArrayList<>();
+        longPoolService.register(new ChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void change(ChangeMessage changeMessage) {
+                changed.add(changeMessage.getMessageDetails().getPathLower());
+            }
+        });
+
+        longPoolService.connect();
+
+        assertEquals(List.of("/root/a.txt", "/root/b.txt"), changed);
+        assertEquals("c2", cursorStore.load("/root"));
+        verify(cursorStore).save("/root", "c1");
+        verify(files, never()).listFolderGetLatestCursorBuilder(anyString());
+    }
+
+    @Test
+    void testConnect_retriesTheStartCursorWhenDropBoxCanNotBeReached() throws Exception {
+        DropBoxLibProperties properties = mock(DropBoxLibProperties.class);
+        when(properties.getDropBoxRootPath()).thenReturn("/root");
+        when(properties.isLongPull()).thenReturn(true, true, false);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        ListFolderGetLatestCursorBuilder latestCursor = mock(ListFolderGetLatestCursorBuilder.class, RETURNS_SELF);
+        when(latestCursor.start()).thenReturn(new ListFolderGetLatestCursorResult("c0"));
+        when(files.listFolderGetLatestCursorBuilder("/root")).thenThrow(new IllegalStateException("dropbox can not be reached")).thenReturn(latestCursor);
+        when(files.listFolderLongpoll(eq("c0"), anyLong())).thenReturn(new ListFolderLongpollResult(false, null));
+
+        CursorStore cursorStore = new InMemoryCursorStore();
+        LongPoolServiceImpl longPoolService = new LongPoolServiceImpl(properties, dropBoxUtils, cursorStore);
+        longPoolService.connect();
+
+        assertEquals("c0", cursorStore.load("/root"));
+        verify(files).listFolderLongpoll(eq("c0"), anyLong());
+        // the clients are created again after the failure
+        verify(dropBoxUtils, times(4)).createClient(any(), any(), any());
+    }
+
+    @Test
+    void testConnect_withStripesListsOnWhileTheListenerIsBusyAndSavesThePageOnceItWasDelivered() throws Exception {
+        DropBoxLibProperties properties = mock(DropBoxLibProperties.class);
+        when(properties.getDropBoxRootPath()).thenReturn("/root");
+        when(properties.isLongPull()).thenReturn(true, false);
+        when(properties.getDispatchStripes()).thenReturn(2);
+        when(properties.getDispatchQueueCapacity()).thenReturn(10);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        when(files.listFolderLongpoll(eq("c0"), anyLong())).thenReturn(new ListFolderLongpollResult(true, null));
+        when(files.listFolderContinue("c0")).thenReturn(new ListFolderResult(List.of(file("/root/a.txt")), "c1", true));
+        when(files.listFolderContinue("c1")).thenReturn(new ListFolderResult(List.of(file("/root/b.txt")), "c2", false));
+
+        CursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("/root", "c0");
+        LongPoolServiceImpl longPoolService = new LongPoolServiceImpl(properties, dropBoxUtils, cursorStore);
+        CountDownLatch busy = new CountDownLatch(1);
+        List<String> changed = Collections.synchronizedList(new ArrayList<>());
+        longPoolService.register(new ChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void change(ChangeMessage changeMessage) {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                changed.add(changeMessage.getMessageDetails().getPathLower());
+            }
+        });
+
+        // both pages are listed while the listener still holds the first change
+        longPoolService.connect();
+        verify(files).listFolderContinue("c1");
+        assertEquals("c0", cursorStore.load("/root"));
+
+        busy.countDown();
+        ChangeDispatcher changeDispatcher = Whitebox.getInternalState(longPoolService, "changeDispatcher");
+        assertTrue(changeDispatcher.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(2, changed.size());
+        assertEquals("c2", cursorStore.load("/root"));
+        changeDispatcher.close();
+    }
+
+    @Test
+    void testConnect_withPrefetchDeliversOffTheLoopAndListsAgainAfterAFailure() throws Exception {
+        DropBoxLibProperties properties = mock(DropBoxLibProperties.class);
+        when(properties.getDropBoxRootPath()).thenReturn("/root");
+        when(properties.isLongPull()).thenReturn(true, true, true, false);
+        when(properties.isPrefetchEnabled()).thenReturn(true);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        when(files.listFolderLongpoll(eq("c0"), anyLong())).thenReturn(new ListFolderLongpollResult(true, null));
+        when(files.listFolderContinue("c0")).thenReturn(new ListFolderResult(List.of(file("/root/a.txt")), "c1", false));
+
+        CursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("/root", "c0");
+        LongPoolServiceImpl longPoolService = new LongPoolServiceImpl(properties, dropBoxUtils, cursorStore);
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(2);
+        longPoolService.register(new ChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void change(ChangeMessage changeMessage) {
+                threads.add(Thread.currentThread().getName());
+                delivered.countDown();
+                if (threads.size() == 1) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }
+        });
+        // polls from the cursor of the page until the failed delivery was seen
+        when(files.listFolderLongpoll(eq("c1"), anyLong())).thenAnswer(invocation -> {
+            for (int i = 0; i < 1000 && Whitebox.getInternalState(longPoolService, "deliveryFailure") == null; i++) {
+                Thread.sleep(10);
+            }
+            return new ListFolderLongpollResult(false, null);
+        });
+
+        longPoolService.connect();
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(2, threads.size());
+        assertTrue(threads.get(0).startsWith("dropbox-delivery"), threads.get(0));
+        verify(files, times(2)).listFolderContinue("c0");
+        for (int i = 0; i < 100 && !"c1".equals(cursorStore.load("/root")); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("c1", cursorStore.load("/root"));
+    }
+
+    @Test
+    void testStop_endsTheLoopBlockedInTheLongPoll() throws Exception {
+        DropBoxLibProperties properties = mock(DropBoxLibProperties.class);
+        when(properties.getDropBoxRootPath()).thenReturn("/root");
+        when(properties.isLongPull()).thenReturn(true);
+        when(properties.getLongPollStopTimeoutMillis()).thenReturn(10_000L);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        CountDownLatch polling = new CountDownLatch(1);
+        when(files.listFolderLongpoll(eq("c0"), anyLong())).thenAnswer(invocation -> {
+            polling.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(2));
+            return new ListFolderLongpollResult(false, null);
+        });
+
+        CursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("/root", "c0");
+        LongPoolServiceImpl longPoolService = new LongPoolServiceImpl(properties, dropBoxUtils, cursorStore);
+
+        longPoolService.start();
+        assertTrue(polling.await(10, TimeUnit.SECONDS));
+        assertTrue(longPoolService.isRunning());
+
+        long started = System.nanoTime();
+        longPoolService.stop();
+
+        assertFalse(longPoolService.isRunning());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+        verify(files, times(1)).listFolderLongpoll(anyString(), anyLong());
+    }
+
+    @Test
+    void testStart_runsTheLoopAgainAfterItEndedOnAnError() throws Exception {
+        DropBoxLibProperties properties = mock(DropBoxLibProperties.class);
+        when(properties.getDropBoxRootPath()).thenReturn("/root");
+        when(properties.isLongPull()).thenReturn(true);
+        when(properties.getLongPollStopTimeoutMillis()).thenReturn(10_000L);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        // errors reaching DropBox are retried by the loop, one before it ends the run
+        when(dropBoxUtils.createClient(any(), any(), any())).thenThrow(new IllegalStateException("no access token")).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        CountDownLatch polling = new CountDownLatch(1);
+        when(files.listFolderLongpoll(eq("c0"), anyLong())).thenAnswer(invocation -> {
+            polling.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(2));
+            return new ListFolderLongpollResult(false, null);
+        });
+        CursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("/root", "c0");
+        LongPoolServiceImpl longPoolService = new LongPoolServiceImpl(properties, dropBoxUtils, cursorStore);
+
+        longPoolService.start();
+        for (int i = 0; i < 1000 && Whitebox.getInternalState(longPoolService, "loopExecutor") != null; i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(longPoolService.isRunning());
+
+        longPoolService.start();
+        assertTrue(polling.await(10, TimeUnit.SECONDS));
+        assertTrue(longPoolService.isRunning());
+        longPoolService.stop();
+        assertFalse(longPoolService.isRunning());
+    }
+
+    @Test
+    void testStop_closesTheCoalescerAndStartCreatesANewOne() throws Exception {
+        DropBoxLibProperties properties = mock(DropBoxLibProperties.class);
+        when(properties.getDropBoxRootPath()).thenReturn("/root");
+        when(properties.isLongPull()).thenReturn(true);
+        when(properties.getLongPollStopTimeoutMillis()).thenReturn(10_000L);
+        when(properties.getCoalesceWindowMillis()).thenReturn(50L);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        CountDownLatch polling = new CountDownLatch(2);
+        when(files.listFolderLongpoll(eq("c0"), anyLong())).thenAnswer(invocation -> {
+            polling.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(2));
+            return new ListFolderLongpollResult(false, null);
+        });
+        CursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("/root", "c0");
+        LongPoolServiceImpl longPoolService = new LongPoolServiceImpl(properties, dropBoxUtils, cursorStore);
+
+        longPoolService.start();
+        ChangeCoalescer first = Whitebox.getInternalState(longPoolService, "changeCoalescer");
+        longPoolService.stop();
+        assertTrue(first.isClosed());
+
+        longPoolService.start();
+        assertTrue(polling.await(10, TimeUnit.SECONDS));
+        ChangeCoalescer second = Whitebox.getInternalState(longPoolService, "changeCoalescer");
+        assertNotSame(first, second);
+        assertFalse(second.isClosed());
+        longPoolService.stop();
+        assertTrue(second.isClosed());
+    }
+
+    private static Metadata file(String path) {
+        return FileMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path, new Date(), new Date(), "000000001", 1)
+                .withPathLower(path).build();
+    }
+}
@@ -0,0 +1,115 @@
+package com.dbl.service;
+
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.ServerException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestThrottlerTest {
+
+    @Test
+    void testAcquire_limitsRateAfterBurst() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(50, 5, 0, 0, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 15; i++) {
+            throttler.acquire();
+            throttler.release();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 5 from the burst, 10 more at 50 per second
+        assertTrue(elapsedMillis >= 180, "took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testAcquire_capsRequestsInFlight() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(0, 1, 2, 0, 0);
+        throttler.acquire();
+        throttler.acquire();
+        assertEquals(2, throttler.getInFlightCount());
+
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread waiting = new Thread(() -> {
+            try {
+                throttler.acquire();
+                acquired.set(true);
+            } catch (IOException e) {
+                // interrupted
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assertFalse(acquired.get());
+
+        throttler.release();
+        waiting.join(5000);
+        assertTrue(acquired.get());
+    }
+
+    @Test
+    void testPause_holdsOffEveryThread() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(0, 1, 0, 0, 0);
+        throttler.pause(300);
+
+        CountDownLatch done = new CountDownLatch(2);
+        long start = System.nanoTime();
+        for (int i = 0; i < 2; i++) {
+            new Thread(() -> {
+                try {
+                    throttler.acquire();
+                    throttler.release();
+                    done.countDown();
+                } catch (IOException e) {
+                    // interrupted
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+        assertEquals(1, throttler.getPauseCount());
+    }
+
+    @Test
+    void testCall_retriesTransientErrorsOfIdempotentRequests() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(0, 1, 0, 2, 1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = throttler.call(true, () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new NetworkIOException(new IOException("connection reset"));
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(2, throttler.getRetryCount());
+
+        AtomicInteger writes = new AtomicInteger();
+        assertThrows(ServerException.class, () -> throttler.call(false, () -> {
+            writes.incrementAndGet();
+            throw new ServerException("request", "internal error");
+        }));
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    void testBackoffMillis_growsWithJitterUpToMax() {
+        RequestThrottler throttler = new RequestThrottler(0, 1, 0, 3, 4000);
+
+        for (int i = 0; i < 100; i++) {
+            long first = throttler.backoffMillis(1);
+            assertTrue(first >= 250 && first <= 500, "first " + first);
+            long capped = throttler.backoffMillis(10);
+            assertTrue(capped >= 2000 && capped <= 4000, "capped " + capped);
+        }
+    }
+}
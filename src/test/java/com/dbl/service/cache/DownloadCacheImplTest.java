@@ -0,0 +1,98 @@
+package com.dbl.service.cache;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadCacheImplTest {
+
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    void testGet_servesCommittedContentUntilChanged() throws Exception {
+        DownloadCacheImpl cache = new DownloadCacheImpl(cacheDir, 1024, 1024);
+        store(cache, file("/a.docx", "000000001", "hash-1"), "hello");
+
+        assertArrayEquals("hello".getBytes(), cache.get("/A.docx"));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertNotNull(cache.copyTo("/a.docx", outputStream));
+        assertEquals("hello", outputStream.toString());
+
+        cache.change(message(ChangeType.FILE, file("/a.docx", "000000001", "hash-1")));
+        assertNotNull(cache.get("/a.docx"));
+
+        cache.change(message(ChangeType.FILE, file("/a.docx", "000000002", "hash-2")));
+        assertNull(cache.get("/a.docx"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void testDelete_invalidatesSubtree() throws Exception {
+        DownloadCacheImpl cache = new DownloadCacheImpl(cacheDir, 1024, 0);
+        store(cache, file("/folder/a.txt", "000000001", "hash-a"), "a");
+        store(cache, file("/folder2/b.txt", "000000001", "hash-b"), "b");
+
+        cache.change(message(ChangeType.DELETE, new DeletedMetadata("folder", "/folder", "/folder", null, null)));
+
+        assertNull(cache.get("/folder/a.txt"));
+        assertNotNull(cache.get("/folder2/b.txt"));
+    }
+
+    @Test
+    void testEviction_dropsLeastRecentlyUsed() throws Exception {
+        DownloadCacheImpl cache = new DownloadCacheImpl(cacheDir, 10, 0);
+        store(cache, file("/a.txt", "000000001", "hash-a"), "aaaa");
+        store(cache, file("/b.txt", "000000001", "hash-b"), "bbbb");
+        assertNotNull(cache.get("/a.txt"));
+
+        store(cache, file("/c.txt", "000000001", "hash-c"), "cccc");
+
+        assertNotNull(cache.get("/a.txt"));
+        assertNull(cache.get("/b.txt"));
+        assertNotNull(cache.get("/c.txt"));
+    }
+
+    @Test
+    void testCommit_skipsContentChangedWhileDownloading() throws Exception {
+        DownloadCacheImpl cache = new DownloadCacheImpl(cacheDir, 1024, 1024);
+        FileMetadata metadata = file("/a.txt", "000000001", "hash-1");
+
+        try (DownloadCache.Writer writer = cache.newWriter()) {
+            writer.getOutputStream().write("old".getBytes());
+            cache.change(message(ChangeType.FILE, file("/a.txt", "000000002", "hash-2")));
+            writer.commit(metadata);
+        }
+
+        assertNull(cache.getMetadata("/a.txt"));
+    }
+
+    private static void store(DownloadCache cache, FileMetadata metadata, String content) throws Exception {
+        try (DownloadCache.Writer writer = cache.newWriter()) {
+            writer.getOutputStream().write(content.getBytes());
+            writer.commit(metadata);
+        }
+    }
+
+    private static FileMetadata file(String path, String rev, String contentHash) {
+        return FileMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path, new Date(), new Date(), rev, 1)
+                .withPathLower(path).withContentHash(String.format("%64s", contentHash).replace(' ', '0')).build();
+    }
+
+    private static ChangeMessage message(ChangeType type, com.dropbox.core.v2.files.Metadata metadata) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(type);
+        changeMessage.setMessageDetails(metadata);
+        return changeMessage;
+    }
+}
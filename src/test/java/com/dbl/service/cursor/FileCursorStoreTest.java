@@ -0,0 +1,36 @@
+package com.dbl.service.cursor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileCursorStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSave_survivesNewStoreInstance() throws Exception {
+        Path file = tempDir.resolve("state/cursors.properties");
+        FileCursorStore store = new FileCursorStore(file);
+        assertNull(store.load("/root"));
+
+        store.save("/root", "cursor-1");
+        store.save("/other", "cursor-a");
+        store.save("/root", "cursor-2");
+
+        FileCursorStore reopened = new FileCursorStore(file);
+        assertEquals("cursor-2", reopened.load("/root"));
+        assertEquals("cursor-a", reopened.load("/other"));
+
+        reopened.remove("/other");
+        assertNull(new FileCursorStore(file).load("/other"));
+        try (var files = Files.list(file.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+}
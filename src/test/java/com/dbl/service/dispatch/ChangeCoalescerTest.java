@@ -0,0 +1,118 @@
+package com.dbl.service.dispatch;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeCoalescerTest {
+
+    @Test
+    void testAdd_emitsTheLastStateOfEveryPathAfterTheWindow() throws Exception {
+        List<String> emitted = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+        try (ChangeCoalescer coalescer = new ChangeCoalescer(50, changes -> changes.forEach(change -> {
+            emitted.add(describe(change));
+            done.countDown();
+        }))) {
+            coalescer.add(message(ChangeType.FILE, file("/a.docx", "000000001")));
+            coalescer.add(message(ChangeType.FILE, file("/b.docx", "000000001")));
+            coalescer.add(message(ChangeType.FILE, file("/a.docx", "000000002")));
+            coalescer.add(message(ChangeType.FILE, file("/a.docx", "000000003")));
+            coalescer.add(message(ChangeType.DELETE, deleted("/b.docx")));
+            assertTrue(emitted.isEmpty());
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(List.of("FILE /a.docx 000000003", "DELETE /b.docx"), emitted);
+            assertEquals(3, coalescer.getCollapsedCount());
+            assertEquals(0, coalescer.getPendingCount());
+        }
+    }
+
+    @Test
+    void testAdd_deleteReplacesTheSubtreeAndIsKeptBeforeARecreate() {
+        List<String> emitted = new ArrayList<>();
+        try (ChangeCoalescer coalescer = new ChangeCoalescer(TimeUnit.HOURS.toMillis(1),
+                changes -> changes.forEach(change -> emitted.add(describe(change))))) {
+            coalescer.add(message(ChangeType.FOLDER, folder("/f")));
+            coalescer.add(message(ChangeType.FILE, file("/f/a.txt", "000000001")));
+            coalescer.add(message(ChangeType.DELETE, deleted("/f")));
+            coalescer.add(message(ChangeType.FOLDER, folder("/f")));
+            coalescer.add(message(ChangeType.FILE, file("/f/b.txt", "000000001")));
+
+            coalescer.flush();
+
+            assertEquals(List.of("DELETE /f", "FOLDER /f", "FILE /f/b.txt 000000001"), emitted);
+            assertEquals(2, coalescer.getCollapsedCount());
+        }
+    }
+
+    @Test
+    void testMark_checkpointedOnceTheChangesBeforeItWereEmitted() {
+        List<String> checkpoints = new ArrayList<>();
+        List<String> emitted = new ArrayList<>();
+        boolean[] failing = { true };
+        try (ChangeCoalescer coalescer = new ChangeCoalescer(TimeUnit.HOURS.toMillis(1), changes -> {
+            if (failing[0]) {
+                throw new IllegalStateException("listener failed");
+            }
+            changes.forEach(change -> emitted.add(describe(change)));
+        }, checkpoints::add)) {
+            coalescer.add(message(ChangeType.FILE, file("/a.docx", "000000001")));
+            coalescer.mark("c1");
+            assertTrue(checkpoints.isEmpty());
+
+            assertThrows(IllegalStateException.class, coalescer::flush);
+            assertTrue(checkpoints.isEmpty());
+
+            failing[0] = false;
+            coalescer.add(message(ChangeType.FILE, file("/b.docx", "000000001")));
+            coalescer.mark("c2");
+            coalescer.flush();
+            assertEquals(List.of("FILE /b.docx 000000001"), emitted);
+            assertEquals(List.of("c2"), checkpoints);
+
+            // nothing held, saved right away
+            coalescer.mark("c3");
+            assertEquals(List.of("c2", "c3"), checkpoints);
+        }
+    }
+
+    private static String describe(ChangeMessage changeMessage) {
+        Metadata details = changeMessage.getMessageDetails();
+        String rev = details instanceof FileMetadata fileMetadata ? " " + fileMetadata.getRev() : "";
+        return changeMessage.getMessageType() + " " + details.getPathLower() + rev;
+    }
+
+    private static FileMetadata file(String path, String rev) {
+        return FileMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path, new Date(), new Date(), rev, 1)
+                .withPathLower(path).build();
+    }
+
+    private static FolderMetadata folder(String path) {
+        return FolderMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path).withPathLower(path).build();
+    }
+
+    private static DeletedMetadata deleted(String path) {
+        return new DeletedMetadata(path.substring(path.lastIndexOf('/') + 1), path, path, null, null);
+    }
+
+    private static ChangeMessage message(ChangeType type, Metadata metadata) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(type);
+        changeMessage.setMessageDetails(metadata);
+        return changeMessage;
+    }
+}
@@ -0,0 +1,276 @@
+package com.dbl.service.dispatch;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.domain.message.FileContent;
+import com.dbl.service.BatchChangeEventListener;
+import com.dbl.service.ChangeEventListener;
+import com.dropbox.core.v2.files.FileMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ChangeDispatcherTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void testDispatch_keepsOrderOfEveryPath() throws Exception {
+        Map<String, List<String>> revisions = new ConcurrentHashMap<>();
+        ChangeEventListener listener = listener(changeMessage -> {
+            FileMetadata metadata = (FileMetadata) changeMessage.getMessageDetails();
+            revisions.computeIfAbsent(metadata.getPathLower(), path -> Collections.synchronizedList(new ArrayList<>())).add(metadata.getRev());
+        });
+        try (ChangeDispatcher dispatcher = new ChangeDispatcher(4, 8, OverflowPolicy.BLOCK, spillDirectory)) {
+            dispatcher.register(listener);
+            for (int rev = 0; rev < 200; rev++) {
+                for (int path = 0; path < 10; path++) {
+                    dispatcher.dispatch(listener, message("/file" + path + ".txt", rev));
+                }
+            }
+            assertTrue(dispatcher.awaitIdle(10, TimeUnit.SECONDS));
+            assertEquals(0, dispatcher.getQueueDepth(listener));
+        }
+
+        assertEquals(10, revisions.size());
+        for (List<String> revs : revisions.values()) {
+            assertEquals(200, revs.size());
+            for (int rev = 0; rev < 200; rev++) {
+                assertEquals(rev(rev), revs.get(rev));
+            }
+        }
+    }
+
+    @Test
+    void testSpill_deliversOverflowInOrderOnceTheListenerCatchesUp() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        ChangeEventListener listener = listener(changeMessage -> {
+            awaitQuietly(release);
+            delivered.add(((FileMetadata) changeMessage.getMessageDetails()).getRev());
+        });
+        try (ChangeDispatcher dispatcher = new ChangeDispatcher(1, 2, OverflowPolicy.SPILL, spillDirectory)) {
+            for (int rev = 0; rev < 20; rev++) {
+                dispatcher.dispatch(listener, message("/a.txt", rev));
+            }
+            assertEquals(20, dispatcher.getQueueDepth(listener));
+            try (var spillFiles = Files.list(spillDirectory)) {
+                assertEquals(1, spillFiles.count());
+            }
+
+            release.countDown();
+            assertTrue(dispatcher.awaitIdle(10, TimeUnit.SECONDS));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int rev = 0; rev < 20; rev++) {
+            expected.add(rev(rev));
+        }
+        assertEquals(expected, delivered);
+        try (var spillFiles = Files.list(spillDirectory)) {
+            assertEquals(0, spillFiles.count());
+        }
+    }
+
+    @Test
+    void testSpill_waitsForRoomInsteadOfSpillingContent() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<ChangeMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        ChangeEventListener listener = listener(changeMessage -> {
+            awaitQuietly(release);
+            delivered.add(changeMessage);
+        });
+        FileContent content = mock(FileContent.class);
+        try (ChangeDispatcher dispatcher = new ChangeDispatcher(1, 2, OverflowPolicy.SPILL, spillDirectory)) {
+            for (int rev = 0; rev < 4; rev++) {
+                dispatcher.dispatch(listener, message("/a.txt", rev));
+            }
+            ChangeMessage withContent = message("/a.txt", 4);
+            withContent.setContent(content);
+            Thread dispatching = new Thread(() -> {
+                try {
+                    dispatcher.dispatch(listener, withContent);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            dispatching.start();
+            dispatching.join(200);
+            assertTrue(dispatching.isAlive());
+
+            release.countDown();
+            dispatching.join(10_000);
+            assertTrue(dispatcher.awaitIdle(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(5, delivered.size());
+        for (int rev = 0; rev < 5; rev++) {
+            assertEquals(rev(rev), ((FileMetadata) delivered.get(rev).getMessageDetails()).getRev());
+        }
+        assertSame(content, delivered.get(4).getContent());
+    }
+
+    @Test
+    void testAfterDelivery_runsOnceTheEarlierChangesWereDelivered() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        ChangeEventListener listener = listener(changeMessage -> {
+            if (changeMessage.getMessageDetails().getPathLower().equals("/slow.txt")) {
+                awaitQuietly(release);
+            }
+            delivered.add(changeMessage.getMessageDetails().getPathLower());
+        });
+        List<String> marks = Collections.synchronizedList(new ArrayList<>());
+        try (ChangeDispatcher dispatcher = new ChangeDispatcher(4, 10, OverflowPolicy.BLOCK, spillDirectory)) {
+            dispatcher.afterDelivery(() -> marks.add("nothing dispatched"));
+            assertEquals(List.of("nothing dispatched"), marks);
+
+            dispatcher.dispatch(listener, message("/a.txt", 0));
+            dispatcher.afterDelivery(() -> marks.add("first"));
+            dispatcher.dispatch(listener, message("/slow.txt", 0));
+            dispatcher.afterDelivery(() -> marks.add("second"));
+            // the slow change was dispatched after the first mark, it does not hold it back
+            for (int i = 0; i < 100 && marks.size() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("nothing dispatched", "first"), marks);
+
+            release.countDown();
+            assertTrue(dispatcher.awaitIdle(10, TimeUnit.SECONDS));
+            assertEquals(List.of("nothing dispatched", "first", "second"), marks);
+        }
+        assertEquals(2, delivered.size());
+    }
+
+    @Test
+    void testDropOldest_keepsTheLatestChanges() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        ChangeEventListener listener = listener(changeMessage -> {
+            started.countDown();
+            awaitQuietly(release);
+            delivered.add(((FileMetadata) changeMessage.getMessageDetails()).getRev());
+        });
+        try (ChangeDispatcher dispatcher = new ChangeDispatcher(1, 2, OverflowPolicy.DROP_OLDEST, spillDirectory)) {
+            dispatcher.dispatch(listener, message("/a.txt", 0));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int rev = 1; rev < 6; rev++) {
+                dispatcher.dispatch(listener, message("/a.txt", rev));
+            }
+            release.countDown();
+            assertTrue(dispatcher.awaitIdle(10, TimeUnit.SECONDS));
+            assertEquals(3, dispatcher.getDroppedCount());
+        }
+
+        assertEquals(List.of(rev(0), rev(4), rev(5)), delivered);
+    }
+
+    @Test
+    void testBatchListener_getsFullBatchesAndTheRestOfThePage() throws Exception {
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        BatchChangeEventListener listener = new BatchChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void changes(List<ChangeMessage> changeMessages) {
+                batchSizes.add(changeMessages.size());
+                for (ChangeMessage changeMessage : changeMessages) {
+                    delivered.add(((FileMetadata) changeMessage.getMessageDetails()).getRev());
+                }
+            }
+        };
+        try (ChangeDispatcher dispatcher = new ChangeDispatcher(1, 100, OverflowPolicy.BLOCK, spillDirectory, 10, 0)) {
+            for (int rev = 0; rev < 25; rev++) {
+                dispatcher.dispatch(listener, message("/a.txt", rev));
+            }
+            dispatcher.endOfPage();
+            assertTrue(dispatcher.awaitIdle(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(List.of(10, 10, 5), batchSizes);
+        assertEquals(25, delivered.size());
+        assertEquals(rev(24), delivered.get(24));
+    }
+
+    @Test
+    void testBatchListener_withoutStripesGetsEveryPageInOneCall() throws Exception {
+        List<List<ChangeMessage>> batches = new ArrayList<>();
+        BatchChangeEventListener listener = new BatchChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void changes(List<ChangeMessage> changeMessages) {
+                batches.add(changeMessages);
+            }
+        };
+        ChangeDispatcher dispatcher = new ChangeDispatcher(0, 0, null, spillDirectory, 1000, 0);
+        dispatcher.dispatch(listener, message("/a.txt", 0));
+        dispatcher.dispatch(listener, message("/b.txt", 0));
+        assertTrue(batches.isEmpty());
+
+        dispatcher.endOfPage();
+
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    private interface Change {
+        void accept(ChangeMessage changeMessage);
+    }
+
+    private static ChangeEventListener listener(Change change) {
+        return new ChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void change(ChangeMessage changeMessage) {
+                change.accept(changeMessage);
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ChangeMessage message(String path, int rev) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(ChangeType.FILE);
+        changeMessage.setMessageDetails(FileMetadata.newBuilder(path.substring(1), "id:" + path, new Date(), new Date(), rev(rev), 1)
+                .withPathLower(path).build());
+        return changeMessage;
+    }
+
+    private static String rev(int rev) {
+        return String.format("%09x", rev);
+    }
+}
@@ -0,0 +1,115 @@
+package com.dbl.service.dispatch;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionIndexTest {
+
+    @Test
+    void testMatch_routesByFormatPathAndType() {
+        ChangeEventListener everything = listener(List.of(), List.of(), Set.of());
+        ChangeEventListener documents = listener(List.of(".docx", ".PDF"), List.of(), Set.of());
+        ChangeEventListener invoices = listener(List.of(), List.of("/Root/Invoices/"), Set.of());
+        ChangeEventListener deletes = listener(List.of(), List.of(), Set.of(ChangeType.DELETE));
+        ChangeEventListener defaults = listener(null, List.of("/root"), Set.of(ChangeType.FILE));
+        SubscriptionIndex index = new SubscriptionIndex(List.of(everything, documents, invoices, deletes, defaults), List.of(".csv"));
+
+        assertEquals(List.of(everything, documents, invoices), index.match(message(ChangeType.FILE, file("/root/invoices/2023/a.docx"))));
+        assertEquals(List.of(everything, documents), index.match(message(ChangeType.FILE, file("/root/reports/a.pdf"))));
+        assertEquals(List.of(everything, defaults), index.match(message(ChangeType.FILE, file("/root/reports/a.csv"))));
+        assertEquals(List.of(everything), index.match(message(ChangeType.FILE, file("/root/invoices2/a.txt"))));
+        assertEquals(List.of(everything, documents, invoices, deletes),
+                index.match(message(ChangeType.DELETE, new DeletedMetadata("invoices", "/root/invoices", "/root/invoices", null, null))));
+    }
+
+    @Test
+    void testMatch_withoutPathReachesOnlyUnfilteredListeners() {
+        ChangeEventListener everything = listener(List.of(), List.of(), Set.of());
+        ChangeEventListener documents = listener(List.of(".docx"), List.of(), Set.of());
+        SubscriptionIndex index = new SubscriptionIndex(List.of(everything, documents), null);
+
+        assertEquals(List.of(everything), index.match(message(ChangeType.FILE, null)));
+    }
+
+    @Test
+    void testMatch_filtersOnlyFilesByFormat() {
+        ChangeEventListener documents = listener(List.of(".docx"), List.of(), Set.of());
+        ChangeEventListener defaults = listener(null, List.of(), Set.of());
+        SubscriptionIndex index = new SubscriptionIndex(List.of(documents, defaults), List.of(".doc", ".docx"));
+
+        assertEquals(List.of(defaults), index.match(message(ChangeType.FILE, file("/root/a.doc"))));
+        assertEquals(List.of(), index.match(message(ChangeType.FILE, file("/root/a.txt"))));
+        // folders and deleted files have no format to filter on
+        assertEquals(List.of(documents, defaults), index.match(message(ChangeType.FOLDER, folder("/root/reports"))));
+        assertEquals(List.of(documents, defaults), index.match(message(ChangeType.DELETE, deleted("/root/a.txt"))));
+    }
+
+    @Test
+    void testMatch_deletedFolderReachesListenersOfPathsUnderIt() {
+        ChangeEventListener invoices = listener(List.of(), List.of("/root/invoices/2023"), Set.of());
+        ChangeEventListener reports = listener(List.of(), List.of("/root/reports"), Set.of());
+        SubscriptionIndex index = new SubscriptionIndex(List.of(invoices, reports), null);
+
+        assertEquals(List.of(invoices, reports), index.match(message(ChangeType.DELETE, deleted("/root"))));
+        assertEquals(List.of(invoices), index.match(message(ChangeType.DELETE, deleted("/root/invoices"))));
+        assertEquals(List.of(invoices), index.match(message(ChangeType.FOLDER, folder("/root/invoices"))));
+        assertEquals(List.of(), index.match(message(ChangeType.DELETE, deleted("/root/invoices2"))));
+        // a file is never above an interesting path
+        assertEquals(List.of(), index.match(message(ChangeType.FILE, file("/root/invoices"))));
+    }
+
+    private static ChangeEventListener listener(List<String> formats, List<String> paths, Set<ChangeType> types) {
+        return new ChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return formats;
+            }
+
+            @Override
+            public List<String> getInterestingPaths() {
+                return paths;
+            }
+
+            @Override
+            public Set<ChangeType> getInterestingChangeTypes() {
+                return types;
+            }
+
+            @Override
+            public void change(ChangeMessage changeMessage) {
+            }
+        };
+    }
+
+    private static FileMetadata file(String path) {
+        return FileMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path, new Date(), new Date(), "000000001", 1)
+                .withPathLower(path).build();
+    }
+
+    private static FolderMetadata folder(String path) {
+        return FolderMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path).withPathLower(path).build();
+    }
+
+    private static DeletedMetadata deleted(String path) {
+        return DeletedMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1)).withPathLower(path).build();
+    }
+
+    private static ChangeMessage message(ChangeType type, Metadata metadata) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(type);
+        changeMessage.setMessageDetails(metadata);
+        return changeMessage;
+    }
+}
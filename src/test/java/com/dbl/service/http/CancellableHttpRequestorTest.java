@@ -0,0 +1,59 @@
+package com.dbl.service.http;
+
+import com.dropbox.core.http.StandardHttpRequestor;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CancellableHttpRequestorTest {
+
+    @Test
+    void testCancel_failsARequestWaitingForTheServer() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CancellableHttpRequestor requestor = new CancellableHttpRequestor(StandardHttpRequestor.Config.DEFAULT_INSTANCE);
+            Socket plain = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            SSLSocket socket = (SSLSocket) requestor.getSocketFactory().createSocket(plain, "localhost", server.getLocalPort(), true);
+            // the server accepts and never answers, the handshake waits like a long-poll does
+            try (Socket accepted = server.accept()) {
+                CompletableFuture<Void> handshake = CompletableFuture.runAsync(() -> {
+                    try {
+                        socket.startHandshake();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                assertThrows(TimeoutException.class, () -> handshake.get(200, TimeUnit.MILLISECONDS));
+
+                assertTrue(requestor.cancel() > 0);
+
+                ExecutionException failure = assertThrows(ExecutionException.class, () -> handshake.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, failure.getCause().getCause());
+                assertTrue(plain.isClosed());
+            }
+        }
+    }
+
+    @Test
+    void testCancelOfAThread_leavesTheSocketsOfTheOtherCallersOpen() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CancellableHttpRequestor requestor = new CancellableHttpRequestor(StandardHttpRequestor.Config.DEFAULT_INSTANCE);
+            Socket plain = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            try (Socket socket = requestor.getSocketFactory().createSocket(plain, "localhost", server.getLocalPort(), true);
+                    Socket accepted = server.accept()) {
+                assertEquals(0, requestor.cancel(new Thread()));
+                assertFalse(plain.isClosed());
+                assertFalse(socket.isClosed());
+            }
+        }
+    }
+}
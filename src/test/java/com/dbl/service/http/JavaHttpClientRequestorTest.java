@@ -0,0 +1,207 @@
+package com.dbl.service.http;
+
+import com.dbl.service.DropBoxExecutors;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.http.StandardHttpRequestor;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JavaHttpClientRequestorTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Dropbox-API-Result", exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("Dropbox-API-Arg"));
+            exchange.sendResponseHeaders(409, body.length == 0 ? -1 : body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            // reads the start of the body slowly, the client waits for room to write it
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            InputStream inputStream = exchange.getRequestBody();
+            for (int read, chunks = 0; (read = inputStream.read(buffer)) != -1; chunks++) {
+                body.write(buffer, 0, read);
+                if (chunks < 2) {
+                    try {
+                        Thread.sleep(1500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                body.writeTo(outputStream);
+            }
+        });
+        server.createContext("/hang", exchange -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/stall", exchange -> {
+            // the status and the start of the body arrive, the rest never does
+            exchange.sendResponseHeaders(200, 10);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write("hello".getBytes());
+            outputStream.flush();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void testPost_sendsBufferedAndStreamedBodies() throws Exception {
+        HttpRequestor requestor = new JavaHttpClientRequestor(HttpClient.newHttpClient(), StandardHttpRequestor.Config.DEFAULT_INSTANCE);
+        List<HttpRequestor.Header> headers = List.of(new HttpRequestor.Header("Dropbox-API-Arg", "{}"),
+                new HttpRequestor.Header("Content-Length", "5"));
+
+        HttpRequestor.Uploader buffered = requestor.startPost(baseUrl + "/echo", headers);
+        buffered.getBody().write("hello".getBytes());
+        HttpRequestor.Response response = buffered.finish();
+        assertEquals(409, response.getStatusCode());
+        assertEquals("hello", new String(response.getBody().readAllBytes()));
+        assertEquals(List.of("POST {}"), response.getHeaders().get("dropbox-api-result"));
+
+        HttpRequestor.Uploader streamed = requestor.startPostInStreamingMode(baseUrl + "/echo", List.of());
+        byte[] large = new byte[1024 * 1024];
+        streamed.getBody().write(large);
+        assertEquals(large.length, streamed.finish().getBody().readAllBytes().length);
+
+        assertEquals(409, requestor.doGet(baseUrl + "/echo", List.of()).getStatusCode());
+    }
+
+    @Test
+    void testPostInStreamingMode_sendsLargeBodiesOnAThreadPerTaskExecutor() throws Exception {
+        // a virtual thread per task, or a platform thread per task before Java 21, each ending with its task
+        ExecutorService executor = DropBoxExecutors.isVirtualThreadsSupported() ? DropBoxExecutors.newExecutor("test-http", 1, true)
+                : new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        try {
+            HttpRequestor requestor = new JavaHttpClientRequestor(HttpClient.newBuilder().executor(executor).build(), StandardHttpRequestor.Config.DEFAULT_INSTANCE);
+            byte[] body = new byte[8 * 1024 * 1024];
+            new Random(42).nextBytes(body);
+
+            HttpRequestor.Uploader streamed = requestor.startPostInStreamingMode(baseUrl + "/slow", List.of());
+            for (int offset = 0; offset < body.length; offset += 8192) {
+                streamed.getBody().write(body, offset, 8192);
+            }
+            HttpRequestor.Response response = streamed.finish();
+            assertEquals(200, response.getStatusCode());
+            assertArrayEquals(body, response.getBody().readAllBytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testReadTimeout_boundsEveryReadButNotTheUploadOfTheBody() throws Exception {
+        StandardHttpRequestor.Config config = StandardHttpRequestor.Config.builder().withReadTimeout(1, TimeUnit.SECONDS).build();
+        HttpRequestor requestor = new JavaHttpClientRequestor(HttpClient.newHttpClient(), config);
+
+        // the server takes 3 seconds to read the start of a body larger than the socket buffers
+        HttpRequestor.Uploader streamed = requestor.startPostInStreamingMode(baseUrl + "/slow", List.of());
+        byte[] body = new byte[32 * 1024 * 1024];
+        streamed.getBody().write(body);
+        assertEquals(body.length, streamed.finish().getBody().readAllBytes().length);
+
+        InputStream stalled = requestor.doGet(baseUrl + "/stall", List.of()).getBody();
+        assertEquals("hello", new String(stalled.readNBytes(5)));
+        long start = System.nanoTime();
+        assertThrows(HttpTimeoutException.class, stalled::read);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    void testCancel_failsRequestWaitingForResponse() throws Exception {
+        JavaHttpClientRequestor requestor = new JavaHttpClientRequestor(HttpClient.newHttpClient(), StandardHttpRequestor.Config.DEFAULT_INSTANCE);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                requestor.doGet(baseUrl + "/hang", List.of());
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        waiting.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (requestor.cancel() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        waiting.join(5000);
+
+        assertFalse(waiting.isAlive());
+        assertInstanceOf(IOException.class, failure.get());
+    }
+
+    @Test
+    void testCancelThread_onlyFailsTheRequestsOfTheThread() throws Exception {
+        JavaHttpClientRequestor requestor = new JavaHttpClientRequestor(HttpClient.newHttpClient(), StandardHttpRequestor.Config.DEFAULT_INSTANCE);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                requestor.doGet(baseUrl + "/hang", List.of());
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        waiting.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (requestor.cancel(waiting) == 0 && System.nanoTime() < deadline) {
+            assertEquals(0, requestor.cancel(Thread.currentThread()));
+            Thread.sleep(10);
+        }
+        waiting.join(5000);
+
+        assertFalse(waiting.isAlive());
+        assertInstanceOf(IOException.class, failure.get());
+    }
+}
@@ -0,0 +1,75 @@
+package com.dbl.service.http;
+
+import com.dbl.service.AdaptiveConcurrencyLimiter;
+import com.dbl.service.RequestThrottler;
+import com.dropbox.core.http.HttpRequestor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ThrottlingHttpRequestorTest {
+
+    @Test
+    void testFinish_pausesOnRetryAfterAndReleasesSlot() throws Exception {
+        HttpRequestor delegate = mock(HttpRequestor.class);
+        HttpRequestor.Uploader uploader = mock(HttpRequestor.Uploader.class);
+        when(delegate.startPost(anyString(), any())).thenReturn(uploader);
+        when(uploader.finish()).thenReturn(new HttpRequestor.Response(429, new ByteArrayInputStream(new byte[0]),
+                Map.of("retry-after", List.of("2"))));
+        RequestThrottler throttler = new RequestThrottler(0, 1, 4, 0, 0);
+
+        HttpRequestor requestor = new ThrottlingHttpRequestor(delegate, throttler, "notify.dropboxapi.com");
+        HttpRequestor.Uploader throttled = requestor.startPost("https://api.dropboxapi.com/2/files/get_metadata", List.of());
+        assertEquals(1, throttler.getInFlightCount());
+
+        assertEquals(429, throttled.finish().getStatusCode());
+        throttled.close();
+
+        assertEquals(0, throttler.getInFlightCount());
+        assertEquals(1, throttler.getPauseCount());
+    }
+
+    @Test
+    void testThrottledResponse_cutsTheConcurrencyLimitOfTheCallingThread() throws Exception {
+        HttpRequestor delegate = mock(HttpRequestor.class);
+        when(delegate.doGet(anyString(), any())).thenReturn(new HttpRequestor.Response(503, new ByteArrayInputStream(new byte[0]), Map.of()));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 8, 1, 16, 100);
+
+        HttpRequestor requestor = new ThrottlingHttpRequestor(delegate, new RequestThrottler(0, 1, 4, 0, 0), "notify.dropboxapi.com");
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquireUninterruptibly();
+        try {
+            assertEquals(503, requestor.doGet("https://content.dropboxapi.com/2/files/download", List.of()).getStatusCode());
+        } finally {
+            permit.release();
+        }
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void testLongPoll_takesNoInFlightSlot() throws Exception {
+        HttpRequestor delegate = mock(HttpRequestor.class);
+        when(delegate.startPost(anyString(), any())).thenReturn(mock(HttpRequestor.Uploader.class));
+        RequestThrottler throttler = new RequestThrottler(0, 1, 1, 0, 0);
+
+        HttpRequestor requestor = new ThrottlingHttpRequestor(delegate, throttler, "notify.dropboxapi.com");
+        requestor.startPost("https://notify.dropboxapi.com/2/files/list_folder/longpoll", List.of());
+        requestor.startPost("https://notify.dropboxapi.com/2/files/list_folder/longpoll", List.of());
+
+        assertEquals(0, throttler.getInFlightCount());
+    }
+
+    @Test
+    void testRetryAfterMillis_onlyForThrottledResponses() {
+        assertEquals(3000, ThrottlingHttpRequestor.retryAfterMillis(new HttpRequestor.Response(503, null, Map.of("Retry-After", List.of("3")))));
+        assertEquals(-1, ThrottlingHttpRequestor.retryAfterMillis(new HttpRequestor.Response(200, null, Map.of("Retry-After", List.of("3")))));
+        assertEquals(-1, ThrottlingHttpRequestor.retryAfterMillis(new HttpRequestor.Response(429, null, Map.of())));
+    }
+}
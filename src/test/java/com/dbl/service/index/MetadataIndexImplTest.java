@@ -0,0 +1,113 @@
+package com.dbl.service.index;
+
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataIndexImplTest {
+
+    @Test
+    void testQueries_answeredFromSeededTree() {
+        MetadataIndexImpl index = new MetadataIndexImpl("/Root");
+        index.seed(List.of(
+                folder("/root/docs"),
+                file("/root/docs/a.txt"),
+                folder("/root/docs/old"),
+                file("/root/docs/old/b.txt"),
+                file("/root/c.txt"),
+                file("/elsewhere/d.txt")).iterator());
+
+        assertTrue(index.isReady());
+        assertEquals(5, index.size());
+        assertTrue(index.covers("/root/docs"));
+        assertFalse(index.covers("/rootless"));
+        assertTrue(index.exists("/Root/Docs/A.txt"));
+        assertFalse(index.exists("/root/docs/missing.txt"));
+        assertEquals(List.of("/root/c.txt"), paths(index.files("/root", false)));
+        assertEquals(List.of("/root/c.txt", "/root/docs/a.txt", "/root/docs/old/b.txt"), sorted(index.files("/root", true)));
+        assertEquals(List.of("/root/docs", "/root/docs/old"), sorted(index.folders("/root", true)));
+    }
+
+    @Test
+    void testChanges_updateTreeAndWaitForSeed() {
+        MetadataIndexImpl index = new MetadataIndexImpl("");
+        index.apply(file("/early.txt"));
+        assertFalse(index.isReady());
+
+        List<Metadata> listing = List.of(folder("/docs"), file("/docs/a.txt"), file("/docs/b.txt"));
+        Iterator<Metadata> entries = listing.iterator();
+        index.seed(new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Metadata next() {
+                Metadata next = entries.next();
+                if (next.getPathLower().equals("/docs/a.txt")) {
+                    // a change received while the listing runs is applied after it
+                    index.apply(new DeletedMetadata("b.txt", "/docs/b.txt", "/docs/b.txt", null, null));
+                }
+                return next;
+            }
+        });
+
+        assertFalse(index.exists("/early.txt"));
+        assertFalse(index.exists("/docs/b.txt"));
+        assertEquals(2, index.size());
+
+        index.apply(file("/docs/sub/c.txt"));
+        assertTrue(index.exists("/docs/sub"));
+        assertEquals(3, index.size());
+
+        index.apply(file("/docs"));
+        assertEquals(1, index.size());
+        assertFalse(index.exists("/docs/a.txt"));
+
+        index.apply(new DeletedMetadata("docs", "/docs", "/docs", null, null));
+        assertEquals(0, index.size());
+        assertNull(index.get("/docs"));
+    }
+
+    @Test
+    void testLargeFolder_switchesToMapChildren() {
+        MetadataIndexImpl index = new MetadataIndexImpl("");
+        index.seed(List.<Metadata>of(folder("/big")).iterator());
+        for (int i = 0; i < 100; i++) {
+            index.apply(file("/big/file" + i + ".txt"));
+        }
+        index.apply(new DeletedMetadata("file50.txt", "/big/file50.txt", "/big/file50.txt", null, null));
+
+        assertEquals(100, index.size());
+        assertEquals(99, index.files("/big", false).size());
+        assertTrue(index.exists("/big/file99.txt"));
+        assertFalse(index.exists("/big/file50.txt"));
+    }
+
+    private static List<String> paths(List<? extends Metadata> entries) {
+        return entries.stream().map(Metadata::getPathLower).collect(Collectors.toList());
+    }
+
+    private static List<String> sorted(List<? extends Metadata> entries) {
+        return entries.stream().map(Metadata::getPathLower).sorted().collect(Collectors.toList());
+    }
+
+    private static FileMetadata file(String path) {
+        return FileMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path, new Date(), new Date(), "000000001", 1)
+                .withPathLower(path).build();
+    }
+
+    private static FolderMetadata folder(String path) {
+        return FolderMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path).withPathLower(path).build();
+    }
+}
@@ -0,0 +1,87 @@
+package com.dbl.service.metrics;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ChangeLagTrackerTest {
+
+    private final ChangeEventListener listener = mock(ChangeEventListener.class);
+
+    @Test
+    void testDelivered_lagRunsFromServerModifiedAndDispatchLagFromListing() {
+        ChangeLagTracker tracker = new ChangeLagTracker(60_000, 5_000);
+        long now = System.currentTimeMillis();
+
+        tracker.delivered(listener, List.of(file("/a.txt", now - 10_000, now - 2_000)), 0, false);
+
+        Map<Double, Long> lag = tracker.getLagPercentiles();
+        assertTrue(lag.get(0.5) >= 10_000 && lag.get(0.5) < 20_000, "lag " + lag);
+        Map<Double, Long> dispatchLag = tracker.getDispatchLagPercentiles();
+        assertTrue(dispatchLag.get(0.5) >= 2_000 && dispatchLag.get(0.5) < 10_000, "dispatch lag " + dispatchLag);
+        // a file modified long ago but listed just now is no sign of the listeners being behind
+        assertFalse(tracker.isBehind());
+
+        tracker.delivered(listener, List.of(file("/b.txt", now - 10_000, now - 8_000)), 0, false);
+        assertTrue(tracker.isBehind());
+        assertEquals(2, tracker.getDeliveredCount());
+    }
+
+    @Test
+    void testPercentiles_overEveryDeliveryOfTheWindow() {
+        ChangeLagTracker tracker = new ChangeLagTracker(60_000, 50_000);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 100; i++) {
+            tracker.delivered(listener, List.of(deleted("/file" + i + ".txt", now - i * 1_000L)), 0, false);
+        }
+
+        Map<Double, Long> lag = tracker.getLagPercentiles();
+        assertTrue(lag.get(0.5) >= 50_000 && lag.get(0.5) < 60_000, "lag " + lag);
+        assertTrue(lag.get(0.99) >= 99_000, "lag " + lag);
+        assertTrue(lag.get(1.0) >= 100_000, "lag " + lag);
+        // the 90th percentile is over the threshold
+        assertTrue(tracker.isBehind());
+    }
+
+    @Test
+    void testIsBehind_falseWithoutThresholdOrOnceDeliveriesLeftTheWindow() throws Exception {
+        long now = System.currentTimeMillis();
+        ChangeLagTracker disabled = new ChangeLagTracker(60_000, 0);
+        disabled.delivered(listener, List.of(file("/a.txt", now - 100_000, now - 100_000)), 0, false);
+        assertFalse(disabled.isBehind());
+
+        ChangeLagTracker tracker = new ChangeLagTracker(50, 1_000);
+        tracker.delivered(listener, List.of(file("/a.txt", now - 100_000, now - 100_000)), 0, false);
+        assertTrue(tracker.isBehind());
+        Thread.sleep(100);
+        assertFalse(tracker.isBehind());
+        assertTrue(tracker.getLagPercentiles().isEmpty());
+    }
+
+    private static ChangeMessage file(String path, long serverModified, long listedAt) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(ChangeType.FILE);
+        changeMessage.setMessageDetails(FileMetadata.newBuilder(path.substring(1), "id:" + path, new Date(serverModified), new Date(serverModified),
+                "000000001", 1).withPathLower(path).build());
+        changeMessage.setListedAt(listedAt);
+        return changeMessage;
+    }
+
+    private static ChangeMessage deleted(String path, long listedAt) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(ChangeType.DELETE);
+        changeMessage.setMessageDetails(DeletedMetadata.newBuilder(path.substring(1)).withPathLower(path).build());
+        changeMessage.setListedAt(listedAt);
+        return changeMessage;
+    }
+}
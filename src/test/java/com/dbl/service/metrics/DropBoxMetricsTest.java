@@ -0,0 +1,107 @@
+package com.dbl.service.metrics;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.exception.DropBoxLibException;
+import com.dbl.service.ChangeEventListener;
+import com.dbl.service.DropBoxServiceImpl;
+import com.dbl.service.DropBoxUtils;
+import com.dbl.service.RequestThrottler;
+import com.dbl.service.dispatch.ChangeDispatcher;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.FileMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.powermock.reflect.Whitebox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class DropBoxMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DropBoxMetrics dropBoxMetrics = new DropBoxMetrics(registry);
+
+    @Test
+    void testOperations_timedByOutcomeWithBytesTransferred() throws Exception {
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        when(dropBoxUtils.getRequestThrottler()).thenReturn(new RequestThrottler(new DropBoxLibProperties()));
+        FileMetadata metadata = FileMetadata.newBuilder("a.txt", "id:a", new Date(), new Date(), "000000001", 42).build();
+        when(dropBoxUtils.download(eq("/a.txt"), any(OutputStream.class), eq(client))).thenReturn(metadata);
+        when(dropBoxUtils.download(eq("/missing.txt"), any(OutputStream.class), eq(client))).thenThrow(new IOException("boom"));
+        DropBoxServiceImpl dropBoxService = new DropBoxServiceImpl(new DropBoxLibProperties(), dropBoxUtils, null, null, dropBoxMetrics);
+        Whitebox.setInternalState(dropBoxService, "client", client);
+
+        dropBoxService.download("/a.txt", new ByteArrayOutputStream());
+        assertThrows(DropBoxLibException.class, () -> dropBoxService.download("/missing.txt", new ByteArrayOutputStream()));
+
+        assertEquals(1, registry.get(DropBoxMetrics.OPERATION).tag("operation", "download").tag("outcome", "success").timer().count());
+        assertEquals(1, registry.get(DropBoxMetrics.OPERATION).tag("operation", "download").tag("outcome", "failure").timer().count());
+        assertEquals(42, registry.get(DropBoxMetrics.TRANSFER_BYTES).tag("direction", "download").summary().totalAmount());
+        assertEquals(3, registry.get(DropBoxMetrics.CONCURRENCY_LIMIT).gauges().size());
+    }
+
+    @Test
+    void testDelivered_countsEventsAndCallbackLatencyPerListener() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        try (ChangeDispatcher dispatcher = new ChangeDispatcher(0, 1, null, null)) {
+            dispatcher.addObserver(dropBoxMetrics);
+            dispatcher.register(listener);
+            dispatcher.dispatch(listener, message("/a.txt"));
+            dispatcher.dispatch(listener, message("/b.txt"));
+            listener.failing = true;
+            assertThrows(IllegalStateException.class, () -> dispatcher.dispatch(listener, message("/c.txt")));
+        }
+
+        assertEquals(3, registry.get(DropBoxMetrics.LISTENER_EVENTS).tag("listener", "RecordingListener").counter().count());
+        assertEquals(2, registry.get(DropBoxMetrics.LISTENER_CALLBACK).tag("listener", "RecordingListener").tag("outcome", "success").timer().count());
+        assertEquals(1, registry.get(DropBoxMetrics.LISTENER_CALLBACK).tag("listener", "RecordingListener").tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void testLongPoll_recordsRoundTripsAndBackoff() {
+        dropBoxMetrics.longPoll(1_000_000, "changes");
+        dropBoxMetrics.longPoll(2_000_000, "timeout");
+        dropBoxMetrics.backoff(30);
+        dropBoxMetrics.pagesFetched("syncFiles", 3);
+
+        assertEquals(1, registry.get(DropBoxMetrics.LONGPOLL).tag("result", "changes").timer().count());
+        assertEquals(1, registry.get(DropBoxMetrics.LONGPOLL).tag("result", "timeout").timer().count());
+        assertEquals(30, registry.get(DropBoxMetrics.LONGPOLL_BACKOFF).summary().totalAmount());
+        assertEquals(3, registry.get(DropBoxMetrics.LIST_PAGES).tag("listing", "syncFiles").counter().count());
+    }
+
+    private static ChangeMessage message(String path) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(ChangeType.FILE);
+        changeMessage.setMessageDetails(FileMetadata.newBuilder(path.substring(1), "id:" + path, new Date(), new Date(), "000000001", 1)
+                .withPathLower(path).build());
+        return changeMessage;
+    }
+
+    private static final class RecordingListener implements ChangeEventListener {
+        private volatile boolean failing;
+
+        @Override
+        public List<String> getInterestingFileFormat() {
+            return List.of();
+        }
+
+        @Override
+        public void change(ChangeMessage changeMessage) {
+            if (failing) {
+                throw new IllegalStateException("listener failed");
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.dbl.service.prefetch;
+
+import com.dbl.domain.ChangeType;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.DropBoxUtils;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.FileMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ContentPrefetcherTest {
+
+    @TempDir
+    Path spoolDirectory;
+
+    @Test
+    void testPrefetch_downloadsOnceAndSpoolsBeyondTheMemoryBudget() throws Exception {
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        when(dropBoxUtils.download(anyString(), any(OutputStream.class), any())).thenAnswer(invocation -> {
+            String revision = invocation.getArgument(0);
+            ((OutputStream) invocation.getArgument(1)).write(("content of " + revision).getBytes());
+            return null;
+        });
+
+        ChangeMessage small = message("/a.docx", "000000001", 20);
+        ChangeMessage spooled = message("/b.docx", "000000002", 20);
+        ChangeMessage otherFormat = message("/c.txt", "000000003", 20);
+        ChangeMessage tooLarge = message("/d.docx", "000000004", 2000);
+        try (ContentPrefetcher prefetcher = new ContentPrefetcher(dropBoxUtils, 1000, List.of(".DOCX"), 1, 30, spoolDirectory)) {
+            prefetcher.prefetch(List.of(small, spooled, otherFormat, tooLarge), client);
+
+            assertTrue(small.getContent().isInMemory());
+            assertEquals("content of rev:000000001", new String(small.getFile()));
+            assertFalse(spooled.getContent().isInMemory());
+            assertNull(spooled.getFile());
+            try (InputStream content = spooled.getContent().openStream()) {
+                assertEquals("content of rev:000000002", new String(content.readAllBytes()));
+            }
+            assertNull(otherFormat.getContent());
+            assertNull(tooLarge.getContent());
+            assertEquals(2, prefetcher.getDownloadCount());
+            assertEquals(1, prefetcher.getSpooledCount());
+            assertEquals(20, prefetcher.getMemoryInUse());
+
+            // released with the last reference
+            small.getContent().retain();
+            small.getContent().close();
+            assertEquals(20, prefetcher.getMemoryInUse());
+            small.getContent().close();
+            assertEquals(0, prefetcher.getMemoryInUse());
+            assertThrows(IllegalStateException.class, () -> small.getContent().openStream());
+            spooled.getContent().close();
+            try (var spoolFiles = Files.list(spoolDirectory)) {
+                assertEquals(0, spoolFiles.count());
+            }
+        }
+        verify(dropBoxUtils, times(2)).download(anyString(), any(OutputStream.class), any());
+    }
+
+    @Test
+    void testPrefetch_failedDownloadLeavesTheChangeWithoutContent() throws Exception {
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        when(dropBoxUtils.download(anyString(), any(OutputStream.class), any())).thenThrow(new IOException("connection reset"));
+        ChangeMessage changeMessage = message("/a.docx", "000000001", 20);
+
+        try (ContentPrefetcher prefetcher = new ContentPrefetcher(dropBoxUtils, 1000, null, 1, 1000, spoolDirectory)) {
+            prefetcher.prefetch(List.of(changeMessage), mock(DbxClientV2.class));
+
+            assertNull(changeMessage.getContent());
+            assertEquals(1, prefetcher.getFailureCount());
+            assertEquals(0, prefetcher.getMemoryInUse());
+        }
+    }
+
+    private static ChangeMessage message(String path, String rev, long size) {
+        ChangeMessage changeMessage = new ChangeMessage();
+        changeMessage.setMessageType(ChangeType.FILE);
+        changeMessage.setMessageDetails(FileMetadata.newBuilder(path.substring(1), "id:" + path, new Date(), new Date(), rev, size)
+                .withPathLower(path).build());
+        return changeMessage;
+    }
+}
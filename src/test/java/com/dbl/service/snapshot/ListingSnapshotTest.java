@@ -0,0 +1,71 @@
+package com.dbl.service.snapshot;
+
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListingSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testWriteAndRead_roundTripsEntriesAndCursor() throws Exception {
+        FileMetadata file = FileMetadata.newBuilder("a.txt", "id:a", new Date(1_600_000_000_000L), new Date(1_700_000_000_000L), "0123456789", 42)
+                .withPathLower("/root/docs/a.txt").withPathDisplay("/Root/Docs/a.txt")
+                .withContentHash("f".repeat(64)).build();
+        List<Metadata> entries = List.of(folder("/root/docs"), file);
+        Path snapshotFile = tempDir.resolve("listing.snapshot");
+
+        long written = ListingSnapshot.write(snapshotFile, "/root", entries.iterator(), () -> "cursor-1");
+        ListingSnapshot snapshot = ListingSnapshot.read(snapshotFile);
+
+        assertEquals(2, written);
+        assertEquals("/root", snapshot.getRootPath());
+        assertEquals("cursor-1", snapshot.getCursor());
+        assertEquals(entries, snapshot.getEntries());
+
+        byte[] truncated = Arrays.copyOf(Files.readAllBytes(snapshotFile), 40);
+        Files.write(snapshotFile, truncated);
+        assertThrows(IOException.class, () -> ListingSnapshot.read(snapshotFile));
+    }
+
+    @Test
+    void testUpdate_appliesChangesInOrder() {
+        ListingSnapshot snapshot = new ListingSnapshot("", "cursor-1", List.of(
+                folder("/docs"), file("/docs/a.txt"), folder("/docs/old"), file("/docs/old/b.txt"), file("/docsx.txt")));
+
+        ListingSnapshot updated = snapshot.update(List.of(
+                new DeletedMetadata("old", "/docs/old", "/docs/old", null, null),
+                file("/docs/c.txt"),
+                folder("/new"),
+                file("/docs/a.txt")).iterator(), () -> "cursor-2");
+
+        assertEquals("cursor-2", updated.getCursor());
+        assertEquals(List.of("/docs", "/docs/a.txt", "/docs/c.txt", "/docsx.txt", "/new"),
+                updated.getEntries().stream().map(Metadata::getPathLower).collect(Collectors.toList()));
+        assertEquals(5, snapshot.getEntries().size());
+    }
+
+    private static FileMetadata file(String path) {
+        return FileMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path, new Date(), new Date(), "000000001", 1)
+                .withPathLower(path).build();
+    }
+
+    private static FolderMetadata folder(String path) {
+        return FolderMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path).withPathLower(path).build();
+    }
+}
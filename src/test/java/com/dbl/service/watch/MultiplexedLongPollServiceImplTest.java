@@ -0,0 +1,252 @@
+package com.dbl.service.watch;
+
+import com.dbl.config.DropBoxLibProperties;
+import com.dbl.domain.message.ChangeMessage;
+import com.dbl.service.ChangeEventListener;
+import com.dbl.service.DropBoxUtils;
+import com.dbl.service.cursor.InMemoryCursorStore;
+import com.dropbox.core.DbxAuthInfo;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MultiplexedLongPollServiceImplTest {
+
+    @Test
+    void testStart_fetchesOnlySubscriptionsWithChanges() throws Exception {
+        DropBoxLibProperties properties = new DropBoxLibProperties();
+        properties.setLongPollStopTimeoutMillis(10_000);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(DbxAuthInfo.class), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+
+        CountDownLatch quietPolled = new CountDownLatch(1);
+        CountDownLatch busyPolled = new CountDownLatch(2);
+        // the quiet folder never changes, its poll waits until stop
+        when(files.listFolderLongpoll(eq("quiet-0"), anyLong())).thenAnswer(invocation -> {
+            quietPolled.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(2));
+            return new ListFolderLongpollResult(false, null);
+        });
+        when(files.listFolderLongpoll(eq("busy-0"), anyLong())).thenReturn(new ListFolderLongpollResult(true, null));
+        when(files.listFolderLongpoll(eq("busy-1"), anyLong())).thenAnswer(invocation -> {
+            busyPolled.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(2));
+            return new ListFolderLongpollResult(false, null);
+        });
+        when(files.listFolderContinue("busy-0")).thenAnswer(invocation -> {
+            busyPolled.countDown();
+            return new ListFolderResult(List.of(file("/busy/a.txt")), "busy-1", false);
+        });
+
+        InMemoryCursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("quiet", "quiet-0");
+        cursorStore.save("busy", "busy-0");
+        List<String> changed = Collections.synchronizedList(new ArrayList<>());
+        MultiplexedLongPollServiceImpl service = new MultiplexedLongPollServiceImpl(properties, dropBoxUtils, cursorStore);
+        service.subscribe(new WatchSubscription("quiet", "token-a", "/quiet").register(listener(changed)));
+        service.subscribe(new WatchSubscription("busy", "token-a", "/busy").register(listener(changed)));
+
+        service.start();
+        assertTrue(quietPolled.await(10, TimeUnit.SECONDS));
+        assertTrue(busyPolled.await(10, TimeUnit.SECONDS));
+        service.stop();
+
+        assertEquals(List.of("/busy/a.txt"), changed);
+        assertEquals("busy-1", cursorStore.load("busy"));
+        verify(files, never()).listFolderContinue("quiet-0");
+        // one pair of clients for the account
+        verify(dropBoxUtils, times(2)).createClient(any(DbxAuthInfo.class), any(), any());
+        assertFalse(service.isRunning());
+    }
+
+    @Test
+    void testUnsubscribe_removesTheCursorAndReleasesTheClientsWithTheLastWatchOfTheAccount() throws Exception {
+        DropBoxLibProperties properties = new DropBoxLibProperties();
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(DbxAuthInfo.class), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        CountDownLatch polled = new CountDownLatch(2);
+        when(files.listFolderLongpoll(anyString(), anyLong())).thenAnswer(invocation -> {
+            polled.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(2));
+            return new ListFolderLongpollResult(false, null);
+        });
+
+        InMemoryCursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("a", "a-0");
+        cursorStore.save("b", "b-0");
+        MultiplexedLongPollServiceImpl service = new MultiplexedLongPollServiceImpl(properties, dropBoxUtils, cursorStore);
+        service.subscribe(new WatchSubscription("a", "token-a", "/a"));
+        service.subscribe(new WatchSubscription("b", "token-a", "/b"));
+        service.start();
+        try {
+            assertTrue(polled.await(10, TimeUnit.SECONDS));
+
+            assertTrue(service.unsubscribe("a"));
+            assertNull(cursorStore.load("a"));
+            // the other watch of the account still polls on the clients
+            verify(dropBoxUtils, never()).cancelRequests(any(DbxClientV2.class));
+
+            assertTrue(service.unsubscribe("b"));
+            assertNull(cursorStore.load("b"));
+            verify(dropBoxUtils).cancelRequests(client);
+            assertFalse(service.unsubscribe("b"));
+        } finally {
+            service.stop();
+        }
+        // released clients are not cancelled again on stop
+        verify(dropBoxUtils, times(1)).cancelRequests(any(DbxClientV2.class));
+    }
+
+    @Test
+    void testSubscribe_pastThePollThreadsTakesTurnsWithShorterLongPolls() throws Exception {
+        DropBoxLibProperties properties = new DropBoxLibProperties();
+        properties.setWatchVirtualThreads(false);
+        properties.setWatchPollThreads(1);
+        properties.setWatchLongPollTimeoutSecs(120);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(DbxAuthInfo.class), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        Map<String, Long> timeouts = new ConcurrentHashMap<>();
+        CountDownLatch polled = new CountDownLatch(3);
+        when(files.listFolderLongpoll(anyString(), anyLong())).thenAnswer(invocation -> {
+            if (timeouts.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null) {
+                polled.countDown();
+            }
+            return new ListFolderLongpollResult(false, 1L);
+        });
+
+        InMemoryCursorStore cursorStore = new InMemoryCursorStore();
+        MultiplexedLongPollServiceImpl service = new MultiplexedLongPollServiceImpl(properties, dropBoxUtils, cursorStore);
+        for (String id : List.of("a", "b", "c")) {
+            cursorStore.save(id, id + "-0");
+            service.subscribe(new WatchSubscription(id, "token-a", "/" + id));
+        }
+        service.start();
+        try {
+            assertTrue(polled.await(10, TimeUnit.SECONDS));
+        } finally {
+            service.stop();
+        }
+
+        // three rounds on the one thread, each poll a third of the timeout
+        assertEquals(Map.of("a-0", 40L, "b-0", 40L, "c-0", 40L), timeouts);
+        assertEquals(3, service.getSubscriptions().size());
+    }
+
+    @Test
+    void testFetch_aSlowListenerHoldsBackNeitherTheFetchesNorTheOtherSubscriptions() throws Exception {
+        DropBoxLibProperties properties = new DropBoxLibProperties();
+        properties.setWatchFetchThreads(1);
+        properties.setLongPollStopTimeoutMillis(10_000);
+        DropBoxUtils dropBoxUtils = mock(DropBoxUtils.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(dropBoxUtils.createClient(any(DbxAuthInfo.class), any(), any())).thenReturn(client);
+        when(client.files()).thenReturn(files);
+        when(files.listFolderLongpoll(anyString(), anyLong())).thenAnswer(invocation -> {
+            if (invocation.getArgument(0).toString().endsWith("-0")) {
+                return new ListFolderLongpollResult(true, null);
+            }
+            Thread.sleep(TimeUnit.MINUTES.toMillis(2));
+            return new ListFolderLongpollResult(false, null);
+        });
+        when(files.listFolderContinue("slow-0")).thenReturn(new ListFolderResult(List.of(file("/slow/a.txt")), "slow-1", false));
+        when(files.listFolderContinue("fast-0")).thenReturn(new ListFolderResult(List.of(file("/fast/a.txt")), "fast-1", false));
+
+        InMemoryCursorStore cursorStore = new InMemoryCursorStore();
+        cursorStore.save("slow", "slow-0");
+        cursorStore.save("fast", "fast-0");
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> changed = Collections.synchronizedList(new ArrayList<>());
+        MultiplexedLongPollServiceImpl service = new MultiplexedLongPollServiceImpl(properties, dropBoxUtils, cursorStore);
+        service.subscribe(new WatchSubscription("slow", "token-a", "/slow").register(new ChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void change(ChangeMessage changeMessage) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                changed.add(changeMessage.getMessageDetails().getPathLower());
+            }
+        }));
+        service.subscribe(new WatchSubscription("fast", "token-a", "/fast").register(listener(changed)));
+
+        service.start();
+        try {
+            // the fast subscription is fetched, delivered and saved on the one fetch thread
+            verify(files, timeout(10_000)).listFolderContinue("slow-0");
+            verify(files, timeout(10_000)).listFolderContinue("fast-0");
+            assertTrue(eventually(() -> "fast-1".equals(cursorStore.load("fast"))));
+            assertEquals(List.of("/fast/a.txt"), changed);
+            verify(files, timeout(10_000)).listFolderLongpoll(eq("slow-1"), anyLong());
+            // the page of the slow listener is saved once it was delivered
+            assertEquals("slow-0", cursorStore.load("slow"));
+        } finally {
+            release.countDown();
+            service.stop();
+        }
+        assertEquals("slow-1", cursorStore.load("slow"));
+        assertTrue(changed.contains("/slow/a.txt"));
+    }
+
+    private static boolean eventually(Callable<Boolean> condition) throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            if (condition.call()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static ChangeEventListener listener(List<String> changed) {
+        return new ChangeEventListener() {
+            @Override
+            public List<String> getInterestingFileFormat() {
+                return List.of();
+            }
+
+            @Override
+            public void change(ChangeMessage changeMessage) {
+                changed.add(changeMessage.getMessageDetails().getPathLower());
+            }
+        };
+    }
+
+    private static Metadata file(String path) {
+        return FileMetadata.newBuilder(path.substring(path.lastIndexOf('/') + 1), "id:" + path, new Date(), new Date(), "000000001", 1)
+                .withPathLower(path).build();
+    }
+}